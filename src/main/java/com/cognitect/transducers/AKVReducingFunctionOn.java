@@ -0,0 +1,58 @@
+// Copyright 2014 Cognitect. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS-IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.cognitect.transducers;
+
+/**
+ * Abstract base class for implementing a key/value reducing function that
+ * chains to another key/value reducing function. Zero-arity and single-arity
+ * overloads of apply delegate to the chained reducing function.
+ * @param <R> Type of first argument and return value of the reducing functions
+ * @param <J> Key type of reducing function being chained to
+ * @param <W> Value type of reducing function being chained to
+ * @param <K> Key type of this reducing function
+ * @param <V> Value type of this reducing function
+ */
+public abstract class AKVReducingFunctionOn<R, J, W, K, V> implements IKVReducingFunction<R, K, V> {
+
+    protected IKVReducingFunction<R, ? super J, ? super W> rf;
+
+    /**
+     * Constructs a reducing function that chains to the given
+     * reducing function.
+     * @param rf a reducing function to chain to
+     */
+    public AKVReducingFunctionOn(IKVReducingFunction<R, ? super J, ? super W> rf) {
+        this.rf = rf;
+    }
+
+    /**
+     * Forwards to chained reducing function.
+     * @return a new result
+     */
+    @Override
+    public R apply() {
+        return rf.apply();
+    }
+
+    /**
+     * Forwards to chained reducing function.
+     * @param result The final reduction result
+     * @return the completed result
+     */
+    @Override
+    public R apply(R result) {
+        return rf.apply(result);
+    }
+}
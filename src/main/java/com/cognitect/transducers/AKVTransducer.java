@@ -0,0 +1,46 @@
+// Copyright 2014 Cognitect. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS-IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.cognitect.transducers;
+
+/**
+ * Abstract base class for implementing a key/value transducer that implements
+ * comp. Derived classes must implement apply.
+ * @param <J> The key type processed by an input process
+ * @param <W> The value type processed by an input process
+ * @param <K> The key type processed by the transduced process
+ * @param <V> The value type processed by the transduced process
+ */
+public abstract class AKVTransducer<J, W, K, V> implements IKVTransducer<J, W, K, V> {
+
+    /**
+     * Composes a transducer with another transducer, yielding
+     * a new transducer.
+     * @param right the transducer to compose with this transducer
+     * @param <I> the key type processed by the reducing function
+     *           the composed transducer returns when applied
+     * @param <U> the value type processed by the reducing function
+     *           the composed transducer returns when applied
+     * @return A new composite transducer
+     */
+    @Override
+    public <I, U> IKVTransducer<I, U, K, V> comp(final IKVTransducer<I, U, ? super J, ? super W> right) {
+        return new AKVTransducer<I, U, K, V>() {
+            @Override
+            public <R> IKVReducingFunction<R, K, V> apply(IKVReducingFunction<R, ? super I, ? super U> rf) {
+                return AKVTransducer.this.apply(right.apply(rf));
+            }
+        };
+    }
+}
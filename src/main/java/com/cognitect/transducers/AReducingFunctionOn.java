@@ -14,17 +14,26 @@
 
 package com.cognitect.transducers;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
 /**
  * Abstract base class for implementing a reducing function that chains to
  * another reducing function. Zero-arity and single-arity overloads of apply
  * delegate to the chained reducing function. Derived classes must implement
  * the three-arity overload of apply, and may implement either of the other
- * two overloads as required.
+ * two overloads as required. Derived classes with state should override
+ * snapshot and restore to write and read it, calling the base implementation
+ * afterwards to include the state of the chained reducing function. Derived
+ * classes that hold input until a deadline should likewise override deadline
+ * and tick, combining their own with the chained reducing function's.
  * @param <R> Type of first argument and return value of the reducing functions
  * @param <A> Input type of reducing function being chained to
  * @param <B> Input type of this reducing function
  */
-public abstract class AReducingFunctionOn<R, A, B> implements IReducingFunction<R, B> {
+public abstract class AReducingFunctionOn<R, A, B> implements IReducingFunction<R, B>, ICheckpointable, ITimed<R> {
 
     protected IReducingFunction<R, ? super A> rf;
 
@@ -55,4 +64,51 @@ public abstract class AReducingFunctionOn<R, A, B> implements IReducingFunction<
     public R apply(R result) {
         return rf.apply(result);
     }
+
+    /**
+     * Writes the state of the chained reducing function, if it has any.
+     * @param out the output to write to
+     * @throws IOException if the output fails
+     */
+    @Override
+    public void snapshot(DataOutput out) throws IOException {
+        if (rf instanceof ICheckpointable)
+            ((ICheckpointable) rf).snapshot(out);
+    }
+
+    /**
+     * Reads the state of the chained reducing function, if it has any.
+     * @param in the input to read from
+     * @throws IOException if the input fails
+     */
+    @Override
+    public void restore(DataInput in) throws IOException {
+        if (rf instanceof ICheckpointable)
+            ((ICheckpointable) rf).restore(in);
+    }
+
+    /**
+     * Returns the deadline of the chained reducing function, if it has one.
+     * @return the earliest time tick should be called, or Long.MAX_VALUE
+     */
+    @Override
+    public long deadline() {
+        if (rf instanceof ITimed)
+            return ((ITimed<?>) rf).deadline();
+        return Long.MAX_VALUE;
+    }
+
+    /**
+     * Forwards to the chained reducing function, if it is timed.
+     * @param result the current result
+     * @param reduced a boolean flag that can be set to stop the reduction
+     * @return a new result
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public R tick(R result, AtomicBoolean reduced) {
+        if (rf instanceof ITimed)
+            return ((ITimed<R>) rf).tick(result, reduced);
+        return result;
+    }
 }
\ No newline at end of file
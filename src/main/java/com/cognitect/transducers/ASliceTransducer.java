@@ -0,0 +1,68 @@
+// Copyright 2014 Cognitect. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS-IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.cognitect.transducers;
+
+/**
+ * Abstract base class for transducers whose effect on the position of inputs is
+ * known: drop and take, which select a range of positions, and map, which passes
+ * on one output for every input. When a pipeline starts with such stages, a
+ * reduction over an indexed source can skip straight to the range selected.
+ * @param <B> The type of data processed by an input process
+ * @param <C> The type of data processed by the transduced process
+ */
+abstract class ASliceTransducer<B, C> extends ATransducer<B, C> {
+
+    static final long UNLIMITED = Long.MAX_VALUE;
+
+    /**
+     * The number of inputs skipped.
+     */
+    final long offset;
+
+    /**
+     * The maximum number of inputs passed on after those skipped.
+     */
+    final long limit;
+
+    /**
+     * True for stages that pass on one output per input, which stay in the
+     * pipeline; false for stages that only select positions, which a source
+     * can replace.
+     */
+    final boolean oneToOne;
+
+    /**
+     * Creates a stage that passes on one output per input.
+     */
+    ASliceTransducer() {
+        this.offset = 0;
+        this.limit = UNLIMITED;
+        this.oneToOne = true;
+    }
+
+    /**
+     * Creates a stage that passes on at most limit inputs after skipping offset.
+     */
+    ASliceTransducer(long offset, long limit) {
+        this.offset = Math.max(0, offset);
+        this.limit = Math.max(0, limit);
+        this.oneToOne = false;
+    }
+
+    @Override
+    public SizeHint sizeHint(SizeHint input) {
+        return oneToOne ? input : input.skip(offset).limit(limit);
+    }
+}
@@ -32,11 +32,17 @@ public abstract class ATransducer<B, C> implements ITransducer<B, C> {
      */
     @Override
     public <A> ITransducer<A, C> comp(final ITransducer<A, ? super B> right) {
-        return new ATransducer<A, C>() {
-            @Override
-            public <R> IReducingFunction<R, C> apply(IReducingFunction<R, ? super A> rf) {
-                return ATransducer.this.apply(right.apply(rf));
-            }
-        };
+        return new ComposedTransducer<A, B, C>(this, right);
+    }
+
+    /**
+     * Returns what is known about the number of outputs, given what is known
+     * about the number of inputs. Derived classes should override this where
+     * they can say more than the default, which is nothing.
+     * @param input the hint for the number of inputs
+     * @return the hint for the number of outputs
+     */
+    public SizeHint sizeHint(SizeHint input) {
+        return SizeHint.UNKNOWN;
     }
 }
\ No newline at end of file
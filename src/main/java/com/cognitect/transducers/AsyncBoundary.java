@@ -0,0 +1,306 @@
+// Copyright 2014 Cognitect. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS-IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.cognitect.transducers;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The reducing function on the producer side of an async boundary. Inputs are
+ * gathered into batches on the calling thread and handed through an SPSC ring
+ * to a worker thread, which steps the reducing function downstream of the
+ * boundary. Each side only checks the other's flags once per batch.
+ *
+ * The worker only runs while there is work: once the ring has been empty for
+ * LINGER_NANOS it retires, and the next handoff starts a new one. So a
+ * reduction abandoned without completion, say because a stage before the
+ * boundary threw, leaves no thread behind for longer than that. Exactly one
+ * thread owns the consuming side at a time, by holding the running flag; the
+ * producer takes it over from the worker to complete the reduction, to tick
+ * timed stages after the boundary and to checkpoint or restore them, so those
+ * run on the calling thread against a quiescent downstream.
+ *
+ * The producer side returns the result it is given unchanged until
+ * completion, which returns the downstream result. When the downstream
+ * reducing function sets reduced, the producer side sets reduced at its next
+ * handoff. Timed stages after the boundary only see inputs once they are
+ * handed over, at a full batch or a tick.
+ * @param <R> the type of result
+ * @param <A> the type of input
+ */
+final class AsyncBoundary<R, A> extends AReducingFunctionOn<R, A, A> implements Runnable {
+
+    private static final Object NULL = new Object();
+    static final long LINGER_NANOS = 1000000;
+
+    private final WaitStrategy wait;
+    private final SpscRing<Object> ring;
+    private final AtomicBoolean running = new AtomicBoolean();
+    // counts handoffs, so a retiring worker can tell whether one raced with it
+    private final AtomicLong handoffs = new AtomicLong();
+    // producer side
+    private final Object[] batch;
+    private int count = 0;
+    private boolean started = false;
+    private volatile Thread worker = null;
+    private volatile boolean quiesce = false;
+    // consuming side, accessed only by the owner of running
+    private final Object[] drained;
+    private final AtomicBoolean downstreamReduced = new AtomicBoolean();
+    private R current;
+    private volatile long deadline = Long.MAX_VALUE;
+    private volatile boolean stopped = false;
+    private volatile Throwable error = null;
+
+    AsyncBoundary(IReducingFunction<R, ? super A> rf, int batchSize, int capacity, WaitStrategy wait) {
+        super(rf);
+        if (batchSize < 1)
+            throw new IllegalArgumentException("batchSize must be positive: " + batchSize);
+        this.wait = wait;
+        this.ring = new SpscRing<Object>(Math.max(capacity, batchSize));
+        this.batch = new Object[batchSize];
+        this.drained = new Object[batchSize];
+    }
+
+    private static RuntimeException rethrow(Throwable t) {
+        if (t instanceof RuntimeException)
+            throw (RuntimeException) t;
+        if (t instanceof Error)
+            throw (Error) t;
+        throw new RuntimeException(t);
+    }
+
+    private void wake() {
+        handoffs.incrementAndGet();
+        if (!running.get() && error == null && running.compareAndSet(false, true)) {
+            Thread t = new Thread(this, "transducers-boundary");
+            t.setDaemon(true);
+            worker = t;
+            try {
+                t.start();
+            } catch (Error e) {
+                running.set(false);
+                throw e;
+            }
+        }
+    }
+
+    private void handoff(AtomicBoolean reduced) {
+        int from = 0;
+        int attempt = 0;
+        while (from < count && !stopped && error == null) {
+            int n = ring.offer(batch, from, count);
+            if (n == 0) {
+                SpscRing.idle(wait, attempt++);
+            } else {
+                from += n;
+                attempt = 0;
+                wake();
+            }
+        }
+        Arrays.fill(batch, 0, count, null);
+        count = 0;
+        if (error != null)
+            throw rethrow(error);
+        if (stopped)
+            reduced.set(true);
+    }
+
+    /**
+     * Hands over the current batch and takes the consuming side over from the
+     * worker, stepping whatever is left in the ring on the calling thread.
+     */
+    private void own(AtomicBoolean reduced) {
+        handoff(reduced);
+        quiesce = true;
+        boolean interrupted = false;
+        while (!running.compareAndSet(false, true)) {
+            try {
+                worker.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        quiesce = false;
+        if (interrupted)
+            Thread.currentThread().interrupt();
+        if (error != null) {
+            running.set(false);
+            throw rethrow(error);
+        }
+        try {
+            int n;
+            while ((n = ring.drain(drained)) > 0) {
+                step(n);
+            }
+        } catch (Throwable t) {
+            fail(t);
+            throw rethrow(t);
+        }
+    }
+
+    private void fail(Throwable t) {
+        error = t;
+        stopped = true;
+        running.set(false);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void step(int n) {
+        for (int i = 0; i < n && !downstreamReduced.get(); i++) {
+            Object o = drained[i];
+            current = rf.apply(current, (o == NULL) ? null : (A) o, downstreamReduced);
+        }
+        Arrays.fill(drained, 0, n, null);
+        publish();
+    }
+
+    private void publish() {
+        if (downstreamReduced.get())
+            stopped = true;
+        deadline = (rf instanceof ITimed) ? ((ITimed<?>) rf).deadline() : Long.MAX_VALUE;
+    }
+
+    @Override
+    public R apply(R result, A input, AtomicBoolean reduced) {
+        if (!started) {
+            started = true;
+            current = result;
+        }
+        batch[count++] = (input == null) ? NULL : input;
+        if (count == batch.length)
+            handoff(reduced);
+        return result;
+    }
+
+    @Override
+    public R apply(R result) {
+        if (!started) {
+            started = true;
+            current = result;
+        }
+        own(new AtomicBoolean());
+        R ret = current;
+        current = null;
+        return rf.apply(ret);
+    }
+
+    /**
+     * @return the deadline of the stages after the boundary as of the last
+     * batch they stepped
+     */
+    @Override
+    public long deadline() {
+        return deadline;
+    }
+
+    /**
+     * Hands over the current batch and ticks the stages after the boundary on
+     * the calling thread.
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public R tick(R result, AtomicBoolean reduced) {
+        own(reduced);
+        try {
+            if (started && !downstreamReduced.get() && rf instanceof ITimed) {
+                current = ((ITimed<R>) rf).tick(current, downstreamReduced);
+                publish();
+            }
+            running.set(false);
+        } catch (Throwable t) {
+            fail(t);
+            throw rethrow(t);
+        }
+        if (stopped)
+            reduced.set(true);
+        return result;
+    }
+
+    /**
+     * Writes the result reduced so far after the boundary, which the caller's
+     * result does not include, with Java serialization, followed by the state
+     * of the stages after the boundary.
+     */
+    @Override
+    public void snapshot(DataOutput out) throws IOException {
+        own(new AtomicBoolean());
+        try {
+            out.writeBoolean(started);
+            if (started) {
+                Codecs.serializable().write(current, out);
+                out.writeBoolean(downstreamReduced.get());
+            }
+            super.snapshot(out);
+        } finally {
+            running.set(false);
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void restore(DataInput in) throws IOException {
+        own(new AtomicBoolean());
+        try {
+            started = in.readBoolean();
+            if (started) {
+                current = (R) Codecs.serializable().read(in);
+                downstreamReduced.set(in.readBoolean());
+            } else {
+                current = null;
+                downstreamReduced.set(false);
+            }
+            super.restore(in);
+            stopped = false;
+            publish();
+        } finally {
+            running.set(false);
+        }
+    }
+
+    @Override
+    public void run() {
+        try {
+            int idle = 0;
+            long idleSince = 0;
+            while (true) {
+                long seen = handoffs.get();
+                int n = ring.drain(drained);
+                if (n > 0) {
+                    step(n);
+                    idle = 0;
+                    continue;
+                }
+                if (idle == 0)
+                    idleSince = System.nanoTime();
+                if (!quiesce && System.nanoTime() - idleSince < LINGER_NANOS) {
+                    SpscRing.idle(wait, idle++);
+                    continue;
+                }
+                running.set(false);
+                // a handoff after seen may have found running still set, and not started a worker
+                if (handoffs.get() == seen || quiesce || !running.compareAndSet(false, true))
+                    return;
+                idle = 0;
+            }
+        } catch (Throwable t) {
+            fail(t);
+        }
+    }
+}
@@ -0,0 +1,116 @@
+// Copyright 2014 Cognitect. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS-IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.cognitect.transducers;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Drives a reducing function from an AsyncStage without blocking. Whenever a
+ * pending Deferred completes, the completed prefix of pending values is fed to
+ * the reducing function in input order and more inputs are started, up to the
+ * in-flight bound. The work runs on whichever thread triggers it, and a
+ * work-in-progress counter makes sure only one thread runs it at a time.
+ */
+final class AsyncReduction<R, A, B> implements Deferred.Listener<Object> {
+
+    private final AsyncStage<A, B> stage;
+    private final Iterator<B> source;
+    private final IReducingFunction<R, ? super A> rf;
+    private final AtomicBoolean reduced = new AtomicBoolean();
+    private final ArrayDeque<Deferred<? extends A>> pending = new ArrayDeque<Deferred<? extends A>>();
+    private final AtomicInteger wip = new AtomicInteger();
+    private final Deferred<R> out = new Deferred<R>();
+    private R result;
+
+    AsyncReduction(AsyncStage<A, B> stage, IReducingFunction<R, ? super A> rf, R init, Iterable<B> input) {
+        this.stage = stage;
+        this.rf = rf;
+        this.result = init;
+        this.source = input.iterator();
+    }
+
+    Deferred<R> start() {
+        // if the caller cancels the result, stop and cancel everything pending
+        out.onComplete(this);
+        drain();
+        return out;
+    }
+
+    @Override
+    public void onComplete(Object value, Throwable error) {
+        drain();
+    }
+
+    private void drain() {
+        if (wip.getAndIncrement() != 0)
+            return;
+        int missed = 1;
+        do {
+            try {
+                if (out.isDone())
+                    cancelPending();
+                else
+                    step();
+            } catch (Throwable t) {
+                cancelPending();
+                out.fail(t);
+            }
+            missed = wip.addAndGet(-missed);
+        } while (missed != 0);
+    }
+
+    private void cancelPending() {
+        Deferred<? extends A> d;
+        while ((d = pending.poll()) != null) {
+            d.cancel(false);
+        }
+    }
+
+    private void step() throws Exception {
+        boolean progress = true;
+        while (progress) {
+            progress = false;
+            Deferred<? extends A> head;
+            while ((head = pending.peek()) != null && head.isDone()) {
+                pending.poll();
+                A a;
+                try {
+                    a = head.get();
+                } catch (ExecutionException e) {
+                    throw (e.getCause() instanceof Exception) ? (Exception) e.getCause() : e;
+                }
+                result = rf.apply(result, a, reduced);
+                if (reduced.get()) {
+                    cancelPending();
+                    out.complete(rf.apply(result));
+                    return;
+                }
+            }
+            while (pending.size() < stage.maxInFlight && source.hasNext()) {
+                Deferred<? extends A> d = stage.f.apply(source.next());
+                pending.add(d);
+                // may run drain on this thread right away, which the wip counter defers
+                d.onComplete(this);
+                progress = true;
+            }
+        }
+        if (pending.isEmpty() && !source.hasNext())
+            out.complete(rf.apply(result));
+    }
+}
@@ -0,0 +1,35 @@
+// Copyright 2014 Cognitect. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS-IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.cognitect.transducers;
+
+/**
+ * The first stage of an asynchronous reduction: a mapping function that
+ * returns a Deferred, and a bound on how many of those may be pending at once.
+ * Created by Fns.mapAsync and run by Fns.transduceAsync.
+ * @param <A> the type of value the function produces
+ * @param <B> the type of input the function takes
+ */
+public final class AsyncStage<A, B> {
+
+    final Function<B, ? extends Deferred<? extends A>> f;
+    final int maxInFlight;
+
+    AsyncStage(Function<B, ? extends Deferred<? extends A>> f, int maxInFlight) {
+        if (maxInFlight < 1)
+            throw new IllegalArgumentException("maxInFlight must be positive: " + maxInFlight);
+        this.f = f;
+        this.maxInFlight = maxInFlight;
+    }
+}
@@ -0,0 +1,203 @@
+// Copyright 2014 Cognitect. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS-IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.cognitect.transducers;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A cache of function results holding at most maxSize entries, used to
+ * memoize expensive functions over repetitive inputs. Null results are cached
+ * like any other.
+ *
+ * With the LRU policy, a new entry always displaces the least recently used
+ * one. With the TINY_LFU policy, the frequency of every key looked up is
+ * estimated with a periodically aged Count-Min sketch, and a new entry only
+ * displaces the least recently used one if its key has been seen more often;
+ * that keeps one-off keys from flushing out popular ones.
+ *
+ * A cache created as concurrent can be shared by pipelines on several threads.
+ * Lookups and updates take a lock, but the function itself is called outside
+ * it, so two threads missing on the same key may both compute it.
+ * @param <K> the key type
+ * @param <V> the value type
+ */
+public class BoundedCache<K, V> {
+
+    /**
+     * Eviction policies.
+     */
+    public enum Policy {
+        /**
+         * Always admit new entries, evicting the least recently used entry.
+         */
+        LRU,
+        /**
+         * Admit a new entry only if its key is more frequent than the key of
+         * the least recently used entry, which it then evicts.
+         */
+        TINY_LFU
+    }
+
+    private static final Object NULL = new Object();
+
+    private final int maxSize;
+    private final Policy policy;
+    private final boolean concurrent;
+    private final LinkedHashMap<K, Object> entries;
+    private final CountMinSketch frequencies;
+    private final long sampleSize;
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+    private long rejections = 0;
+
+    /**
+     * Creates an empty cache.
+     * @param maxSize the maximum number of entries
+     * @param policy the eviction policy
+     * @param concurrent true if the cache will be shared between threads
+     */
+    public BoundedCache(int maxSize, Policy policy, boolean concurrent) {
+        if (maxSize < 1)
+            throw new IllegalArgumentException("maxSize must be positive: " + maxSize);
+        this.maxSize = maxSize;
+        this.policy = policy;
+        this.concurrent = concurrent;
+        this.entries = new LinkedHashMap<K, Object>(16, 0.75f, true);
+        if (policy == Policy.TINY_LFU) {
+            this.frequencies = new CountMinSketch(Math.max(64, 4 * maxSize), 4);
+            this.sampleSize = 10L * maxSize;
+        } else {
+            this.frequencies = null;
+            this.sampleSize = 0;
+        }
+    }
+
+    /**
+     * @return the maximum number of entries
+     */
+    public int maxSize() {
+        return maxSize;
+    }
+
+    /**
+     * @return the eviction policy
+     */
+    public Policy policy() {
+        return policy;
+    }
+
+    private Object lookup(K key) {
+        if (frequencies != null) {
+            frequencies.add(key);
+            if (frequencies.total() >= sampleSize)
+                frequencies.halve();
+        }
+        Object ret = entries.get(key);
+        if (ret != null)
+            hits++;
+        else
+            misses++;
+        return ret;
+    }
+
+    private void admit(K key, V value) {
+        if (entries.containsKey(key))
+            return;
+        if (entries.size() >= maxSize) {
+            Iterator<Map.Entry<K, Object>> eldest = entries.entrySet().iterator();
+            K victim = eldest.next().getKey();
+            if (frequencies != null && frequencies.estimate(key) <= frequencies.estimate(victim)) {
+                rejections++;
+                return;
+            }
+            eldest.remove();
+            evictions++;
+        }
+        entries.put(key, (value == null) ? NULL : value);
+    }
+
+    /**
+     * Returns the cached result for a key, calling f to compute it on a miss.
+     * @param key the key to look up
+     * @param f computes the result for a key that is not cached
+     * @return the result for key
+     */
+    @SuppressWarnings("unchecked")
+    public V get(K key, Function<K, V> f) {
+        Object cached;
+        if (concurrent) {
+            synchronized (this) {
+                cached = lookup(key);
+            }
+        } else {
+            cached = lookup(key);
+        }
+        if (cached != null)
+            return (cached == NULL) ? null : (V) cached;
+        V ret = f.apply(key);
+        if (concurrent) {
+            synchronized (this) {
+                admit(key, ret);
+            }
+        } else {
+            admit(key, ret);
+        }
+        return ret;
+    }
+
+    /**
+     * @return the number of entries
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return the number of lookups that found a cached result
+     */
+    public synchronized long hits() {
+        return hits;
+    }
+
+    /**
+     * @return the number of lookups that called the function
+     */
+    public synchronized long misses() {
+        return misses;
+    }
+
+    /**
+     * @return the number of entries displaced by new entries
+     */
+    public synchronized long evictions() {
+        return evictions;
+    }
+
+    /**
+     * @return the number of computed results the TINY_LFU policy declined to cache
+     */
+    public synchronized long rejections() {
+        return rejections;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "BoundedCache{policy=" + policy + ", size=" + entries.size() + ", hits=" + hits +
+                ", misses=" + misses + ", evictions=" + evictions + ", rejections=" + rejections + "}";
+    }
+}
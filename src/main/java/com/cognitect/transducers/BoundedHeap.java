@@ -0,0 +1,118 @@
+// Copyright 2014 Cognitect. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS-IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.cognitect.transducers;
+
+import java.util.Comparator;
+
+/**
+ * A binary heap holding at most k values, each with a key. Once full, a new
+ * value only displaces the value with the smallest key, so the heap keeps the
+ * k values with the largest keys seen so far in O(log k) time per offer.
+ * @param <K> the key type
+ * @param <V> the value type
+ */
+final class BoundedHeap<K, V> {
+
+    private final Comparator<? super K> comparator;
+    private final Object[] keys;
+    private final Object[] vals;
+    private int size = 0;
+
+    BoundedHeap(int k, Comparator<? super K> comparator) {
+        if (k < 0)
+            throw new IllegalArgumentException("k must not be negative: " + k);
+        this.comparator = comparator;
+        this.keys = new Object[k];
+        this.vals = new Object[k];
+    }
+
+    @SuppressWarnings("unchecked")
+    private int compare(int i, int j) {
+        return comparator.compare((K) keys[i], (K) keys[j]);
+    }
+
+    private void swap(int i, int j) {
+        Object k = keys[i]; keys[i] = keys[j]; keys[j] = k;
+        Object v = vals[i]; vals[i] = vals[j]; vals[j] = v;
+    }
+
+    private void siftUp(int i) {
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (compare(i, parent) >= 0)
+                break;
+            swap(i, parent);
+            i = parent;
+        }
+    }
+
+    private void siftDown(int i) {
+        int half = size >>> 1;
+        while (i < half) {
+            int child = 2 * i + 1;
+            if (child + 1 < size && compare(child + 1, child) < 0)
+                child++;
+            if (compare(child, i) >= 0)
+                break;
+            swap(i, child);
+            i = child;
+        }
+    }
+
+    /**
+     * Adds a value if the heap is not full or its key is larger than the
+     * smallest key in the heap.
+     */
+    @SuppressWarnings("unchecked")
+    void offer(K key, V val) {
+        if (size < keys.length) {
+            keys[size] = key;
+            vals[size] = val;
+            siftUp(size++);
+        } else if (size > 0 && comparator.compare(key, (K) keys[0]) > 0) {
+            keys[0] = key;
+            vals[0] = val;
+            siftDown(0);
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Returns the value at a position in heap order. Offering the values to an
+     * empty heap in this order rebuilds the same heap.
+     */
+    @SuppressWarnings("unchecked")
+    V value(int i) {
+        return (V) vals[i];
+    }
+
+    /**
+     * Empties the heap, returning its values ordered from largest to smallest key.
+     */
+    Object[] drain() {
+        Object[] ret = new Object[size];
+        while (size > 0) {
+            ret[size - 1] = vals[0];
+            swap(0, --size);
+            keys[size] = null;
+            vals[size] = null;
+            siftDown(0);
+        }
+        return ret;
+    }
+}
@@ -0,0 +1,114 @@
+// Copyright 2014 Cognitect. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS-IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.cognitect.transducers;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stops a reduction that has run too long or is no longer wanted. A token is
+ * cancelled by calling cancel, or by its deadline passing. Reductions only
+ * look at the token every so many inputs (see Fns.cancellable), so the cost
+ * of a volatile read and a clock read is spread over many steps, and a
+ * reduction may run a little past the moment its token is cancelled.
+ *
+ * What a tripped reduction does is set by the token's policy: THROW abandons
+ * it with a CancellationException, and PARTIAL stops it as if its input had
+ * ended there and returns the completed result of the inputs seen so far.
+ */
+public final class CancellationToken {
+
+    /**
+     * What a reduction does when it finds its token cancelled.
+     */
+    public enum Policy {
+        /**
+         * Throw a CancellationException; no result is returned.
+         */
+        THROW,
+        /**
+         * Stop as though the input ended, and return the completed result of
+         * the inputs seen so far.
+         */
+        PARTIAL
+    }
+
+    private final Policy policy;
+    private final IClock clock;
+    private final long deadline;
+    private volatile boolean cancelled = false;
+
+    private CancellationToken(Policy policy, IClock clock, long deadline) {
+        this.policy = policy;
+        this.clock = clock;
+        this.deadline = deadline;
+    }
+
+    /**
+     * Creates a token that is cancelled only by calling cancel.
+     * @param policy what a reduction does when it finds the token cancelled
+     * @return a new token
+     */
+    public static CancellationToken create(Policy policy) {
+        return new CancellationToken(policy, null, 0);
+    }
+
+    /**
+     * Creates a token that is cancelled once a timeout has passed, or earlier
+     * by calling cancel.
+     * @param timeout the time from now until the token is cancelled
+     * @param unit the unit of timeout
+     * @param clock the clock the deadline is kept by
+     * @param policy what a reduction does when it finds the token cancelled
+     * @return a new token
+     */
+    public static CancellationToken withTimeout(long timeout, TimeUnit unit, IClock clock, Policy policy) {
+        return new CancellationToken(policy, clock, clock.nanoTime() + unit.toNanos(timeout));
+    }
+
+    /**
+     * @return what a reduction does when it finds the token cancelled
+     */
+    public Policy policy() {
+        return policy;
+    }
+
+    /**
+     * Cancels the token. Reductions using it stop the next time they check.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * @return true if cancel has been called or the deadline has passed
+     */
+    public boolean isCancelled() {
+        return cancelled || (clock != null && clock.nanoTime() - deadline >= 0);
+    }
+
+    /**
+     * Checks the token, applying its policy if it is cancelled.
+     * @return true if the reduction should stop with a partial result
+     * @throws CancellationException if the token is cancelled and its policy is THROW
+     */
+    boolean trip() {
+        if (!isCancelled())
+            return false;
+        if (policy == Policy.THROW)
+            throw new CancellationException(cancelled ? "cancelled" : "deadline exceeded");
+        return true;
+    }
+}
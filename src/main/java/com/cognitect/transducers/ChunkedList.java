@@ -0,0 +1,151 @@
+// Copyright 2014 Cognitect. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS-IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.cognitect.transducers;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.RandomAccess;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * An append-only list stored as a sequence of fixed-size arrays. Growing it
+ * allocates one more small array instead of copying everything into a larger
+ * one, so collecting a result of unknown size never needs more than its final
+ * size plus one chunk, and never allocates one huge array. Elements can be
+ * read and replaced by index, or the list reduced as a source; toArray copies
+ * it into one flat array once collection is done. Removing elements is not
+ * supported, except by clear.
+ * @param <T> the type of each element
+ */
+public final class ChunkedList<T> extends AbstractList<T> implements RandomAccess, IReducible<T> {
+
+    private final int shift;
+    private final int mask;
+    private Object[][] chunks = new Object[8][];
+    private int size = 0;
+
+    /**
+     * Creates an empty list with chunks of 1024 elements.
+     */
+    public ChunkedList() {
+        this(1024);
+    }
+
+    /**
+     * Creates an empty list.
+     * @param chunkSize the number of elements per chunk, rounded up to a power of two
+     */
+    public ChunkedList(int chunkSize) {
+        if (chunkSize < 1 || chunkSize > 1 << 30)
+            throw new IllegalArgumentException("chunkSize out of range: " + chunkSize);
+        int n = Integer.highestOneBit(chunkSize);
+        if (n < chunkSize)
+            n <<= 1;
+        this.shift = Integer.numberOfTrailingZeros(n);
+        this.mask = n - 1;
+    }
+
+    @Override
+    public boolean add(T t) {
+        int c = size >>> shift;
+        if (c == chunks.length)
+            chunks = Arrays.copyOf(chunks, 2 * c);
+        if (chunks[c] == null)
+            chunks[c] = new Object[mask + 1];
+        chunks[c][size & mask] = t;
+        size++;
+        modCount++;
+        return true;
+    }
+
+    private void check(int index) {
+        if (index < 0 || index >= size)
+            throw new IndexOutOfBoundsException("index: " + index + ", size: " + size);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public T get(int index) {
+        check(index);
+        return (T) chunks[index >>> shift][index & mask];
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public T set(int index, T t) {
+        check(index);
+        Object[] chunk = chunks[index >>> shift];
+        T ret = (T) chunk[index & mask];
+        chunk[index & mask] = t;
+        return ret;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public void clear() {
+        chunks = new Object[8][];
+        size = 0;
+        modCount++;
+    }
+
+    private void copyTo(Object[] dest) {
+        for (int c = 0, at = 0; at < size; c++) {
+            int n = Math.min(mask + 1, size - at);
+            System.arraycopy(chunks[c], 0, dest, at, n);
+            at += n;
+        }
+    }
+
+    @Override
+    public Object[] toArray() {
+        Object[] ret = new Object[size];
+        copyTo(ret);
+        return ret;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <U> U[] toArray(U[] a) {
+        U[] ret = (a.length >= size) ? a : (U[]) Arrays.copyOf(a, size, a.getClass());
+        copyTo(ret);
+        if (ret.length > size)
+            ret[size] = null;
+        return ret;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <R> R reduce(IReducingFunction<R, ? super T> rf, R result, long offset, long limit, AtomicBoolean reduced) {
+        int from = (int) Math.min(offset, size);
+        int to = (limit >= size - from) ? size : (int) (from + limit);
+        R ret = result;
+        for (int i = from; i < to; ) {
+            Object[] chunk = chunks[i >>> shift];
+            int j = i & mask;
+            int end = Math.min(mask + 1, j + to - i);
+            for (int k = j; k < end; k++) {
+                ret = rf.apply(ret, (T) chunk[k], reduced);
+                if (reduced.get())
+                    return ret;
+            }
+            i += end - j;
+        }
+        return ret;
+    }
+}
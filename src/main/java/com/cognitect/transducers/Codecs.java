@@ -0,0 +1,120 @@
+// Copyright 2014 Cognitect. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS-IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.cognitect.transducers;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+
+/**
+ * Element codecs for common types.
+ */
+public class Codecs {
+
+    /**
+     * Writes longs as 8 bytes.
+     */
+    public static final IElementCodec<Long> LONG = new IElementCodec<Long>() {
+        @Override
+        public void write(Long l, DataOutput out) throws IOException {
+            out.writeLong(l);
+        }
+
+        @Override
+        public Long read(DataInput in) throws IOException {
+            return in.readLong();
+        }
+    };
+
+    /**
+     * Writes doubles as 8 bytes.
+     */
+    public static final IElementCodec<Double> DOUBLE = new IElementCodec<Double>() {
+        @Override
+        public void write(Double d, DataOutput out) throws IOException {
+            out.writeDouble(d);
+        }
+
+        @Override
+        public Double read(DataInput in) throws IOException {
+            return in.readDouble();
+        }
+    };
+
+    /**
+     * Writes strings as a length followed by their UTF-8 bytes. Unlike
+     * DataOutput.writeUTF, strings of any length can be written.
+     */
+    public static final IElementCodec<String> STRING = new IElementCodec<String>() {
+        @Override
+        public void write(String s, DataOutput out) throws IOException {
+            byte[] bytes = s.getBytes("UTF-8");
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+
+        @Override
+        public String read(DataInput in) throws IOException {
+            byte[] bytes = new byte[in.readInt()];
+            in.readFully(bytes);
+            return new String(bytes, "UTF-8");
+        }
+    };
+
+    /**
+     * Returns a codec that writes any Serializable value (or null) with Java
+     * serialization, as a length followed by the serialized bytes. Convenient,
+     * but much larger and slower than a codec written for the type.
+     * @param <T> the type of value
+     * @return a codec
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> IElementCodec<T> serializable() {
+        return (IElementCodec<T>) SERIALIZABLE;
+    }
+
+    private static final IElementCodec<Object> SERIALIZABLE = new IElementCodec<Object>() {
+        @Override
+        public void write(Object o, DataOutput out) throws IOException {
+            if (o != null && !(o instanceof Serializable))
+                throw new IOException("not serializable: " + o.getClass().getName());
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            ObjectOutputStream oos = new ObjectOutputStream(bytes);
+            oos.writeObject(o);
+            oos.close();
+            out.writeInt(bytes.size());
+            out.write(bytes.toByteArray());
+        }
+
+        @Override
+        public Object read(DataInput in) throws IOException {
+            byte[] bytes = new byte[in.readInt()];
+            in.readFully(bytes);
+            ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(bytes));
+            try {
+                return ois.readObject();
+            } catch (ClassNotFoundException e) {
+                throw new IOException("class not found", e);
+            } finally {
+                ois.close();
+            }
+        }
+    };
+}
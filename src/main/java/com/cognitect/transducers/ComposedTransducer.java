@@ -0,0 +1,44 @@
+// Copyright 2014 Cognitect. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS-IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.cognitect.transducers;
+
+/**
+ * The composition of two transducers, as returned by ATransducer.comp. The
+ * parts are kept so that a pipeline can be examined stage by stage.
+ * @param <A> the type of input processed by the reducing function
+ *           the composed transducer returns when applied
+ * @param <B> the type of data passed from the left transducer to the right
+ * @param <C> The type of data processed by the transduced process
+ */
+final class ComposedTransducer<A, B, C> extends ATransducer<A, C> {
+
+    final ITransducer<B, C> left;
+    final ITransducer<A, ? super B> right;
+
+    ComposedTransducer(ITransducer<B, C> left, ITransducer<A, ? super B> right) {
+        this.left = left;
+        this.right = right;
+    }
+
+    @Override
+    public <R> IReducingFunction<R, C> apply(IReducingFunction<R, ? super A> rf) {
+        return left.apply(right.apply(rf));
+    }
+
+    @Override
+    public SizeHint sizeHint(SizeHint input) {
+        return SizeHint.through(right, SizeHint.through(left, input));
+    }
+}
@@ -0,0 +1,247 @@
+// Copyright 2014 Cognitect. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS-IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.cognitect.transducers;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * A Count-Min sketch estimating how often each value was added, in
+ * width * depth counters. Estimates never undercount; with probability
+ * 1 - (1/2)^depth they overcount by at most 2 / width of the total count.
+ * Sketches with the same dimensions can be merged, and can be written to
+ * and read from a compact binary form in which counters are varint encoded.
+ */
+public class CountMinSketch {
+
+    private static final byte VERSION = 1;
+
+    private final int width;
+    private final int depth;
+    private final long[] counters;
+    private long total = 0;
+
+    /**
+     * Creates an empty sketch.
+     * @param width the number of counters per row
+     * @param depth the number of rows
+     */
+    public CountMinSketch(int width, int depth) {
+        if (width < 1 || depth < 1)
+            throw new IllegalArgumentException("width and depth must be positive");
+        this.width = width;
+        this.depth = depth;
+        this.counters = new long[width * depth];
+    }
+
+    /**
+     * @return the number of counters per row
+     */
+    public int width() {
+        return width;
+    }
+
+    /**
+     * @return the number of rows
+     */
+    public int depth() {
+        return depth;
+    }
+
+    /**
+     * @return the sum of all counts added
+     */
+    public long total() {
+        return total;
+    }
+
+    private int index(int row, long hash) {
+        // double hashing: the index in row i is h1 + i * h2
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        int h = h1 + row * h2;
+        return row * width + ((h & Integer.MAX_VALUE) % width);
+    }
+
+    private void addHash(long hash, long count) {
+        for (int row = 0; row < depth; row++) {
+            counters[index(row, hash)] += count;
+        }
+        total += count;
+    }
+
+    private long estimateHash(long hash) {
+        long ret = Long.MAX_VALUE;
+        for (int row = 0; row < depth; row++) {
+            ret = Math.min(ret, counters[index(row, hash)]);
+        }
+        return ret;
+    }
+
+    /**
+     * Adds one occurrence of a value.
+     * @param value the value to add
+     * @return this sketch
+     */
+    public CountMinSketch add(Object value) {
+        addHash(Hashing.hash64(value), 1);
+        return this;
+    }
+
+    /**
+     * Adds occurrences of a value.
+     * @param value the value to add
+     * @param count the number of occurrences, not negative
+     * @return this sketch
+     */
+    public CountMinSketch add(Object value, long count) {
+        if (count < 0)
+            throw new IllegalArgumentException("count must not be negative: " + count);
+        addHash(Hashing.hash64(value), count);
+        return this;
+    }
+
+    /**
+     * Adds one occurrence of a primitive long value; equal to adding the boxed value.
+     * @param value the value to add
+     * @return this sketch
+     */
+    public CountMinSketch add(long value) {
+        addHash(Hashing.hash64(value), 1);
+        return this;
+    }
+
+    /**
+     * Adds one occurrence of every value in an array.
+     * @param values the values to add
+     * @return this sketch
+     */
+    public CountMinSketch addAll(long[] values) {
+        for (long v : values) {
+            addHash(Hashing.hash64(v), 1);
+        }
+        return this;
+    }
+
+    /**
+     * Adds one occurrence of every value in an int array; equal to adding the values as longs.
+     * @param values the values to add
+     * @return this sketch
+     */
+    public CountMinSketch addAll(int[] values) {
+        for (int v : values) {
+            addHash(Hashing.hash64(v), 1);
+        }
+        return this;
+    }
+
+    /**
+     * @param value a value
+     * @return an estimate, never too low, of how often the value was added
+     */
+    public long estimate(Object value) {
+        return estimateHash(Hashing.hash64(value));
+    }
+
+    /**
+     * @param value a primitive long value
+     * @return an estimate, never too low, of how often the value was added
+     */
+    public long estimate(long value) {
+        return estimateHash(Hashing.hash64(value));
+    }
+
+    /**
+     * Halves every counter, so that old occurrences count for less than new
+     * ones in a long-running sketch.
+     */
+    void halve() {
+        for (int i = 0; i < counters.length; i++) {
+            counters[i] >>>= 1;
+        }
+        total >>>= 1;
+    }
+
+    /**
+     * Merges another sketch into this one, so that this sketch counts the
+     * values added to either.
+     * @param other a sketch with the same width and depth
+     * @return this sketch
+     */
+    public CountMinSketch merge(CountMinSketch other) {
+        if (other.width != width || other.depth != depth)
+            throw new IllegalArgumentException("dimension mismatch");
+        for (int i = 0; i < counters.length; i++) {
+            counters[i] += other.counters[i];
+        }
+        total += other.total;
+        return this;
+    }
+
+    private static void putVarLong(ByteBuffer buf, long v) {
+        while ((v & ~0x7fL) != 0) {
+            buf.put((byte) ((v & 0x7f) | 0x80));
+            v >>>= 7;
+        }
+        buf.put((byte) v);
+    }
+
+    private static long getVarLong(ByteBuffer buf) {
+        long ret = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = buf.get();
+            ret |= (long) (b & 0x7f) << shift;
+            if ((b & 0x80) == 0)
+                return ret;
+        }
+        throw new IllegalArgumentException("malformed varint");
+    }
+
+    /**
+     * @return the sketch in binary form
+     */
+    public byte[] toBytes() {
+        ByteBuffer buf = ByteBuffer.allocate(1 + 4 + 4 + 10 * (counters.length + 1));
+        buf.put(VERSION).putInt(width).putInt(depth);
+        putVarLong(buf, total);
+        for (long c : counters) {
+            putVarLong(buf, c);
+        }
+        byte[] ret = new byte[buf.position()];
+        System.arraycopy(buf.array(), 0, ret, 0, ret.length);
+        return ret;
+    }
+
+    /**
+     * Reads a sketch written by toBytes.
+     * @param bytes the sketch in binary form
+     * @return a new sketch
+     */
+    public static CountMinSketch fromBytes(byte[] bytes) {
+        try {
+            ByteBuffer buf = ByteBuffer.wrap(bytes);
+            if (buf.get() != VERSION)
+                throw new IllegalArgumentException("unknown CountMinSketch version");
+            CountMinSketch ret = new CountMinSketch(buf.getInt(), buf.getInt());
+            ret.total = getVarLong(buf);
+            for (int i = 0; i < ret.counters.length; i++) {
+                ret.counters[i] = getVarLong(buf);
+            }
+            return ret;
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("truncated CountMinSketch", e);
+        }
+    }
+}
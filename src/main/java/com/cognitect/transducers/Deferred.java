@@ -0,0 +1,169 @@
+// Copyright 2014 Cognitect. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS-IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.cognitect.transducers;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * A value that will be supplied later, by calling complete or fail. Unlike a
+ * plain Future, listeners can be notified on completion instead of a thread
+ * blocking in get, which is what lets transduceAsync run without blocking.
+ * Listeners run on the thread that completes the Deferred, or on the thread
+ * that adds them if it is already complete.
+ * @param <T> the type of value
+ */
+public class Deferred<T> implements Future<T> {
+
+    /**
+     * Notified when a Deferred completes.
+     * @param <T> the type of value
+     */
+    public interface Listener<T> {
+        /**
+         * Invoked once when the Deferred completes.
+         * @param value the value, or null if the Deferred failed
+         * @param error the failure, a CancellationException if the Deferred
+         *              was cancelled, or null if it has a value
+         */
+        void onComplete(T value, Throwable error);
+    }
+
+    private T value;
+    private Throwable error;
+    private boolean done = false;
+    private boolean cancelled = false;
+    private List<Listener<? super T>> listeners = new ArrayList<Listener<? super T>>(2);
+
+    /**
+     * Creates a Deferred that is already complete.
+     * @param value the value
+     * @param <T> the type of value
+     * @return a completed Deferred
+     */
+    public static <T> Deferred<T> completed(T value) {
+        Deferred<T> ret = new Deferred<T>();
+        ret.complete(value);
+        return ret;
+    }
+
+    private boolean finish(T value, Throwable error, boolean cancelled) {
+        List<Listener<? super T>> notify;
+        synchronized (this) {
+            if (done)
+                return false;
+            this.value = value;
+            this.error = error;
+            this.cancelled = cancelled;
+            this.done = true;
+            notify = listeners;
+            listeners = null;
+            notifyAll();
+        }
+        for (Listener<? super T> l : notify) {
+            l.onComplete(value, error);
+        }
+        return true;
+    }
+
+    /**
+     * Supplies the value.
+     * @param value the value
+     * @return true if this call completed the Deferred, false if it was already complete
+     */
+    public boolean complete(T value) {
+        return finish(value, null, false);
+    }
+
+    /**
+     * Completes the Deferred with a failure.
+     * @param error the failure
+     * @return true if this call completed the Deferred, false if it was already complete
+     */
+    public boolean fail(Throwable error) {
+        return finish(null, error, false);
+    }
+
+    /**
+     * Completes the Deferred with a CancellationException.
+     * @param mayInterruptIfRunning ignored; there is no thread to interrupt
+     * @return true if this call completed the Deferred, false if it was already complete
+     */
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        return finish(null, new CancellationException(), true);
+    }
+
+    /**
+     * Adds a listener, invoking it immediately if the Deferred is already complete.
+     * @param listener the listener
+     */
+    public void onComplete(Listener<? super T> listener) {
+        synchronized (this) {
+            if (!done) {
+                listeners.add(listener);
+                return;
+            }
+        }
+        listener.onComplete(value, error);
+    }
+
+    @Override
+    public synchronized boolean isCancelled() {
+        return cancelled;
+    }
+
+    @Override
+    public synchronized boolean isDone() {
+        return done;
+    }
+
+    private T report() throws ExecutionException {
+        if (cancelled)
+            throw (CancellationException) error;
+        if (error != null)
+            throw new ExecutionException(error);
+        return value;
+    }
+
+    /**
+     * Blocks until the Deferred completes. Prefer onComplete where blocking a
+     * thread is not acceptable.
+     */
+    @Override
+    public synchronized T get() throws InterruptedException, ExecutionException {
+        while (!done) {
+            wait();
+        }
+        return report();
+    }
+
+    @Override
+    public synchronized T get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (!done) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0)
+                throw new TimeoutException();
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+        return report();
+    }
+}
@@ -0,0 +1,259 @@
+// Copyright 2014 Cognitect. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS-IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.cognitect.transducers;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Incrementally decodes chunks of delimited text into rows. Chunks may split
+ * rows, fields, quoted sections and (for bytes) multi-byte characters anywhere;
+ * the decoder carries its state from one chunk to the next.
+ *
+ * Fields are separated by the delimiter and rows by \n, \r or \r\n. A field
+ * that starts with the quote character runs to the matching quote and may
+ * contain delimiters and line breaks; a doubled quote inside it stands for one
+ * quote. Blank lines are skipped.
+ */
+final class DelimitedDecoder {
+
+    private static final int START = 0;
+    private static final int UNQUOTED = 1;
+    private static final int QUOTED = 2;
+    private static final int QUOTE_IN_QUOTED = 3;
+    private static final int AFTER_CR = 4;
+
+    private final char delimiter;
+    private final char quote;
+    private final DelimitedRow row = new DelimitedRow();
+    private int state = START;
+    private boolean started = false;
+    private long rows = 0;
+
+    private final CharsetDecoder decoder;
+    private final CharBuffer decoded;
+    private byte[] carry;
+
+    DelimitedDecoder(char delimiter, char quote, Charset charset) {
+        if (delimiter == quote || delimiter == '\n' || delimiter == '\r')
+            throw new IllegalArgumentException("invalid delimiter: " + delimiter);
+        this.delimiter = delimiter;
+        this.quote = quote;
+        if (charset != null) {
+            this.decoder = charset.newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE);
+            this.decoded = CharBuffer.allocate(8192);
+        } else {
+            this.decoder = null;
+            this.decoded = null;
+        }
+    }
+
+    /**
+     * Consumes one character, returning true if it completed a row.
+     */
+    private boolean step(char c) {
+        switch (state) {
+            case AFTER_CR:
+                state = START;
+                if (c == '\n')
+                    return false;
+                return step(c);
+            case START:
+                if (c == quote) {
+                    started = true;
+                    state = QUOTED;
+                    return false;
+                }
+                // falls through: an unquoted field starts with this character
+            case UNQUOTED:
+                if (c == delimiter) {
+                    started = true;
+                    row.endField();
+                    state = START;
+                    return false;
+                }
+                if (c == '\n' || c == '\r')
+                    return endRow(c);
+                started = true;
+                row.append(c);
+                state = UNQUOTED;
+                return false;
+            case QUOTED:
+                if (c == quote)
+                    state = QUOTE_IN_QUOTED;
+                else
+                    row.append(c);
+                return false;
+            default:
+                if (c == quote) {
+                    row.append(c);
+                    state = QUOTED;
+                    return false;
+                }
+                if (c == delimiter) {
+                    row.endField();
+                    state = START;
+                    return false;
+                }
+                if (c == '\n' || c == '\r')
+                    return endRow(c);
+                // text after a closing quote is kept, as if unquoted
+                row.append(c);
+                state = UNQUOTED;
+                return false;
+        }
+    }
+
+    private boolean endRow(char c) {
+        state = (c == '\r') ? AFTER_CR : START;
+        if (!started)
+            return false;
+        row.endField();
+        row.number(++rows);
+        started = false;
+        return true;
+    }
+
+    private <R> R emit(IReducingFunction<R, ? super DelimitedRow> rf, R result, AtomicBoolean reduced) {
+        R ret = rf.apply(result, row, reduced);
+        row.clear();
+        return ret;
+    }
+
+    <R> R decode(CharSequence chunk, IReducingFunction<R, ? super DelimitedRow> rf, R result, AtomicBoolean reduced) {
+        R ret = result;
+        int n = chunk.length();
+        for (int i = 0; i < n; i++) {
+            if (step(chunk.charAt(i))) {
+                ret = emit(rf, ret, reduced);
+                if (reduced.get())
+                    break;
+            }
+        }
+        return ret;
+    }
+
+    private <R> R decode(char[] chunk, int from, int to, IReducingFunction<R, ? super DelimitedRow> rf,
+                         R result, AtomicBoolean reduced) {
+        R ret = result;
+        for (int i = from; i < to; i++) {
+            if (step(chunk[i])) {
+                ret = emit(rf, ret, reduced);
+                if (reduced.get())
+                    break;
+            }
+        }
+        return ret;
+    }
+
+    private <R> R drain(IReducingFunction<R, ? super DelimitedRow> rf, R result, AtomicBoolean reduced) {
+        decoded.flip();
+        R ret = decode(decoded.array(), decoded.position(), decoded.limit(), rf, result, reduced);
+        decoded.clear();
+        return ret;
+    }
+
+    <R> R decode(byte[] chunk, IReducingFunction<R, ? super DelimitedRow> rf, R result, AtomicBoolean reduced) {
+        ByteBuffer in;
+        if (carry != null) {
+            // the previous chunk ended part way through a character
+            byte[] joined = new byte[carry.length + chunk.length];
+            System.arraycopy(carry, 0, joined, 0, carry.length);
+            System.arraycopy(chunk, 0, joined, carry.length, chunk.length);
+            in = ByteBuffer.wrap(joined);
+            carry = null;
+        } else {
+            in = ByteBuffer.wrap(chunk);
+        }
+        R ret = result;
+        while (!reduced.get()) {
+            CoderResult cr = decoder.decode(in, decoded, false);
+            ret = drain(rf, ret, reduced);
+            if (cr.isUnderflow())
+                break;
+        }
+        if (in.hasRemaining() && !reduced.get()) {
+            carry = new byte[in.remaining()];
+            in.get(carry);
+        }
+        return ret;
+    }
+
+    /**
+     * Writes the state carried to the next chunk: the position in the grammar,
+     * the partly decoded row and any bytes of a split character. The charset
+     * decoder itself is assumed to carry nothing between chunks, as is the
+     * case for UTF-8 and single-byte charsets.
+     */
+    void snapshot(DataOutput out) throws IOException {
+        out.writeByte(state);
+        out.writeBoolean(started);
+        out.writeLong(rows);
+        row.snapshot(out);
+        byte[] bytes = (carry != null) ? carry : new byte[0];
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    void restore(DataInput in) throws IOException {
+        state = in.readByte();
+        if (state < START || state > AFTER_CR)
+            throw new IOException("malformed decoder state");
+        started = in.readBoolean();
+        rows = in.readLong();
+        row.restore(in);
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        carry = (bytes.length > 0) ? bytes : null;
+        if (decoder != null) {
+            decoder.reset();
+            decoded.clear();
+        }
+    }
+
+    /**
+     * Decodes whatever input remains at the end, and emits the last row if the
+     * input does not end with a line break.
+     */
+    <R> R finish(IReducingFunction<R, ? super DelimitedRow> rf, R result, AtomicBoolean reduced) {
+        R ret = result;
+        if (decoder != null && !reduced.get()) {
+            ByteBuffer in = ByteBuffer.wrap((carry != null) ? carry : new byte[0]);
+            carry = null;
+            decoder.decode(in, decoded, true);
+            decoder.flush(decoded);
+            ret = drain(rf, ret, reduced);
+        }
+        if (state == QUOTED && !reduced.get())
+            throw new IllegalStateException("unterminated quoted field in row " + (rows + 1));
+        if (started && !reduced.get()) {
+            row.endField();
+            row.number(++rows);
+            started = false;
+            ret = emit(rf, ret, reduced);
+        }
+        return ret;
+    }
+}
@@ -0,0 +1,330 @@
+// Copyright 2014 Cognitect. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS-IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.cognitect.transducers;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * A row of delimited text, such as a CSV record, produced by the decodeDelimited
+ * transducers. Field values are held unescaped in a shared character buffer and
+ * exposed as CharSequence slices, so a row can be examined and filtered without
+ * creating a String per field.
+ *
+ * A decoder reuses one DelimitedRow (and its field slices) for every row it
+ * produces. A row is only valid during the step it is passed to; stages that
+ * keep rows, such as partitionAll, must be preceded by a map that copies what
+ * is needed, e.g. with toArray.
+ */
+public final class DelimitedRow {
+
+    private static final double[] POW10 = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    private char[] chars = new char[256];
+    private int length = 0;
+    private int[] ends = new int[16];
+    private int size = 0;
+    private Field[] fields = new Field[16];
+    private long number = 0;
+
+    private final class Field implements CharSequence {
+        final int index;
+
+        Field(int index) {
+            this.index = index;
+        }
+
+        @Override
+        public int length() {
+            return end(index) - start(index);
+        }
+
+        @Override
+        public char charAt(int i) {
+            if (i < 0 || i >= length())
+                throw new IndexOutOfBoundsException(String.valueOf(i));
+            return chars[start(index) + i];
+        }
+
+        @Override
+        public CharSequence subSequence(int from, int to) {
+            return toString().substring(from, to);
+        }
+
+        @Override
+        public String toString() {
+            return getString(index);
+        }
+    }
+
+    DelimitedRow() {
+    }
+
+    void append(char c) {
+        if (length == chars.length)
+            chars = Arrays.copyOf(chars, 2 * length);
+        chars[length++] = c;
+    }
+
+    void endField() {
+        if (size == ends.length)
+            ends = Arrays.copyOf(ends, 2 * size);
+        ends[size++] = length;
+    }
+
+    void clear() {
+        length = 0;
+        size = 0;
+    }
+
+    /**
+     * Writes the characters and field ends of a partly decoded row.
+     */
+    void snapshot(DataOutput out) throws IOException {
+        out.writeInt(length);
+        for (int i = 0; i < length; i++) {
+            out.writeChar(chars[i]);
+        }
+        out.writeInt(size);
+        for (int i = 0; i < size; i++) {
+            out.writeInt(ends[i]);
+        }
+    }
+
+    void restore(DataInput in) throws IOException {
+        clear();
+        int n = in.readInt();
+        for (int i = 0; i < n; i++) {
+            append(in.readChar());
+        }
+        n = in.readInt();
+        for (int i = 0; i < n; i++) {
+            int end = in.readInt();
+            if (end < (size == 0 ? 0 : ends[size - 1]) || end > length)
+                throw new IOException("malformed row state");
+            if (size == ends.length)
+                ends = Arrays.copyOf(ends, 2 * size);
+            ends[size++] = end;
+        }
+    }
+
+    void number(long number) {
+        this.number = number;
+    }
+
+    private int start(int i) {
+        return (i == 0) ? 0 : ends[i - 1];
+    }
+
+    private int end(int i) {
+        return ends[i];
+    }
+
+    private void check(int i) {
+        if (i < 0 || i >= size)
+            throw new IndexOutOfBoundsException("field " + i + " of " + size);
+    }
+
+    /**
+     * @return the number of this row in the input, starting at 1
+     */
+    public long number() {
+        return number;
+    }
+
+    /**
+     * @return the number of fields
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns a field as a slice of the row. The slice is reused, and reflects
+     * whatever row the decoder produces next.
+     * @param i the index of the field
+     * @return the field's characters
+     */
+    public CharSequence get(int i) {
+        check(i);
+        if (i >= fields.length)
+            fields = Arrays.copyOf(fields, Math.max(i + 1, 2 * fields.length));
+        Field ret = fields[i];
+        if (ret == null) {
+            ret = new Field(i);
+            fields[i] = ret;
+        }
+        return ret;
+    }
+
+    /**
+     * @param i the index of the field
+     * @return the field's length
+     */
+    public int length(int i) {
+        check(i);
+        return end(i) - start(i);
+    }
+
+    /**
+     * @param i the index of the field
+     * @return the field as a new String
+     */
+    public String getString(int i) {
+        check(i);
+        return new String(chars, start(i), end(i) - start(i));
+    }
+
+    /**
+     * Compares a field to a sequence of characters, without creating a String.
+     * @param i the index of the field
+     * @param s the characters to compare to
+     * @return true if the field holds exactly the characters of s
+     */
+    public boolean fieldEquals(int i, CharSequence s) {
+        check(i);
+        int start = start(i);
+        int n = end(i) - start;
+        if (n != s.length())
+            return false;
+        for (int j = 0; j < n; j++) {
+            if (chars[start + j] != s.charAt(j))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Parses a field as a decimal long, without creating a String.
+     * @param i the index of the field
+     * @return the value of the field
+     * @throws NumberFormatException if the field is not a long
+     */
+    public long parseLong(int i) {
+        check(i);
+        int pos = start(i);
+        int end = end(i);
+        if (pos == end)
+            throw new NumberFormatException("empty field " + i);
+        boolean negative = chars[pos] == '-';
+        if (negative || chars[pos] == '+')
+            pos++;
+        if (pos == end)
+            throw new NumberFormatException("not a number: " + getString(i));
+        // accumulate negatively, since Long.MIN_VALUE has no positive counterpart
+        long limit = negative ? Long.MIN_VALUE : -Long.MAX_VALUE;
+        long multmin = limit / 10;
+        long ret = 0;
+        for (; pos < end; pos++) {
+            int d = chars[pos] - '0';
+            if (d < 0 || d > 9 || ret < multmin || ret * 10 < limit + d)
+                throw new NumberFormatException("not a long: " + getString(i));
+            ret = ret * 10 - d;
+        }
+        return negative ? ret : -ret;
+    }
+
+    /**
+     * Parses a field as a decimal int, without creating a String.
+     * @param i the index of the field
+     * @return the value of the field
+     * @throws NumberFormatException if the field is not an int
+     */
+    public int parseInt(int i) {
+        long ret = parseLong(i);
+        if (ret < Integer.MIN_VALUE || ret > Integer.MAX_VALUE)
+            throw new NumberFormatException("not an int: " + getString(i));
+        return (int) ret;
+    }
+
+    /**
+     * Parses a field as a double. Plain decimals of up to 15 digits, with an
+     * optional exponent, are parsed exactly without creating a String; anything
+     * else is left to Double.parseDouble.
+     * @param i the index of the field
+     * @return the value of the field
+     * @throws NumberFormatException if the field is not a double
+     */
+    public double parseDouble(int i) {
+        check(i);
+        int pos = start(i);
+        int end = end(i);
+        boolean negative = pos < end && chars[pos] == '-';
+        if (pos < end && (negative || chars[pos] == '+'))
+            pos++;
+        long mantissa = 0;
+        int digits = 0;
+        int scale = 0;
+        boolean point = false;
+        boolean any = false;
+        for (; pos < end; pos++) {
+            char c = chars[pos];
+            if (c >= '0' && c <= '9') {
+                any = true;
+                if (mantissa != 0 || c != '0')
+                    digits++;
+                mantissa = mantissa * 10 + (c - '0');
+                if (point)
+                    scale--;
+                if (digits > 15)
+                    return Double.parseDouble(getString(i));
+            } else if (c == '.' && !point) {
+                point = true;
+            } else {
+                break;
+            }
+        }
+        if (pos < end && any && (chars[pos] == 'e' || chars[pos] == 'E')) {
+            pos++;
+            boolean negativeExp = pos < end && chars[pos] == '-';
+            if (pos < end && (negativeExp || chars[pos] == '+'))
+                pos++;
+            int exp = 0;
+            int start = pos;
+            for (; pos < end && chars[pos] >= '0' && chars[pos] <= '9' && exp < 1000; pos++) {
+                exp = exp * 10 + (chars[pos] - '0');
+            }
+            if (pos == start)
+                return Double.parseDouble(getString(i));
+            scale += negativeExp ? -exp : exp;
+        }
+        if (pos != end || !any || scale < -22 || scale > 22)
+            return Double.parseDouble(getString(i));
+        // both the mantissa and the power of ten are exact doubles, so one operation rounds correctly
+        double ret = (scale < 0) ? mantissa / POW10[-scale] : mantissa * POW10[scale];
+        return negative ? -ret : ret;
+    }
+
+    /**
+     * @return the fields of this row as new Strings
+     */
+    public String[] toArray() {
+        String[] ret = new String[size];
+        for (int i = 0; i < size; i++) {
+            ret[i] = getString(i);
+        }
+        return ret;
+    }
+
+    @Override
+    public String toString() {
+        return Arrays.toString(toArray());
+    }
+}
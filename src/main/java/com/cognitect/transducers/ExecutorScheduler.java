@@ -0,0 +1,44 @@
+// Copyright 2014 Cognitect. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS-IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.cognitect.transducers;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A scheduler on the system clock that runs tasks with a ScheduledExecutorService.
+ */
+public class ExecutorScheduler implements IScheduler {
+
+    private final ScheduledExecutorService executor;
+
+    /**
+     * Creates a scheduler.
+     * @param executor the executor to run tasks with
+     */
+    public ExecutorScheduler(ScheduledExecutorService executor) {
+        this.executor = executor;
+    }
+
+    @Override
+    public long nanoTime() {
+        return System.nanoTime();
+    }
+
+    @Override
+    public void schedule(Runnable task, long atNanos) {
+        executor.schedule(task, atNanos - System.nanoTime(), TimeUnit.NANOSECONDS);
+    }
+}
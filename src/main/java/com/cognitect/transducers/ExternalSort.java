@@ -0,0 +1,348 @@
+// Copyright 2014 Cognitect. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS-IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.cognitect.transducers;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Sorts the inputs of a reduction within a memory budget. Inputs are gathered
+ * into runs of at most maxInMemory values; each full run is sorted and spilled
+ * to a temporary file using an element codec. When the reduction completes the
+ * runs are merged and fed in order to a reducing function. At most fanIn runs
+ * are open at once: when there are more, consecutive runs are first merged into
+ * longer intermediate runs, in as many passes as needed. The sort is stable.
+ * @param <A> the type of value sorted
+ */
+final class ExternalSort<A> {
+
+    private static final int BUFFER_SIZE = 1 << 16;
+    static final int DEFAULT_FAN_IN = 64;
+
+    private final Comparator<? super A> comparator;
+    private final IElementCodec<A> codec;
+    private final int maxInMemory;
+    private final int fanIn;
+    private final File dir;
+    private final List<A> buffer = new ArrayList<A>();
+    private final List<File> runs = new ArrayList<File>();
+    private final List<Long> runSizes = new ArrayList<Long>();
+
+    ExternalSort(Comparator<? super A> comparator, IElementCodec<A> codec, int maxInMemory, File dir) {
+        this(comparator, codec, maxInMemory, DEFAULT_FAN_IN, dir);
+    }
+
+    ExternalSort(Comparator<? super A> comparator, IElementCodec<A> codec, int maxInMemory, int fanIn, File dir) {
+        if (maxInMemory < 1)
+            throw new IllegalArgumentException("maxInMemory must be positive: " + maxInMemory);
+        if (fanIn < 2)
+            throw new IllegalArgumentException("fanIn must be at least 2: " + fanIn);
+        this.comparator = comparator;
+        this.codec = codec;
+        this.maxInMemory = maxInMemory;
+        this.fanIn = fanIn;
+        this.dir = dir;
+    }
+
+    void add(A input) {
+        buffer.add(input);
+        if (buffer.size() == maxInMemory)
+            spill();
+    }
+
+    private void spill() {
+        Collections.sort(buffer, comparator);
+        File run = null;
+        DataOutputStream out = null;
+        try {
+            run = File.createTempFile("transducers-sort", ".run", dir);
+            runs.add(run);
+            runSizes.add((long) buffer.size());
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(run), BUFFER_SIZE));
+            for (A a : buffer) {
+                codec.write(a, out);
+            }
+            out.close();
+            out = null;
+        } catch (IOException e) {
+            deleteRuns();
+            throw new RuntimeException("failed to spill sort run", e);
+        } finally {
+            closeQuietly(out);
+        }
+        buffer.clear();
+    }
+
+    private void deleteRuns() {
+        for (File run : runs) {
+            run.delete();
+        }
+        runs.clear();
+        runSizes.clear();
+    }
+
+    private static void closeQuietly(java.io.Closeable c) {
+        if (c != null) {
+            try {
+                c.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    /**
+     * A sorted sequence of values being merged.
+     */
+    private abstract class Run {
+        A head;
+        abstract boolean advance() throws IOException;
+        void close() {}
+    }
+
+    private final class MemoryRun extends Run {
+        int next = 0;
+
+        @Override
+        boolean advance() {
+            if (next == buffer.size())
+                return false;
+            head = buffer.get(next++);
+            return true;
+        }
+    }
+
+    private final class FileRun extends Run {
+        final DataInputStream in;
+        long remaining;
+
+        FileRun(File file, long size) throws IOException {
+            this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE));
+            this.remaining = size;
+        }
+
+        @Override
+        boolean advance() throws IOException {
+            if (remaining == 0)
+                return false;
+            remaining--;
+            head = codec.read(in);
+            return true;
+        }
+
+        @Override
+        void close() {
+            closeQuietly(in);
+        }
+    }
+
+    /**
+     * Writes every value added so far, spilled or not, with the codec, or with
+     * Java serialization if there is none.
+     */
+    void snapshot(DataOutput out) throws IOException {
+        out.writeInt(runs.size());
+        for (int i = 0; i < runs.size(); i++) {
+            out.writeLong(runSizes.get(i));
+            FileRun run = new FileRun(runs.get(i), runSizes.get(i));
+            try {
+                while (run.advance()) {
+                    codec.write(run.head, out);
+                }
+            } finally {
+                run.close();
+            }
+        }
+        Impl.writeAll(buffer, codec, out);
+    }
+
+    /**
+     * Replaces the values added with values written by snapshot, adding them in
+     * their original order, so that ties still go to the earlier value.
+     */
+    void restore(DataInput in) throws IOException {
+        deleteRuns();
+        buffer.clear();
+        int n = in.readInt();
+        if (n > 0 && codec == null)
+            throw new IOException("malformed sort state");
+        for (int i = 0; i < n; i++) {
+            for (long size = in.readLong(); size > 0; size--) {
+                add(codec.read(in));
+            }
+        }
+        List<A> rest = new ArrayList<A>();
+        Impl.readAll(rest, codec, in);
+        for (A a : rest) {
+            add(a);
+        }
+    }
+
+    /**
+     * Feeds every value added, in sorted order, to a reducing function, stopping
+     * early if it signals reduced. Spilled runs are deleted whether or not the
+     * merge runs to the end.
+     */
+    <R> R reduce(IReducingFunction<R, ? super A> rf, R result, AtomicBoolean reduced) {
+        Collections.sort(buffer, comparator);
+        if (runs.isEmpty()) {
+            R ret = result;
+            for (int i = 0; i < buffer.size() && !reduced.get(); i++) {
+                ret = rf.apply(ret, buffer.get(i), reduced);
+            }
+            buffer.clear();
+            return ret;
+        }
+        List<Run> open = new ArrayList<Run>(fanIn);
+        try {
+            // the final merge also reads the in-memory run
+            while (runs.size() >= fanIn) {
+                mergePass();
+            }
+            for (int i = 0; i < runs.size(); i++) {
+                open.add(new FileRun(runs.get(i), runSizes.get(i)));
+            }
+            // the in-memory run holds the latest inputs, so it goes last for stability
+            open.add(new MemoryRun());
+            return merge(open, rf, result, reduced);
+        } catch (IOException e) {
+            throw new RuntimeException("failed to merge sort runs", e);
+        } finally {
+            for (Run run : open) {
+                run.close();
+            }
+            deleteRuns();
+            buffer.clear();
+        }
+    }
+
+    /**
+     * Merges each group of fanIn consecutive runs into one, keeping the runs in
+     * input order.
+     */
+    private void mergePass() throws IOException {
+        for (int i = 0; i < runs.size(); i++) {
+            int to = Math.min(i + fanIn, runs.size());
+            if (to - i < 2)
+                break;
+            long size = 0;
+            for (int j = i; j < to; j++) {
+                size += runSizes.get(j);
+            }
+            File merged = mergeToFile(i, to);
+            for (int j = to - 1; j >= i; j--) {
+                runs.remove(j).delete();
+                runSizes.remove(j);
+            }
+            runs.add(i, merged);
+            runSizes.add(i, size);
+        }
+    }
+
+    private File mergeToFile(int from, int to) throws IOException {
+        File merged = File.createTempFile("transducers-sort", ".run", dir);
+        DataOutputStream out = null;
+        List<Run> open = new ArrayList<Run>(to - from);
+        boolean done = false;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(merged), BUFFER_SIZE));
+            for (int i = from; i < to; i++) {
+                open.add(new FileRun(runs.get(i), runSizes.get(i)));
+            }
+            merge(open, new AReducingFunction<DataOutputStream, A>() {
+                @Override
+                public DataOutputStream apply(DataOutputStream result, A input, AtomicBoolean reduced) {
+                    try {
+                        codec.write(input, result);
+                    } catch (IOException e) {
+                        throw new RuntimeException("failed to write sort run", e);
+                    }
+                    return result;
+                }
+            }, out, new AtomicBoolean());
+            out.close();
+            out = null;
+            done = true;
+            return merged;
+        } finally {
+            for (Run run : open) {
+                run.close();
+            }
+            closeQuietly(out);
+            if (!done)
+                merged.delete();
+        }
+    }
+
+    private int compare(List<Run> heap, int i, int j, int[] order) {
+        int c = comparator.compare(heap.get(i).head, heap.get(j).head);
+        return (c != 0) ? c : order[i] - order[j];
+    }
+
+    private <R> R merge(List<Run> open, IReducingFunction<R, ? super A> rf, R result, AtomicBoolean reduced) throws IOException {
+        // a binary min-heap of runs keyed by their heads; ties go to the earlier run
+        List<Run> heap = new ArrayList<Run>(open.size());
+        int[] order = new int[open.size()];
+        for (int i = 0; i < open.size(); i++) {
+            Run run = open.get(i);
+            if (run.advance()) {
+                order[heap.size()] = i;
+                heap.add(run);
+            }
+        }
+        for (int i = heap.size() / 2 - 1; i >= 0; i--) {
+            siftDown(heap, order, i);
+        }
+        R ret = result;
+        while (!heap.isEmpty() && !reduced.get()) {
+            Run top = heap.get(0);
+            ret = rf.apply(ret, top.head, reduced);
+            if (!top.advance()) {
+                int last = heap.size() - 1;
+                heap.set(0, heap.get(last));
+                order[0] = order[last];
+                heap.remove(last);
+            }
+            siftDown(heap, order, 0);
+        }
+        return ret;
+    }
+
+    private void siftDown(List<Run> heap, int[] order, int i) {
+        int size = heap.size();
+        while (2 * i + 1 < size) {
+            int child = 2 * i + 1;
+            if (child + 1 < size && compare(heap, child + 1, child, order) < 0)
+                child++;
+            if (compare(heap, child, i, order) >= 0)
+                break;
+            heap.set(child, heap.set(i, heap.get(child)));
+            int o = order[i]; order[i] = order[child]; order[child] = o;
+            i = child;
+        }
+    }
+}
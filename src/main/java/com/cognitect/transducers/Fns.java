@@ -14,13 +14,29 @@
 
 package com.cognitect.transducers;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
-
-import static com.cognitect.transducers.Impl.reduce;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 public class Fns {
 
@@ -62,8 +78,7 @@ public class Fns {
      * @return result of reducing transformed input
      */
     public static <R, A, B> R transduce(ITransducer<A, B> xf, IReducingFunction<R, ? super A> rf, Iterable<B> input) {
-        IReducingFunction<R, B> _xf = xf.apply(rf);
-        return reduce(_xf, rf.apply(), input);
+        return Impl.transduce(xf, rf, rf.apply(), input);
     }
 
     /**
@@ -81,8 +96,376 @@ public class Fns {
      */
     public static <R, A, B> R transduce(ITransducer<A, B> xf, IStepFunction<R, ? super A> rf, R init, Iterable<B> input) {
         IReducingFunction<R, ? super A> _rf = completing(rf);
+        return Impl.transduce(xf, _rf, init, input);
+    }
+
+    /**
+     * Reduces an array using transformed reducing function, like transduce over an Iterable.
+     * Reducing function must implement zero-arity apply that returns initial result.
+     * @param xf a transducer (or composed transducers) that transforms the reducing function
+     * @param rf a reducing function
+     * @param input the input to reduce
+     * @param <R> return type
+     * @param <A> type of input expected by reducing function
+     * @param <B> type of input and type accepted by reducing function returned by transducer
+     * @return result of reducing transformed input
+     */
+    public static <R, A, B> R transduce(ITransducer<A, B> xf, IReducingFunction<R, ? super A> rf, B[] input) {
+        return Impl.transduce(xf, rf, rf.apply(), input);
+    }
+
+    /**
+     * Reduces an array using transformed reducing function, like transduce over an Iterable.
+     * @param xf a transducer (or composed transducers) that transforms the reducing function
+     * @param rf a reducing function
+     * @param init an initial value to start reducing process
+     * @param input the input to reduce
+     * @param <R> return type
+     * @param <A> type expected by reducing function
+     * @param <B> type of input and type accepted by reducing function returned by transducer
+     * @return result of reducing transformed input
+     */
+    public static <R, A, B> R transduce(ITransducer<A, B> xf, IStepFunction<R, ? super A> rf, R init, B[] input) {
+        IReducingFunction<R, ? super A> _rf = completing(rf);
+        return Impl.transduce(xf, _rf, init, input);
+    }
+
+    // the number of inputs between checks of a cancellation token by the transduce overloads that take one
+    private static final int CHECK_INTERVAL = 1024;
+
+    /**
+     * Reduces input using transformed reducing function, like transduce, but stops early
+     * if the token is cancelled or its deadline passes. The token is checked at the first
+     * input and every 1024 inputs after it, not at every step (see cancellable). When it
+     * trips, the THROW policy abandons the reduction with a CancellationException, and
+     * the PARTIAL policy treats the reduction as reduced: the completion arity of every
+     * stage runs, just as it would if the input had ended at that point, and the completed
+     * result is returned. For each kind of stage, a partial result therefore holds:
+     * <ul>
+     * <li>map, filter, remove, keep, replace, cat, mapcat and the kv stages: the outputs
+     * of the inputs seen</li>
+     * <li>take, takeWhile, drop, dropWhile, takeNth, keepIndexed, dedupe and randomSample:
+     * what they select from the inputs seen</li>
+     * <li>partitionBy, partitionAll and batch: the groups of the inputs seen, the last of
+     * which may be shorter than a full group, since the open group is flushed</li>
+     * <li>topK, bottomK and their variants, sortBy and reservoirSample: the top k, the sorted
+     * order and the sample of the inputs seen, not of the whole input</li>
+     * <li>hyperLogLog, countMin, heavyHitters and quantiles: sketches of the inputs seen</li>
+     * </ul>
+     * @param xf a transducer (or composed transducers) that transforms the reducing function
+     * @param rf a reducing function
+     * @param init an initial value to start reducing process
+     * @param input the input to reduce
+     * @param token the token that stops the reduction
+     * @param <R> return type
+     * @param <A> type expected by reducing function
+     * @param <B> type of input and type accepted by reducing function returned by transducer
+     * @return result of reducing transformed input, or of the inputs seen before the token tripped
+     * @throws java.util.concurrent.CancellationException if the token trips and its policy is THROW
+     */
+    public static <R, A, B> R transduce(ITransducer<A, B> xf, IStepFunction<R, ? super A> rf, R init, Iterable<B> input,
+                                        CancellationToken token) {
+        return transduce(Fns.<B>cancellable(token, CHECK_INTERVAL).comp(xf), rf, init, input);
+    }
+
+    /**
+     * Like transduce over an Iterable with a cancellation token, for an array.
+     */
+    public static <R, A, B> R transduce(ITransducer<A, B> xf, IStepFunction<R, ? super A> rf, R init, B[] input,
+                                        CancellationToken token) {
+        return transduce(Fns.<B>cancellable(token, CHECK_INTERVAL).comp(xf), rf, init, input);
+    }
+
+    /**
+     * Reduces the merge of several sorted inputs using transformed reducing function,
+     * without concatenating and re-sorting them. Values reach the reducing function in
+     * the order given by comparator, in O(log N) comparisons each for N inputs. Inputs
+     * are pulled lazily and abandoned once the reducing process stops.
+     * @param xf a transducer (or composed transducers) that transforms the reducing function
+     * @param rf a reducing function
+     * @param init an initial value to start reducing process
+     * @param comparator the order each input is sorted in
+     * @param inputs the sorted inputs to merge
+     * @param <R> return type
+     * @param <A> type expected by reducing function
+     * @param <B> type of input and type accepted by reducing function returned by transducer
+     * @return result of reducing transformed, merged input
+     */
+    public static <R, A, B> R transduceMerged(ITransducer<A, B> xf, IStepFunction<R, ? super A> rf, R init,
+                                              Comparator<? super B> comparator, List<? extends Iterable<? extends B>> inputs) {
+        IReducingFunction<R, ? super A> _rf = completing(rf);
         IReducingFunction<R, B> _xf = xf.apply(_rf);
-        return reduce(_xf, init, input);
+        return Impl.reduceMerged(_xf, init, comparator, inputs, new AtomicBoolean());
+    }
+
+    /**
+     * Like transduceMerged with an initial value, using the zero-arity apply of
+     * the reducing function to create the initial value.
+     * @param xf a transducer (or composed transducers) that transforms the reducing function
+     * @param rf a reducing function
+     * @param comparator the order each input is sorted in
+     * @param inputs the sorted inputs to merge
+     * @param <R> return type
+     * @param <A> type expected by reducing function
+     * @param <B> type of input and type accepted by reducing function returned by transducer
+     * @return result of reducing transformed, merged input
+     */
+    public static <R, A, B> R transduceMerged(ITransducer<A, B> xf, IReducingFunction<R, ? super A> rf,
+                                              Comparator<? super B> comparator, List<? extends Iterable<? extends B>> inputs) {
+        IReducingFunction<R, B> _xf = xf.apply(rf);
+        return Impl.reduceMerged(_xf, rf.apply(), comparator, inputs, new AtomicBoolean());
+    }
+
+    /**
+     * Reduces two inputs in lockstep, stepping the step function with the values at
+     * the same position in each, without pairing them into objects. Stops at the end
+     * of the shorter input.
+     * @param f a step function
+     * @param init an initial value to start reducing process
+     * @param as the first input
+     * @param bs the second input
+     * @param <R> return type
+     * @param <A> type of first input
+     * @param <B> type of second input
+     * @return result of reducing the inputs
+     */
+    public static <R, A, B> R reduceZip(IStepFunction2<R, ? super A, ? super B> f, R init, Iterable<A> as, Iterable<B> bs) {
+        return Impl.reduceZip(f, init, as, bs, new AtomicBoolean());
+    }
+
+    /**
+     * Like reduceZip over two Iterables, for arrays.
+     */
+    public static <R, A, B> R reduceZip(IStepFunction2<R, ? super A, ? super B> f, R init, A[] as, B[] bs) {
+        return Impl.reduceZip(f, init, as, bs, new AtomicBoolean());
+    }
+
+    /**
+     * Reduces three inputs in lockstep, stepping the step function with the values at
+     * the same position in each. Stops at the end of the shortest input.
+     * @param f a step function
+     * @param init an initial value to start reducing process
+     * @param as the first input
+     * @param bs the second input
+     * @param cs the third input
+     * @param <R> return type
+     * @param <A> type of first input
+     * @param <B> type of second input
+     * @param <C> type of third input
+     * @return result of reducing the inputs
+     */
+    public static <R, A, B, C> R reduceZip(IStepFunction3<R, ? super A, ? super B, ? super C> f, R init,
+                                           Iterable<A> as, Iterable<B> bs, Iterable<C> cs) {
+        return Impl.reduceZip(f, init, as, bs, cs, new AtomicBoolean());
+    }
+
+    /**
+     * Like reduceZip over three Iterables, for arrays.
+     */
+    public static <R, A, B, C> R reduceZip(IStepFunction3<R, ? super A, ? super B, ? super C> f, R init,
+                                           A[] as, B[] bs, C[] cs) {
+        return Impl.reduceZip(f, init, as, bs, cs, new AtomicBoolean());
+    }
+
+    /**
+     * Reduces any number of inputs in lockstep using transformed reducing function.
+     * Each step receives a row holding the values at the same position in each input;
+     * the row array is reused from step to step, so stages that keep rows must copy
+     * them. Stops at the end of the shortest input.
+     * @param xf a transducer (or composed transducers) that transforms the reducing function
+     * @param rf a reducing function
+     * @param init an initial value to start reducing process
+     * @param inputs the inputs, one per column of the row
+     * @param <R> return type
+     * @param <A> type expected by reducing function
+     * @return result of reducing transformed rows
+     */
+    public static <R, A> R transduceZip(ITransducer<A, Object[]> xf, IStepFunction<R, ? super A> rf, R init,
+                                        List<? extends Iterable<?>> inputs) {
+        IReducingFunction<R, ? super A> _rf = completing(rf);
+        return Impl.reduceZip(xf.apply(_rf), init, inputs, new AtomicBoolean());
+    }
+
+    /**
+     * Converts a key/value step function into a key/value reducing function, like
+     * completing does for step functions.
+     * @param sf The step function to convert, if it is not a reducing function already
+     * @param <R> the return type of the step function and reducing function
+     * @param <K> the key type of the step function and the reducing function
+     * @param <V> the value type of the step function and the reducing function
+     * @return a new reducing function, or the input step function if it is already a reducing function
+     */
+    @SuppressWarnings("unchecked")
+    public static <R, K, V> IKVReducingFunction<R, ? super K, ? super V> completing(final IKVStepFunction<R, ? super K, ? super V> sf) {
+        if (sf instanceof IKVReducingFunction)
+            return (IKVReducingFunction<R, ? super K, ? super V>) sf;
+        else
+            return new AKVReducingFunction<R, K, V>() {
+                @Override
+                public R apply(R result, K key, V value, AtomicBoolean reduced) {
+                    return sf.apply(result, key, value, reduced);
+                }
+            };
+    }
+
+    /**
+     * Reduces the keys and values of a map, stepping the step function with each key
+     * and value as separate arguments. No entry objects are created for HashMap,
+     * LinkedHashMap and TreeMap, nor for maps implementing IKVReducible.
+     * @param f a key/value step function
+     * @param init an initial value to start reducing process
+     * @param input the map to reduce
+     * @param <R> return type
+     * @param <K> key type of input
+     * @param <V> value type of input
+     * @return result of reducing the map
+     */
+    public static <R, K, V> R reduceKV(IKVStepFunction<R, ? super K, ? super V> f, R init, Map<K, V> input) {
+        return Impl.reduceKV(completing(f), init, input, new AtomicBoolean());
+    }
+
+    /**
+     * Reduces the keys and values of a map using transformed key/value reducing function.
+     * Transforms reducing function by applying key/value transducer.
+     * @param xf a key/value transducer (or composed transducers) that transforms the reducing function
+     * @param rf a key/value reducing function
+     * @param init an initial value to start reducing process
+     * @param input the map to reduce
+     * @param <R> return type
+     * @param <J> key type expected by reducing function
+     * @param <W> value type expected by reducing function
+     * @param <K> key type of input
+     * @param <V> value type of input
+     * @return result of reducing transformed keys and values
+     */
+    public static <R, J, W, K, V> R transduceKV(IKVTransducer<J, W, K, V> xf, IKVStepFunction<R, ? super J, ? super W> rf,
+                                                R init, Map<K, V> input) {
+        IKVReducingFunction<R, ? super J, ? super W> _rf = completing(rf);
+        return Impl.reduceKV(xf.apply(_rf), init, input, new AtomicBoolean());
+    }
+
+    /**
+     * Like transduceKV with an initial value, taking the initial value from the
+     * zero-arity apply of rf.
+     */
+    public static <R, J, W, K, V> R transduceKV(IKVTransducer<J, W, K, V> xf, IKVReducingFunction<R, ? super J, ? super W> rf,
+                                                Map<K, V> input) {
+        return Impl.reduceKV(xf.apply(rf), rf.apply(), input, new AtomicBoolean());
+    }
+
+    /**
+     * Reduces input in parallel, partitioned by key. Each input is hashed by its key to
+     * one of the given number of shards, and each shard reduces its inputs on a worker
+     * thread of its own, using its own reducing function built by applying the transducer
+     * and starting from the zero-arity apply of rf. Each shard sees, in input order, the
+     * inputs whose keys hash to it and no others, so the state of stateful stages such as
+     * partitionBy, dedupe and take is confined to a shard, and every input with a given
+     * key passes through the same state. Completed shard results are combined with merge.
+     * A shard that is reduced drops further inputs; the whole reduction stops early only
+     * once every shard is reduced.
+     * @param xf a transducer (or composed transducers) that transforms the reducing function
+     * @param rf a reducing function
+     * @param key a function from an input to its key
+     * @param shards the number of shards and worker threads
+     * @param merge combines the results of two shards
+     * @param input the input to reduce
+     * @param <R> return type
+     * @param <A> type expected by reducing function
+     * @param <B> type of input and type accepted by reducing function returned by transducer
+     * @return the merged result of every shard
+     */
+    public static <R, A, B> R transduceKeyed(ITransducer<A, B> xf, IReducingFunction<R, ? super A> rf, Function<B, ?> key,
+                                             int shards, BiFunction<R, R, R> merge, Iterable<B> input) {
+        return new KeyedReduction<R, B>(xf, rf, key, shards, merge).run(input);
+    }
+
+    /**
+     * Reduces input asynchronously. Each input is passed to the stage's function,
+     * which starts some work and returns a Deferred; at most the stage's
+     * maxInFlight of these are pending at once. Their values are then reduced
+     * in input order using the reducing function transformed by the transducer.
+     * No thread ever blocks waiting: the reduction advances on whichever thread
+     * completes a Deferred. If the reducing process stops early (e.g., because
+     * of take), pending Deferreds are cancelled and no more inputs are started.
+     * Cancelling the returned Deferred does the same.
+     * @param stage an asynchronous mapping stage created by mapAsync
+     * @param xf a transducer (or composed transducers) that transforms the reducing function
+     * @param rf a reducing function
+     * @param init an initial value to start reducing process
+     * @param input the input to reduce
+     * @param <R> return type
+     * @param <A> type expected by reducing function
+     * @param <B> type produced by the asynchronous stage and accepted by the transducer
+     * @param <C> type of input
+     * @return a Deferred result of reducing transformed input
+     */
+    public static <R, A, B, C> Deferred<R> transduceAsync(AsyncStage<B, C> stage, ITransducer<A, B> xf,
+                                                          IStepFunction<R, ? super A> rf, R init, Iterable<C> input) {
+        IReducingFunction<R, ? super A> _rf = completing(rf);
+        return new AsyncReduction<R, B, C>(stage, xf.apply(_rf), init, input).start();
+    }
+
+    /**
+     * Like transduceAsync with an initial value, using the zero-arity apply of
+     * the reducing function to create the initial value.
+     * @param stage an asynchronous mapping stage created by mapAsync
+     * @param xf a transducer (or composed transducers) that transforms the reducing function
+     * @param rf a reducing function
+     * @param input the input to reduce
+     * @param <R> return type
+     * @param <A> type expected by reducing function
+     * @param <B> type produced by the asynchronous stage and accepted by the transducer
+     * @param <C> type of input
+     * @return a Deferred result of reducing transformed input
+     */
+    public static <R, A, B, C> Deferred<R> transduceAsync(AsyncStage<B, C> stage, ITransducer<A, B> xf,
+                                                          IReducingFunction<R, ? super A> rf, Iterable<C> input) {
+        return new AsyncReduction<R, B, C>(stage, xf.apply(rf), rf.apply(), input).start();
+    }
+
+    /**
+     * Creates a push-style sink that reduces inputs as they are pushed to it,
+     * for code that receives inputs one at a time.
+     * @param xf a transducer (or composed transducers) that transforms the reducing function
+     * @param rf a reducing function
+     * @param init an initial value to start reducing process
+     * @param <R> return type
+     * @param <A> type expected by reducing function
+     * @param <B> type of input
+     * @return a new sink, to be opened before pushing inputs
+     */
+    public static <R, A, B> Sink<R, B> sink(ITransducer<A, B> xf, IStepFunction<R, ? super A> rf, R init) {
+        return new Sink<R, B>(xf.apply(completing(rf)), init, false, null);
+    }
+
+    /**
+     * Like sink with an initial value, using a scheduler to flush timed stages
+     * such as batch at their deadlines, even when no input is being pushed.
+     * @param xf a transducer (or composed transducers) that transforms the reducing function
+     * @param rf a reducing function
+     * @param init an initial value to start reducing process
+     * @param scheduler the scheduler (and clock) timed stages in xf were created with
+     * @param <R> return type
+     * @param <A> type expected by reducing function
+     * @param <B> type of input
+     * @return a new sink, to be opened before pushing inputs
+     */
+    public static <R, A, B> Sink<R, B> sink(ITransducer<A, B> xf, IStepFunction<R, ? super A> rf, R init, IScheduler scheduler) {
+        return new Sink<R, B>(xf.apply(completing(rf)), init, false, scheduler);
+    }
+
+    /**
+     * Like sink with an initial value, using the zero-arity apply of the reducing
+     * function to create the initial value when the sink is opened.
+     * @param xf a transducer (or composed transducers) that transforms the reducing function
+     * @param rf a reducing function
+     * @param <R> return type
+     * @param <A> type expected by reducing function
+     * @param <B> type of input
+     * @return a new sink, to be opened before pushing inputs
+     */
+    public static <R, A, B> Sink<R, B> sink(ITransducer<A, B> xf, IReducingFunction<R, ? super A> rf) {
+        return new Sink<R, B>(xf.apply(rf), null, true, null);
     }
 
     /**
@@ -105,6 +488,104 @@ public class Fns {
         }, init, input);
     }
 
+    // the largest upper bound a target is presized to; beyond it, targets grow as needed
+    private static final int PRESIZE_BOUND = 1 << 16;
+
+    private static int capacity(ITransducer<?, ?> xf, Iterable<?> input) {
+        return SizeHint.through(xf, SizeHint.of(input)).capacity(10, PRESIZE_BOUND);
+    }
+
+    /**
+     * Transduces input into a new ArrayList, presized from the size hint of the input
+     * and the transducer: exactly when the number of outputs is known, up to a bound
+     * of 65536 when only an upper bound is known.
+     * @param xf a transducer (or composed transducers) that transforms the reducing function
+     * @param input the input to put into the list
+     * @param <A> type the list contains
+     * @param <B> type of input
+     * @return a new list
+     */
+    public static <A, B> ArrayList<A> intoList(ITransducer<A, B> xf, Iterable<B> input) {
+        return into(xf, new ArrayList<A>(capacity(xf, input)), input);
+    }
+
+    /**
+     * Transduces input into a new HashSet, presized like intoList.
+     * @param xf a transducer (or composed transducers) that transforms the reducing function
+     * @param input the input to put into the set
+     * @param <A> type the set contains
+     * @param <B> type of input
+     * @return a new set
+     */
+    public static <A, B> HashSet<A> intoSet(ITransducer<A, B> xf, Iterable<B> input) {
+        return into(xf, new HashSet<A>(hashCapacity(capacity(xf, input))), input);
+    }
+
+    private static int hashCapacity(int n) {
+        return (n < (1 << 29)) ? n + n / 3 + 1 : n;
+    }
+
+    /**
+     * Transduces input into entries of a new HashMap, presized like intoList. Later
+     * entries replace earlier ones with the same key.
+     * @param xf a transducer (or composed transducers) that produces map entries
+     * @param input the input to transform into entries
+     * @param <K> key type
+     * @param <V> value type
+     * @param <B> type of input
+     * @return a new map
+     */
+    public static <K, V, B> HashMap<K, V> intoMap(ITransducer<? extends Map.Entry<K, V>, B> xf, Iterable<B> input) {
+        return transduce(xf, new AReducingFunction<HashMap<K, V>, Map.Entry<K, V>>() {
+            @Override
+            public HashMap<K, V> apply(HashMap<K, V> result, Map.Entry<K, V> input, AtomicBoolean reduced) {
+                result.put(input.getKey(), input.getValue());
+                return result;
+            }
+        }, new HashMap<K, V>(hashCapacity(capacity(xf, input))), input);
+    }
+
+    /**
+     * Transduces input into a new ChunkedList, which grows by adding fixed-size chunks
+     * rather than by copying, for results whose size is not known in advance.
+     * @param xf a transducer (or composed transducers) that transforms the reducing function
+     * @param input the input to put into the list
+     * @param <A> type the list contains
+     * @param <B> type of input
+     * @return a new list
+     */
+    public static <A, B> ChunkedList<A> intoChunked(ITransducer<A, B> xf, Iterable<B> input) {
+        return into(xf, new ChunkedList<A>(), input);
+    }
+
+    /**
+     * Transduces input into a new array of exactly the number of outputs. When the size
+     * hint is exact the outputs are written straight into an array of that size;
+     * otherwise they are collected into a ChunkedList and copied once into the array.
+     * @param xf a transducer (or composed transducers) that transforms the reducing function
+     * @param input the input to put into the array
+     * @param type an array of the element type to create, e.g. new String[0]
+     * @param <A> type the array contains
+     * @param <B> type of input
+     * @return a new array
+     */
+    public static <A, B> A[] intoArray(ITransducer<A, B> xf, Iterable<B> input, A[] type) {
+        if (!SizeHint.through(xf, SizeHint.of(input)).isExact())
+            return intoChunked(xf, input).toArray(Arrays.copyOf(type, 0));
+        final int[] count = new int[1];
+        A[] ret = transduce(xf, new AReducingFunction<A[], A>() {
+            @Override
+            public A[] apply(A[] result, A input, AtomicBoolean reduced) {
+                A[] ret = result;
+                if (count[0] == ret.length)
+                    ret = Arrays.copyOf(ret, Math.max(10, ret.length + (ret.length >> 1)));
+                ret[count[0]++] = input;
+                return ret;
+            }
+        }, Arrays.copyOf(type, capacity(xf, input)), input);
+        return (ret.length == count[0]) ? ret : Arrays.copyOf(ret, count[0]);
+    }
+
     /**
      * Composes a transducer with another transducer, yielding a new transducer that
      * @param left left hand transducer
@@ -118,6 +599,51 @@ public class Fns {
         return left.comp(right);
     }
 
+    /**
+     * Captures the state of a reducing function, including every reducing function
+     * it chains to, in binary form. Reducing functions returned by the transducers in
+     * this class are checkpointable. Stages that hold inputs write them with the codec
+     * they were given, as partitionBy and partitionAll can be, or else with Java
+     * serialization, one stream per stage; single values, such as the prior input of
+     * dedupe or the result of the open run of partitionByReduce, are always written with
+     * Java serialization. The runs sortBy has spilled to files are copied into the
+     * checkpoint; the cache of cachedMap is left out. The reduction result itself
+     * is not included and must be saved separately, along with the position in the input.
+     * @param rf a reducing function, typically the result of ITransducer.apply
+     * @return the state of the reducing function
+     */
+    public static byte[] checkpoint(IReducingFunction<?, ?> rf) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            if (rf instanceof ICheckpointable)
+                ((ICheckpointable) rf).snapshot(out);
+            out.flush();
+        } catch (IOException e) {
+            throw new IllegalStateException("failed to checkpoint reducing function", e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Restores state captured by checkpoint into a reducing function built the same way
+     * (by applying an equivalent transducer to an equivalent reducing function).
+     * @param rf the reducing function to restore
+     * @param state state returned by checkpoint
+     * @param <F> the type of reducing function
+     * @return rf
+     */
+    public static <F extends IReducingFunction<?, ?>> F restore(F rf, byte[] state) {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(state));
+        try {
+            if (rf instanceof ICheckpointable)
+                ((ICheckpointable) rf).restore(in);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("failed to restore reducing function", e);
+        }
+        return rf;
+    }
+
 
     // *** transducers
 
@@ -130,70 +656,115 @@ public class Fns {
      * @return a new transducer
      */
     public static <A, B> ITransducer<A, B> map(final Function<B, A> f) {
-        return new ATransducer<A, B>() {
+        return new ASliceTransducer<A, B>() {
             @Override
-            public <R> IReducingFunction<R, B> apply(final IReducingFunction<R,? super A> rf) {
-                return new AReducingFunctionOn<R, A, B>(rf) {
-                    @Override
-                    public R apply(R result, B input, AtomicBoolean reduced) {
-                        return rf.apply(result, f.apply(input), reduced);
-                    }
-                };
+            public <R> IReducingFunction<R, B> apply(IReducingFunction<R,? super A> rf) {
+                return Impl.mapping(rf, f);
             }
         };
     }
 
     /**
-     * Creates a transducer that transforms a reducing function by applying a
-     * predicate to each input and processing only those inputs for which the
-     * predicate is true.
-     * @param p a predicate function
-     * @param <A> input type of input and output reducing functions
-     * @return a new transducer
+     * Creates an asynchronous mapping stage for transduceAsync. The function
+     * starts work for an input (typically I/O) and returns a Deferred value.
+     * @param f a function from an input to a Deferred value
+     * @param maxInFlight the maximum number of pending Deferred values
+     * @param <A> the type of value produced
+     * @param <B> the type of input
+     * @return a new asynchronous stage
      */
-    public static <A> ITransducer<A, A> filter(final Predicate<A> p) {
-        return new ATransducer<A, A>() {
-            @Override
-            public <R> IReducingFunction<R, A> apply(IReducingFunction<R, ? super A> rf) {
-                return new AReducingFunctionOn<R, A, A>(rf) {
-                    @Override
-                    public R apply(R result, A input, AtomicBoolean reduced) {
-                        if (p.test(input))
-                            return rf.apply(result, input, reduced);
-                        return result;
-                    }
-                };
-            }
-        };
+    public static <A, B> AsyncStage<A, B> mapAsync(Function<B, ? extends Deferred<? extends A>> f, int maxInFlight) {
+        return new AsyncStage<A, B>(f, maxInFlight);
     }
 
     /**
-     * Creates a transducer that transforms a reducing function by accepting
-     * an iterable of the expected input type and reducing it
+     * Creates a transducer like map that memoizes the mapping function in an
+     * LRU cache of at most maxSize entries. Each reducing process gets a cache
+     * of its own.
+     * @param f a mapping function from one type to another (can be the same type)
+     * @param maxSize the maximum number of cached results
      * @param <A> input type of input reducing function
      * @param <B> input type of output reducing function
      * @return a new transducer
      */
-    public static <A, B extends Iterable<A>> ITransducer<A, B> cat() {
+    public static <A, B> ITransducer<A, B> cachedMap(final Function<B, A> f, final int maxSize) {
         return new ATransducer<A, B>() {
             @Override
-            public <R> IReducingFunction<R, B> apply(final IReducingFunction<R, ? super A> rf) {
-                return new AReducingFunctionOn<R, A, B>(rf) {
-                    @Override
-                    public R apply(R result, B input, AtomicBoolean reduced) {
-                        return reduce(rf, result, input, reduced);
-                    }
-                };
+            public <R> IReducingFunction<R, B> apply(final IReducingFunction<R,? super A> rf) {
+                return cachedMap(f, new BoundedCache<B, A>(maxSize, BoundedCache.Policy.LRU, false)).apply(rf);
+            }
+
+            @Override
+            public SizeHint sizeHint(SizeHint input) {
+                return input;
             }
         };
     }
 
     /**
-     * Creates a transducer that transforms a reducing function using
-     * a composition of map and cat.
+     * Creates a transducer like map that memoizes the mapping function in the
+     * given cache. The cache is shared by every reducing process using the
+     * transducer, so it must be created as concurrent if those run on several
+     * threads.
      * @param f a mapping function from one type to another (can be the same type)
+     * @param cache the cache of results, which also keeps hit and miss statistics
      * @param <A> input type of input reducing function
-     * @param <B> output type of output reducing function and iterable of input type
+     * @param <B> input type of output reducing function
+     * @return a new transducer
+     */
+    public static <A, B> ITransducer<A, B> cachedMap(final Function<B, A> f, final BoundedCache<B, A> cache) {
+        return map(new Function<B, A>() {
+            @Override
+            public A apply(B b) {
+                return cache.get(b, f);
+            }
+        });
+    }
+
+    /**
+     * Creates a transducer that transforms a reducing function by applying a
+     * predicate to each input and processing only those inputs for which the
+     * predicate is true.
+     * @param p a predicate function
+     * @param <A> input type of input and output reducing functions
+     * @return a new transducer
+     */
+    public static <A> ITransducer<A, A> filter(final Predicate<A> p) {
+        return new ATransducer<A, A>() {
+            @Override
+            public <R> IReducingFunction<R, A> apply(IReducingFunction<R, ? super A> rf) {
+                return Impl.filtering(rf, p);
+            }
+
+            @Override
+            public SizeHint sizeHint(SizeHint input) {
+                return input.atMost();
+            }
+        };
+    }
+
+    /**
+     * Creates a transducer that transforms a reducing function by accepting
+     * an iterable of the expected input type and reducing it
+     * @param <A> input type of input reducing function
+     * @param <B> input type of output reducing function
+     * @return a new transducer
+     */
+    public static <A, B extends Iterable<A>> ITransducer<A, B> cat() {
+        return new ATransducer<A, B>() {
+            @Override
+            public <R> IReducingFunction<R, B> apply(IReducingFunction<R, ? super A> rf) {
+                return Impl.<R, A, B>concatenating(rf);
+            }
+        };
+    }
+
+    /**
+     * Creates a transducer that transforms a reducing function using
+     * a composition of map and cat.
+     * @param f a mapping function from one type to another (can be the same type)
+     * @param <A> input type of input reducing function
+     * @param <B> output type of output reducing function and iterable of input type
      *           of input reducing function
      * @param <C> input type of output reducing function
      * @return a new transducer
@@ -214,14 +785,12 @@ public class Fns {
         return new ATransducer<A, A>() {
             @Override
             public <R> IReducingFunction<R, A> apply(IReducingFunction<R, ? super A> rf) {
-                return new AReducingFunctionOn<R, A, A>(rf) {
-                    @Override
-                    public R apply(R result, A input, AtomicBoolean reduced) {
-                        if (!p.test(input))
-                            return rf.apply(result, input, reduced);
-                        return result;
-                    }
-                };
+                return Impl.removing(rf, p);
+            }
+
+            @Override
+            public SizeHint sizeHint(SizeHint input) {
+                return input.atMost();
             }
         };
     }
@@ -234,7 +803,7 @@ public class Fns {
      * @return a new transducer
      */
     public static <A> ITransducer<A, A> take(final long n) {
-        return new ATransducer<A, A>() {
+        return new ASliceTransducer<A, A>(0, n) {
             @Override
             public <R> IReducingFunction<R, A> apply(IReducingFunction<R, ? super A> rf) {
                 return new AReducingFunctionOn<R, A, A>(rf) {
@@ -250,6 +819,18 @@ public class Fns {
                         }
                         return ret;
                     }
+
+                    @Override
+                    public void snapshot(DataOutput out) throws IOException {
+                        out.writeLong(taken);
+                        super.snapshot(out);
+                    }
+
+                    @Override
+                    public void restore(DataInput in) throws IOException {
+                        taken = in.readLong();
+                        super.restore(in);
+                    }
                 };
             }
         };
@@ -280,6 +861,11 @@ public class Fns {
                     }
                 };
             }
+
+            @Override
+            public SizeHint sizeHint(SizeHint input) {
+                return input.atMost();
+            }
         };
     }
 
@@ -291,7 +877,7 @@ public class Fns {
      * @return a new transducer
      */
     public static <A> ITransducer<A, A> drop(final long n) {
-        return new ATransducer<A, A>() {
+        return new ASliceTransducer<A, A>(n, ASliceTransducer.UNLIMITED) {
             @Override
             public <R> IReducingFunction<R, A> apply(IReducingFunction<R,? super A> rf) {
                 return new AReducingFunctionOn<R, A, A>(rf) {
@@ -306,6 +892,18 @@ public class Fns {
                         }
                         return ret;
                     }
+
+                    @Override
+                    public void snapshot(DataOutput out) throws IOException {
+                        out.writeLong(dropped);
+                        super.snapshot(out);
+                    }
+
+                    @Override
+                    public void restore(DataInput in) throws IOException {
+                        dropped = in.readLong();
+                        super.restore(in);
+                    }
                 };
             }
         };
@@ -334,8 +932,25 @@ public class Fns {
                         drop = false;
                         return rf.apply(result, input, reduced);
                     }
+
+                    @Override
+                    public void snapshot(DataOutput out) throws IOException {
+                        out.writeBoolean(drop);
+                        super.snapshot(out);
+                    }
+
+                    @Override
+                    public void restore(DataInput in) throws IOException {
+                        drop = in.readBoolean();
+                        super.restore(in);
+                    }
                 };
             }
+
+            @Override
+            public SizeHint sizeHint(SizeHint input) {
+                return input.atMost();
+            }
         };
     }
 
@@ -356,8 +971,25 @@ public class Fns {
                     public R apply(R result, A input, AtomicBoolean reduced) {
                         return ((nth++ % n) == 0) ? rf.apply(result, input, reduced) : result;
                     }
+
+                    @Override
+                    public void snapshot(DataOutput out) throws IOException {
+                        out.writeLong(nth);
+                        super.snapshot(out);
+                    }
+
+                    @Override
+                    public void restore(DataInput in) throws IOException {
+                        nth = in.readLong();
+                        super.restore(in);
+                    }
                 };
             }
+
+            @Override
+            public SizeHint sizeHint(SizeHint input) {
+                return input.groups(n);
+            }
         };
     }
 
@@ -373,13 +1005,76 @@ public class Fns {
         return map(new Function<A, A>() {
             @Override
             public A apply(A a) {
-                if (smap.containsKey(a))
-                    return smap.get(a);
+                A ret = smap.get(a);
+                if (ret != null || smap.containsKey(a))
+                    return ret;
                 return a;
             }
         });
     }
 
+    /**
+     * Creates a transducer that joins each input with the rows of an index that
+     * have the input's key, passing on what a combiner makes of the input and a
+     * row. With the INNER mode there is one output per matching row; LEFT adds one
+     * output, combined with a null row, for an input without a match; SEMI has one
+     * output for an input with a match, combined with its first matching row. Each
+     * input costs one lookup in the index. The index is never copied, so the same
+     * transducer, or the same index, can be broadcast to pipelines on many threads,
+     * such as the shards of transduceKeyed, which all share one read-only index.
+     * @param index the index of rows to join with
+     * @param key a function from an input to its key
+     * @param mode how inputs are joined with matching rows
+     * @param combiner combines an input and a matching row into an output
+     * @param <A> the input type of the output reducing function
+     * @param <B> the input type of the input reducing function
+     * @param <K> the key type
+     * @param <V> the row type
+     * @return a new transducer
+     */
+    public static <A, B, K, V> ITransducer<B, A> lookupJoin(final LookupIndex<K, V> index, final Function<A, K> key,
+                                                            JoinMode mode, BiFunction<A, V, B> combiner) {
+        return new LookupJoin<A, B, V>(index.values, index.next, index.unique, mode, combiner) {
+            @Override
+            int first(A input) {
+                return index.first(key.apply(input));
+            }
+        };
+    }
+
+    /**
+     * Like lookupJoin with a LookupIndex, for an index with long keys, so that no
+     * key is boxed.
+     */
+    public static <A, B, V> ITransducer<B, A> lookupJoin(final LongLookupIndex<V> index, final ToLongFunction<A> key,
+                                                         JoinMode mode, BiFunction<A, V, B> combiner) {
+        return new LookupJoin<A, B, V>(index.values, index.next, index.unique, mode, combiner) {
+            @Override
+            int first(A input) {
+                return index.first(key.applyAsLong(input));
+            }
+        };
+    }
+
+    /**
+     * Like lookupJoin with a LookupIndex, building the index from a table of rows
+     * once, when the transducer is created.
+     * @param table the rows to join with
+     * @param tableKey a function from a row to its key
+     * @param key a function from an input to its key
+     * @param mode how inputs are joined with matching rows
+     * @param combiner combines an input and a matching row into an output
+     * @param <A> the input type of the output reducing function
+     * @param <B> the input type of the input reducing function
+     * @param <K> the key type
+     * @param <V> the row type
+     * @return a new transducer
+     */
+    public static <A, B, K, V> ITransducer<B, A> lookupJoin(Iterable<V> table, Function<V, K> tableKey, Function<A, K> key,
+                                                            JoinMode mode, BiFunction<A, V, B> combiner) {
+        return lookupJoin(LookupIndex.build(table, tableKey), key, mode, combiner);
+    }
+
     /**
      * Creates a transducer that transforms a reducing function by applying a
      * function to each input and processing the resulting value, ignoring values
@@ -392,15 +1087,12 @@ public class Fns {
         return new ATransducer<A, A>() {
             @Override
             public <R> IReducingFunction<R, A> apply(IReducingFunction<R, ? super A> rf) {
-                return new AReducingFunctionOn<R, A, A>(rf) {
-                    @Override
-                    public R apply(R result, A input, AtomicBoolean reduced) {
-                        A _input = f.apply(input);
-                        if (_input != null)
-                            return rf.apply(result, _input, reduced);
-                        return result;
-                    }
-                };
+                return Impl.keeping(rf, f);
+            }
+
+            @Override
+            public SizeHint sizeHint(SizeHint input) {
+                return input.atMost();
             }
         };
     }
@@ -427,8 +1119,25 @@ public class Fns {
                             return rf.apply(result, _input, reduced);
                         return result;
                     }
+
+                    @Override
+                    public void snapshot(DataOutput out) throws IOException {
+                        out.writeLong(n);
+                        super.snapshot(out);
+                    }
+
+                    @Override
+                    public void restore(DataInput in) throws IOException {
+                        n = in.readLong();
+                        super.restore(in);
+                    }
                 };
             }
+
+            @Override
+            public SizeHint sizeHint(SizeHint input) {
+                return input.atMost();
+            }
         };
     }
 
@@ -445,34 +1154,220 @@ public class Fns {
             public <R> IReducingFunction<R, A> apply(IReducingFunction<R, ? super A> rf) {
                 return new AReducingFunctionOn<R, A, A>(rf) {
                     A prior = null;
+                    // a restored prior is a copy, so the next input is compared with equals
+                    boolean restored = false;
                     @Override
                     public R apply(R result, A input, AtomicBoolean reduced) {
-                        R ret = result;
-                        if (prior != input) {
-                            prior = input;
-                            ret = rf.apply(result, input, reduced);
-                        }
-                        return ret;
+                        boolean same = (prior == input) || (restored && input != null && input.equals(prior));
+                        restored = false;
+                        prior = input;
+                        return same ? result : rf.apply(result, input, reduced);
+                    }
+
+                    @Override
+                    public void snapshot(DataOutput out) throws IOException {
+                        Codecs.<A>serializable().write(prior, out);
+                        super.snapshot(out);
+                    }
+
+                    @Override
+                    public void restore(DataInput in) throws IOException {
+                        prior = Codecs.<A>serializable().read(in);
+                        restored = true;
+                        super.restore(in);
                     }
                 };
             }
+
+            @Override
+            public SizeHint sizeHint(SizeHint input) {
+                return input.atMost();
+            }
         };
     }
 
     /**
      * Creates a transducer that transforms a reducing function such that
-     * it has the specified probability of processing each input.
+     * it has the specified probability of processing each input. Each reduction
+     * uses its own random generator, and draws one random number per processed
+     * input rather than one per input by skipping ahead a geometrically
+     * distributed number of inputs.
      * @param prob the probability between expressed as a value between 0 and 1.
      * @param <A> the input type of the input and output reducing functions
      * @return a new transducer
      */
     public static <A> ITransducer<A, A> randomSample(final Double prob) {
-        return filter(new Predicate<A>() {
+        return randomSample(prob, null);
+    }
+
+    /**
+     * Creates a transducer that transforms a reducing function such that
+     * it has the specified probability of processing each input. Every reduction
+     * using the transducer samples the same positions for the same seed.
+     * @param prob the probability between expressed as a value between 0 and 1.
+     * @param seed the seed for the random generator
+     * @param <A> the input type of the input and output reducing functions
+     * @return a new transducer
+     */
+    public static <A> ITransducer<A, A> randomSample(final double prob, final long seed) {
+        return randomSample(prob, Long.valueOf(seed));
+    }
+
+    private static <A> ITransducer<A, A> randomSample(final double prob, final Long seed) {
+        return new ATransducer<A, A>() {
+            @Override
+            public <R> IReducingFunction<R, A> apply(IReducingFunction<R, ? super A> rf) {
+                return new AReducingFunctionOn<R, A, A>(rf) {
+                    final SplitMix64 random = (seed == null) ? new SplitMix64() : new SplitMix64(seed);
+                    long skip = random.nextGeometric(prob);
+                    @Override
+                    public R apply(R result, A input, AtomicBoolean reduced) {
+                        if (skip > 0) {
+                            skip--;
+                            return result;
+                        }
+                        skip = random.nextGeometric(prob);
+                        return rf.apply(result, input, reduced);
+                    }
+
+                    @Override
+                    public void snapshot(DataOutput out) throws IOException {
+                        out.writeLong(random.seed());
+                        out.writeLong(skip);
+                        super.snapshot(out);
+                    }
+
+                    @Override
+                    public void restore(DataInput in) throws IOException {
+                        random.seed(in.readLong());
+                        skip = in.readLong();
+                        super.restore(in);
+                    }
+                };
+            }
+
             @Override
-            public boolean test(A a) {
-                return (Math.random() < prob);
+            public SizeHint sizeHint(SizeHint input) {
+                return input.atMost();
             }
-        });
+        };
+    }
+
+    /**
+     * Creates a transducer that transforms a reducing function such that
+     * it processes a uniform random sample of k inputs, or all of the inputs
+     * if there are fewer than k. The sample is gathered in a fixed-size
+     * reservoir, using skip-ahead so that the number of random numbers drawn
+     * grows with the log of the number of inputs, and is only processed when
+     * the reducing process completes.
+     * @param k the size of the sample
+     * @param <A> the input type of the input and output reducing functions
+     * @return a new transducer
+     */
+    public static <A> ITransducer<A, A> reservoirSample(final int k) {
+        return reservoirSample(k, null);
+    }
+
+    /**
+     * Creates a transducer that transforms a reducing function such that
+     * it processes a uniform random sample of k inputs, or all of the inputs
+     * if there are fewer than k. Every reduction using the transducer samples
+     * the same positions for the same seed.
+     * @param k the size of the sample
+     * @param seed the seed for the random generator
+     * @param <A> the input type of the input and output reducing functions
+     * @return a new transducer
+     */
+    public static <A> ITransducer<A, A> reservoirSample(final int k, final long seed) {
+        return reservoirSample(k, Long.valueOf(seed));
+    }
+
+    private static <A> ITransducer<A, A> reservoirSample(final int k, final Long seed) {
+        if (k < 0)
+            throw new IllegalArgumentException("k must not be negative: " + k);
+        return new ATransducer<A, A>() {
+            @Override
+            public <R> IReducingFunction<R, A> apply(final IReducingFunction<R, ? super A> rf) {
+                return new AReducingFunctionOn<R, A, A>(rf) {
+                    final SplitMix64 random = (seed == null) ? new SplitMix64() : new SplitMix64(seed);
+                    final Object[] reservoir = new Object[k];
+                    long seen = 0;
+                    long next = 0;
+                    double w = 0;
+
+                    private void advance() {
+                        w *= Math.exp(Math.log(random.nextOpenDouble()) / k);
+                        long skip = (long) Math.floor(Math.log(random.nextOpenDouble()) / Math.log1p(-w));
+                        next = (skip >= Long.MAX_VALUE - next) ? Long.MAX_VALUE : next + skip + 1;
+                    }
+
+                    @Override
+                    public R apply(R result, A input, AtomicBoolean reduced) {
+                        if (k == 0) {
+                            // an empty sample needs no more input
+                            reduced.set(true);
+                            return result;
+                        }
+                        if (seen < k) {
+                            reservoir[(int) seen] = input;
+                            if (seen + 1 == k) {
+                                w = 1.0;
+                                next = seen;
+                                advance();
+                            }
+                        } else if (seen == next) {
+                            reservoir[random.nextInt(k)] = input;
+                            advance();
+                        }
+                        seen++;
+                        return result;
+                    }
+
+                    @Override
+                    @SuppressWarnings("unchecked")
+                    public R apply(R result) {
+                        R ret = result;
+                        AtomicBoolean reduced = new AtomicBoolean();
+                        int n = (int) Math.min(seen, k);
+                        for (int i = 0; i < n && !reduced.get(); i++) {
+                            ret = rf.apply(ret, (A) reservoir[i], reduced);
+                            reservoir[i] = null;
+                        }
+                        return rf.apply(ret);
+                    }
+
+                    @Override
+                    public void snapshot(DataOutput out) throws IOException {
+                        out.writeLong(random.seed());
+                        out.writeLong(seen);
+                        out.writeLong(next);
+                        out.writeDouble(w);
+                        Impl.writeAll(Arrays.asList(reservoir).subList(0, (int) Math.min(seen, k)), null, out);
+                        super.snapshot(out);
+                    }
+
+                    @Override
+                    public void restore(DataInput in) throws IOException {
+                        random.seed(in.readLong());
+                        seen = in.readLong();
+                        next = in.readLong();
+                        w = in.readDouble();
+                        List<Object> sample = new ArrayList<Object>(k);
+                        Impl.readAll(sample, null, in);
+                        if (sample.size() != Math.min(seen, k))
+                            throw new IOException("malformed reservoir state");
+                        Arrays.fill(reservoir, null);
+                        sample.toArray(reservoir);
+                        super.restore(in);
+                    }
+                };
+            }
+
+            @Override
+            public SizeHint sizeHint(SizeHint input) {
+                return input.limit(k);
+            }
+        };
     }
 
     /**
@@ -488,19 +1383,27 @@ public class Fns {
      * @return a new transducer
      */
     public static <A, P> ITransducer<Iterable<A>, A> partitionBy(final Function<A, P> f) {
+        return partitionBy(f, null);
+    }
+
+    /**
+     * Like partitionBy, writing the inputs of the open partition with a codec when the
+     * reducing function is checkpointed.
+     * @param f the partitioning function
+     * @param codec writes and reads buffered inputs, or null to use Java serialization
+     * @param <A> the input type of the input and output reducing functions
+     * @param <P> the type returned by the partitioning function
+     * @return a new transducer
+     */
+    public static <A, P> ITransducer<Iterable<A>, A> partitionBy(final Function<A, P> f, final IElementCodec<A> codec) {
         return new ATransducer<Iterable<A>, A>() {
             @Override
             public <R> IReducingFunction<R, A> apply(final IReducingFunction<R, ? super Iterable<A>> rf) {
-                return new IReducingFunction<R, A>() {
+                return new AReducingFunctionOn<R, Iterable<A>, A>(rf) {
                     List<A> part = new ArrayList<A>();
                     Object mark = new Object();
                     Object prior = mark;
 
-                    @Override
-                    public R apply() {
-                        return rf.apply();
-                    }
-
                     @Override
                     public R apply(R result) {
                         R ret = result;
@@ -530,33 +1433,192 @@ public class Fns {
                             return ret;
                         }
                     }
+
+                    @Override
+                    public void snapshot(DataOutput out) throws IOException {
+                        out.writeBoolean(prior != mark);
+                        if (prior != mark)
+                            Codecs.serializable().write(prior, out);
+                        Impl.writeAll(part, codec, out);
+                        super.snapshot(out);
+                    }
+
+                    @Override
+                    public void restore(DataInput in) throws IOException {
+                        prior = in.readBoolean() ? Codecs.serializable().read(in) : mark;
+                        Impl.readAll(part, codec, in);
+                        super.restore(in);
+                    }
                 };
             }
+
+            @Override
+            public SizeHint sizeHint(SizeHint input) {
+                return input.atMost();
+            }
         };
     }
 
     /**
-     * Creates a transducer that transforms a reducing function that processes
-     * iterables of input into a reducing function that processes individual inputs
-     * by gathering series of inputs into partitions of a given size, only forwarding
-     * them to the next reducing function when enough inputs have been accrued. Processes
-     * any remaining buffered inputs when the reducing process completes.
-     * @param n the size of each partition
-     * @param <A> the input type of the input and output reducing functions
+     * Creates a transducer that, like partitionBy, splits its inputs into runs for which
+     * the partitioning function returns the same value, but reduces each run as its inputs
+     * arrive instead of gathering it into a list. Each run starts from the zero-arity apply
+     * of the group reducing function, and only the completed result of a run is passed on,
+     * when the value returned by the partitioning function changes or the reducing process
+     * completes. Memory is constant per run however long the run is. If the group reducing
+     * function sets reduced, the rest of the run is skipped.
+     * @param f the partitioning function
+     * @param group the reducing function each run is reduced with
+     * @param <S> the type of the result of each run
+     * @param <A> the input type of the output reducing function
+     * @param <P> the type returned by the partitioning function
      * @return a new transducer
      */
-    public static <A> ITransducer<Iterable<A>, A> partitionAll(final int n) {
+    public static <S, A, P> ITransducer<S, A> partitionByReduce(final Function<A, P> f, final IReducingFunction<S, ? super A> group) {
+        return Fns.<S, A, A, P>partitionByReduce(f, group, null, null);
+    }
 
-        return new ATransducer<Iterable<A>, A>() {
+    /**
+     * Like partitionByReduce with a group reducing function, transforming the group
+     * reducing function with a transducer for each run. Stateful stages such as take or
+     * dedupe in xf start afresh with every run.
+     * @param f the partitioning function
+     * @param xf a transducer (or composed transducers) applied to each run
+     * @param group the reducing function each transformed run is reduced with
+     * @param <S> the type of the result of each run
+     * @param <A> the input type of the output reducing function
+     * @param <B> the type expected by the group reducing function
+     * @param <P> the type returned by the partitioning function
+     * @return a new transducer
+     */
+    public static <S, A, B, P> ITransducer<S, A> partitionByReduce(final Function<A, P> f, final ITransducer<B, A> xf,
+                                                                   final IReducingFunction<S, ? super B> group) {
+        return partitionByReduce(f, null, xf, group);
+    }
+
+    // each run is reduced with plain if it is not null, else with xf applied to group
+    private static <S, A, B, P> ITransducer<S, A> partitionByReduce(final Function<A, P> f, final IReducingFunction<S, ? super A> plain,
+                                                                    final ITransducer<B, A> xf, final IReducingFunction<S, ? super B> group) {
+        return new ATransducer<S, A>() {
             @Override
-            public <R> IReducingFunction<R, A> apply(final IReducingFunction<R, ? super Iterable<A>> rf) {
-                return new IReducingFunction<R, A>() {
-                    List<A> part = new ArrayList<A>(n);
+            public <R> IReducingFunction<R, A> apply(final IReducingFunction<R, ? super S> rf) {
+                return new AReducingFunctionOn<R, S, A>(rf) {
+                    Object mark = new Object();
+                    Object prior = mark;
+                    IReducingFunction<S, ? super A> current = null;
+                    S acc = null;
+                    AtomicBoolean skip = new AtomicBoolean();
+
+                    private void open() {
+                        if (plain != null)
+                            current = plain;
+                        else
+                            current = xf.apply(group);
+                        acc = current.apply();
+                        skip.set(false);
+                    }
+
+                    private S close() {
+                        S ret = current.apply(acc);
+                        current = null;
+                        acc = null;
+                        return ret;
+                    }
+
+                    @Override
+                    public R apply(R result) {
+                        R ret = result;
+                        if (current != null)
+                            ret = rf.apply(result, close(), new AtomicBoolean());
+                        return rf.apply(ret);
+                    }
+
+                    @Override
+                    public R apply(R result, A input, AtomicBoolean reduced) {
+                        P val = f.apply(input);
+                        R ret = result;
+                        if (prior != mark && !prior.equals(val)) {
+                            ret = rf.apply(result, close(), reduced);
+                            if (reduced.get())
+                                return ret;
+                        }
+                        prior = val;
+                        if (current == null)
+                            open();
+                        if (!skip.get())
+                            acc = current.apply(acc, input, skip);
+                        return ret;
+                    }
 
                     @Override
-                    public R apply() {
-                        return rf.apply();
+                    public void snapshot(DataOutput out) throws IOException {
+                        out.writeBoolean(prior != mark);
+                        if (prior != mark)
+                            Codecs.serializable().write(prior, out);
+                        out.writeBoolean(current != null);
+                        if (current != null) {
+                            Codecs.serializable().write(acc, out);
+                            out.writeBoolean(skip.get());
+                            if (current instanceof ICheckpointable)
+                                ((ICheckpointable) current).snapshot(out);
+                        }
+                        super.snapshot(out);
+                    }
+
+                    @Override
+                    @SuppressWarnings("unchecked")
+                    public void restore(DataInput in) throws IOException {
+                        prior = in.readBoolean() ? Codecs.serializable().read(in) : mark;
+                        if (in.readBoolean()) {
+                            open();
+                            acc = (S) Codecs.serializable().read(in);
+                            skip.set(in.readBoolean());
+                            if (current instanceof ICheckpointable)
+                                ((ICheckpointable) current).restore(in);
+                        } else {
+                            current = null;
+                            acc = null;
+                        }
+                        super.restore(in);
                     }
+                };
+            }
+
+            @Override
+            public SizeHint sizeHint(SizeHint input) {
+                return input.atMost();
+            }
+        };
+    }
+
+    /**
+     * Creates a transducer that transforms a reducing function that processes
+     * iterables of input into a reducing function that processes individual inputs
+     * by gathering series of inputs into partitions of a given size, only forwarding
+     * them to the next reducing function when enough inputs have been accrued. Processes
+     * any remaining buffered inputs when the reducing process completes.
+     * @param n the size of each partition
+     * @param <A> the input type of the input and output reducing functions
+     * @return a new transducer
+     */
+    public static <A> ITransducer<Iterable<A>, A> partitionAll(final int n) {
+        return partitionAll(n, null);
+    }
+
+    /**
+     * Like partitionAll, writing the inputs of the open partition with a codec when the
+     * reducing function is checkpointed.
+     * @param n the size of each partition
+     * @param codec writes and reads buffered inputs, or null to use Java serialization
+     * @param <A> the input type of the input and output reducing functions
+     * @return a new transducer
+     */
+    public static <A> ITransducer<Iterable<A>, A> partitionAll(final int n, final IElementCodec<A> codec) {
+        return new ATransducer<Iterable<A>, A>() {
+            @Override
+            public <R> IReducingFunction<R, A> apply(final IReducingFunction<R, ? super Iterable<A>> rf) {
+                return new AReducingFunctionOn<R, Iterable<A>, A>(rf) {
+                    List<A> part = new ArrayList<A>(n);
 
                     @Override
                     public R apply(R result) {
@@ -579,8 +1641,1288 @@ public class Fns {
                         }
                         return result;
                     }
+
+                    @Override
+                    public void snapshot(DataOutput out) throws IOException {
+                        Impl.writeAll(part, codec, out);
+                        super.snapshot(out);
+                    }
+
+                    @Override
+                    public void restore(DataInput in) throws IOException {
+                        Impl.readAll(part, codec, in);
+                        super.restore(in);
+                    }
+                };
+            }
+
+            @Override
+            public SizeHint sizeHint(SizeHint input) {
+                return input.groups(n);
+            }
+        };
+    }
+
+    /**
+     * Creates a transducer that gathers inputs into batches, passing a batch on when
+     * it holds maxSize inputs, or when maxDelay has passed since its first input,
+     * whichever comes first. The delay is checked as inputs arrive; to flush a batch
+     * while no input is arriving, push to a Sink created with a scheduler. Each batch
+     * is handed on as is, not copied, and a new list is started for the next one.
+     * @param maxSize the maximum number of inputs in a batch
+     * @param maxDelay the maximum time a batch is held for
+     * @param unit the unit of maxDelay
+     * @param clock the clock to measure the delay with, e.g. IClock.SYSTEM
+     * @param <A> the type of input
+     * @return a new transducer
+     */
+    public static <A> ITransducer<List<A>, A> batch(final int maxSize, long maxDelay, TimeUnit unit, final IClock clock) {
+        if (maxSize < 1)
+            throw new IllegalArgumentException("maxSize must be positive: " + maxSize);
+        final long delay = unit.toNanos(maxDelay);
+        return new ATransducer<List<A>, A>() {
+            @Override
+            public <R> IReducingFunction<R, A> apply(final IReducingFunction<R, ? super List<A>> rf) {
+                return new AReducingFunctionOn<R, List<A>, A>(rf) {
+                    List<A> batch = new ArrayList<A>(maxSize);
+                    long due;
+
+                    private R emit(R result, AtomicBoolean reduced) {
+                        List<A> full = batch;
+                        batch = new ArrayList<A>(maxSize);
+                        return rf.apply(result, full, reduced);
+                    }
+
+                    @Override
+                    public R apply(R result) {
+                        R ret = result;
+                        if (!batch.isEmpty())
+                            ret = emit(ret, new AtomicBoolean());
+                        return rf.apply(ret);
+                    }
+
+                    @Override
+                    public R apply(R result, A input, AtomicBoolean reduced) {
+                        long now = clock.nanoTime();
+                        if (batch.isEmpty())
+                            due = now + delay;
+                        batch.add(input);
+                        if (batch.size() == maxSize || now - due >= 0)
+                            return emit(result, reduced);
+                        return result;
+                    }
+
+                    @Override
+                    public long deadline() {
+                        long ret = super.deadline();
+                        if (!batch.isEmpty() && (ret == Long.MAX_VALUE || due - ret < 0))
+                            ret = due;
+                        return ret;
+                    }
+
+                    @Override
+                    public R tick(R result, AtomicBoolean reduced) {
+                        R ret = result;
+                        if (!batch.isEmpty() && clock.nanoTime() - due >= 0)
+                            ret = emit(ret, reduced);
+                        if (!reduced.get())
+                            ret = super.tick(ret, reduced);
+                        return ret;
+                    }
+
+                    @Override
+                    public void snapshot(DataOutput out) throws IOException {
+                        Impl.writeAll(batch, null, out);
+                        super.snapshot(out);
+                    }
+
+                    @Override
+                    public void restore(DataInput in) throws IOException {
+                        Impl.readAll(batch, null, in);
+                        // the clock may not be the one the batch was started by, so its delay starts over
+                        due = clock.nanoTime() + delay;
+                        super.restore(in);
+                    }
+                };
+            }
+
+            @Override
+            public SizeHint sizeHint(SizeHint input) {
+                return input.atMost();
+            }
+        };
+    }
+    /**
+     * Processes values gathered by a stage, then completes the reduction.
+     */
+    @SuppressWarnings("unchecked")
+    private static <R, A> R completeWith(IReducingFunction<R, ? super A> rf, R result, Object[] vals) {
+        R ret = result;
+        AtomicBoolean reduced = new AtomicBoolean();
+        for (int i = 0; i < vals.length && !reduced.get(); i++) {
+            ret = rf.apply(ret, (A) vals[i], reduced);
+        }
+        return rf.apply(ret);
+    }
+
+    private static <A, K> ITransducer<A, A> heapBy(final int k, final Function<A, K> key, final Comparator<? super K> comparator) {
+        return new ATransducer<A, A>() {
+            @Override
+            public <R> IReducingFunction<R, A> apply(final IReducingFunction<R, ? super A> rf) {
+                return new AReducingFunctionOn<R, A, A>(rf) {
+                    final BoundedHeap<K, A> heap = new BoundedHeap<K, A>(k, comparator);
+                    @Override
+                    public R apply(R result, A input, AtomicBoolean reduced) {
+                        heap.offer(key.apply(input), input);
+                        return result;
+                    }
+
+                    @Override
+                    public R apply(R result) {
+                        return completeWith(rf, result, heap.drain());
+                    }
+
+                    @Override
+                    public void snapshot(DataOutput out) throws IOException {
+                        List<A> vals = new ArrayList<A>(heap.size());
+                        for (int i = 0; i < heap.size(); i++) {
+                            vals.add(heap.value(i));
+                        }
+                        Impl.writeAll(vals, null, out);
+                        super.snapshot(out);
+                    }
+
+                    @Override
+                    public void restore(DataInput in) throws IOException {
+                        List<A> vals = new ArrayList<A>();
+                        Impl.readAll(vals, null, in);
+                        heap.drain();
+                        for (A a : vals) {
+                            heap.offer(key.apply(a), a);
+                        }
+                        super.restore(in);
+                    }
+                };
+            }
+
+            @Override
+            public SizeHint sizeHint(SizeHint input) {
+                return input.limit(k);
+            }
+        };
+    }
+
+    private static <A> ITransducer<A, A> heapByLong(final int k, final ToLongFunction<A> key, final boolean largest) {
+        return new ATransducer<A, A>() {
+            @Override
+            public <R> IReducingFunction<R, A> apply(final IReducingFunction<R, ? super A> rf) {
+                return new AReducingFunctionOn<R, A, A>(rf) {
+                    final LongBoundedHeap<A> heap = new LongBoundedHeap<A>(k);
+                    @Override
+                    public R apply(R result, A input, AtomicBoolean reduced) {
+                        long l = key.applyAsLong(input);
+                        // bitwise complement reverses the order of longs without overflowing
+                        heap.offer(largest ? l : ~l, input);
+                        return result;
+                    }
+
+                    @Override
+                    public R apply(R result) {
+                        return completeWith(rf, result, heap.drain());
+                    }
+
+                    @Override
+                    public void snapshot(DataOutput out) throws IOException {
+                        // the keys are longs, so they are written rather than recomputed
+                        out.writeInt(heap.size());
+                        List<A> vals = new ArrayList<A>(heap.size());
+                        for (int i = 0; i < heap.size(); i++) {
+                            out.writeLong(heap.key(i));
+                            vals.add(heap.value(i));
+                        }
+                        Impl.writeAll(vals, null, out);
+                        super.snapshot(out);
+                    }
+
+                    @Override
+                    public void restore(DataInput in) throws IOException {
+                        long[] keys = new long[in.readInt()];
+                        for (int i = 0; i < keys.length; i++) {
+                            keys[i] = in.readLong();
+                        }
+                        List<A> vals = new ArrayList<A>(keys.length);
+                        Impl.readAll(vals, null, in);
+                        if (vals.size() != keys.length)
+                            throw new IOException("malformed heap state");
+                        heap.drain();
+                        for (int i = 0; i < keys.length; i++) {
+                            heap.offer(keys[i], vals.get(i));
+                        }
+                        super.restore(in);
+                    }
                 };
             }
+
+            @Override
+            public SizeHint sizeHint(SizeHint input) {
+                return input.limit(k);
+            }
+        };
+    }
+
+    private static <A> ToLongFunction<A> sortableKey(final ToDoubleFunction<A> key) {
+        return new ToLongFunction<A>() {
+            @Override
+            public long applyAsLong(A a) {
+                return LongBoundedHeap.sortable(key.applyAsDouble(a));
+            }
+        };
+    }
+
+    private static <A> Function<A, A> identity() {
+        return new Function<A, A>() {
+            @Override
+            public A apply(A a) {
+                return a;
+            }
+        };
+    }
+
+    private static <K extends Comparable<? super K>> Comparator<K> natural() {
+        return new Comparator<K>() {
+            @Override
+            public int compare(K a, K b) {
+                return a.compareTo(b);
+            }
+        };
+    }
+
+    /**
+     * Creates a transducer that transforms a reducing function such that
+     * it processes only the k largest inputs according to the given comparator,
+     * largest first, when the reducing process completes. Inputs are kept in a
+     * bounded heap, so memory use is O(k) and time is O(n log k).
+     * @param k the number of inputs to keep
+     * @param comparator orders the inputs
+     * @param <A> the input type of the input and output reducing functions
+     * @return a new transducer
+     */
+    public static <A> ITransducer<A, A> topK(int k, Comparator<? super A> comparator) {
+        return heapBy(k, Fns.<A>identity(), comparator);
+    }
+
+    /**
+     * Creates a transducer that transforms a reducing function such that
+     * it processes only the k smallest inputs according to the given comparator,
+     * smallest first, when the reducing process completes.
+     * @param k the number of inputs to keep
+     * @param comparator orders the inputs
+     * @param <A> the input type of the input and output reducing functions
+     * @return a new transducer
+     */
+    public static <A> ITransducer<A, A> bottomK(int k, Comparator<? super A> comparator) {
+        return heapBy(k, Fns.<A>identity(), Collections.reverseOrder(comparator));
+    }
+
+    /**
+     * Creates a transducer that transforms a reducing function such that
+     * it processes only the k inputs with the largest keys, largest first,
+     * when the reducing process completes. The key function is called once
+     * per input.
+     * @param k the number of inputs to keep
+     * @param key extracts the key of an input
+     * @param <A> the input type of the input and output reducing functions
+     * @param <K> the key type
+     * @return a new transducer
+     */
+    public static <A, K extends Comparable<? super K>> ITransducer<A, A> topKBy(int k, Function<A, K> key) {
+        return heapBy(k, key, Fns.<K>natural());
+    }
+
+    /**
+     * Creates a transducer that transforms a reducing function such that
+     * it processes only the k inputs with the smallest keys, smallest first,
+     * when the reducing process completes. The key function is called once
+     * per input.
+     * @param k the number of inputs to keep
+     * @param key extracts the key of an input
+     * @param <A> the input type of the input and output reducing functions
+     * @param <K> the key type
+     * @return a new transducer
+     */
+    public static <A, K extends Comparable<? super K>> ITransducer<A, A> bottomKBy(int k, Function<A, K> key) {
+        return heapBy(k, key, Collections.reverseOrder(Fns.<K>natural()));
+    }
+
+    /**
+     * Like topKBy, for primitive long keys, which are kept unboxed.
+     * @param k the number of inputs to keep
+     * @param key extracts the key of an input
+     * @param <A> the input type of the input and output reducing functions
+     * @return a new transducer
+     */
+    public static <A> ITransducer<A, A> topKByLong(int k, ToLongFunction<A> key) {
+        return heapByLong(k, key, true);
+    }
+
+    /**
+     * Like bottomKBy, for primitive long keys, which are kept unboxed.
+     * @param k the number of inputs to keep
+     * @param key extracts the key of an input
+     * @param <A> the input type of the input and output reducing functions
+     * @return a new transducer
+     */
+    public static <A> ITransducer<A, A> bottomKByLong(int k, ToLongFunction<A> key) {
+        return heapByLong(k, key, false);
+    }
+
+    /**
+     * Like topKBy, for primitive double keys, which are kept unboxed.
+     * @param k the number of inputs to keep
+     * @param key extracts the key of an input
+     * @param <A> the input type of the input and output reducing functions
+     * @return a new transducer
+     */
+    public static <A> ITransducer<A, A> topKByDouble(int k, ToDoubleFunction<A> key) {
+        return heapByLong(k, sortableKey(key), true);
+    }
+
+    /**
+     * Like bottomKBy, for primitive double keys, which are kept unboxed.
+     * @param k the number of inputs to keep
+     * @param key extracts the key of an input
+     * @param <A> the input type of the input and output reducing functions
+     * @return a new transducer
+     */
+    public static <A> ITransducer<A, A> bottomKByDouble(int k, ToDoubleFunction<A> key) {
+        return heapByLong(k, sortableKey(key), false);
+    }
+
+    /**
+     * Creates a transducer that transforms a reducing function such that
+     * it processes all inputs in the order given by a comparator, when the
+     * reducing process completes. Inputs are held in memory; the sort is stable.
+     * @param comparator orders the inputs
+     * @param <A> the input type of the input and output reducing functions
+     * @return a new transducer
+     */
+    public static <A> ITransducer<A, A> sortBy(Comparator<? super A> comparator) {
+        return sortBy(comparator, null, Integer.MAX_VALUE, null);
+    }
+
+    /**
+     * Creates a transducer that transforms a reducing function such that
+     * it processes all inputs in the order given by a comparator, when the
+     * reducing process completes. At most maxInMemory inputs are held in memory;
+     * beyond that, sorted runs are written to temporary files with the codec
+     * and merged on completion. The files are deleted when the merge finishes,
+     * including when the reducing function stops it early. The sort is stable.
+     * @param comparator orders the inputs
+     * @param codec writes and reads inputs to and from temporary files
+     * @param maxInMemory the maximum number of inputs held in memory
+     * @param <A> the input type of the input and output reducing functions
+     * @return a new transducer
+     */
+    public static <A> ITransducer<A, A> sortBy(Comparator<? super A> comparator, IElementCodec<A> codec, int maxInMemory) {
+        return sortBy(comparator, codec, maxInMemory, null);
+    }
+
+    /**
+     * Like sortBy with a memory budget, writing temporary files in the given
+     * directory.
+     * @param comparator orders the inputs
+     * @param codec writes and reads inputs to and from temporary files
+     * @param maxInMemory the maximum number of inputs held in memory
+     * @param dir the directory for temporary files, or null for the default
+     * @param <A> the input type of the input and output reducing functions
+     * @return a new transducer
+     */
+    public static <A> ITransducer<A, A> sortBy(final Comparator<? super A> comparator, final IElementCodec<A> codec,
+                                               final int maxInMemory, final File dir) {
+        return new ATransducer<A, A>() {
+            @Override
+            public <R> IReducingFunction<R, A> apply(final IReducingFunction<R, ? super A> rf) {
+                return new AReducingFunctionOn<R, A, A>(rf) {
+                    final ExternalSort<A> sort = new ExternalSort<A>(comparator, codec, maxInMemory, dir);
+                    @Override
+                    public R apply(R result, A input, AtomicBoolean reduced) {
+                        sort.add(input);
+                        return result;
+                    }
+
+                    @Override
+                    public R apply(R result) {
+                        return rf.apply(sort.reduce(rf, result, new AtomicBoolean()));
+                    }
+
+                    @Override
+                    public void snapshot(DataOutput out) throws IOException {
+                        sort.snapshot(out);
+                        super.snapshot(out);
+                    }
+
+                    @Override
+                    public void restore(DataInput in) throws IOException {
+                        sort.restore(in);
+                        super.restore(in);
+                    }
+                };
+            }
+
+            @Override
+            public SizeHint sizeHint(SizeHint input) {
+                return input;
+            }
+        };
+    }
+
+    /**
+     * Creates a transducer that decodes chunks of delimited text, such as CSV, into
+     * rows. Chunks may split rows anywhere. Fields are separated by the delimiter,
+     * rows by line breaks, and may be quoted with double quotes (doubled to escape).
+     * One DelimitedRow is reused for every row, so rows can be filtered without
+     * creating Strings, but stages that keep rows must copy them.
+     * @param delimiter the field delimiter, e.g. ',' or '\t'
+     * @param <C> the type of chunk
+     * @return a new transducer
+     */
+    public static <C extends CharSequence> ITransducer<DelimitedRow, C> decodeDelimited(char delimiter) {
+        return decodeDelimited(delimiter, '"');
+    }
+
+    /**
+     * Like decodeDelimited, with a quote character other than double quote.
+     * @param delimiter the field delimiter, e.g. ',' or '\t'
+     * @param quote the quote character
+     * @param <C> the type of chunk
+     * @return a new transducer
+     */
+    public static <C extends CharSequence> ITransducer<DelimitedRow, C> decodeDelimited(final char delimiter, final char quote) {
+        return new ATransducer<DelimitedRow, C>() {
+            @Override
+            public <R> IReducingFunction<R, C> apply(IReducingFunction<R, ? super DelimitedRow> rf) {
+                final DelimitedDecoder decoder = new DelimitedDecoder(delimiter, quote, null);
+                return new AReducingFunctionOn<R, DelimitedRow, C>(rf) {
+                    @Override
+                    public R apply(R result) {
+                        return rf.apply(decoder.finish(rf, result, new AtomicBoolean()));
+                    }
+
+                    @Override
+                    public R apply(R result, C input, AtomicBoolean reduced) {
+                        return decoder.decode(input, rf, result, reduced);
+                    }
+
+                    @Override
+                    public void snapshot(DataOutput out) throws IOException {
+                        decoder.snapshot(out);
+                        super.snapshot(out);
+                    }
+
+                    @Override
+                    public void restore(DataInput in) throws IOException {
+                        decoder.restore(in);
+                        super.restore(in);
+                    }
+                };
+            }
+        };
+    }
+
+    /**
+     * Like decodeDelimited, for chunks of encoded bytes. Chunks may also split
+     * multi-byte characters; malformed input is replaced rather than rejected.
+     * @param delimiter the field delimiter, e.g. ',' or '\t'
+     * @param quote the quote character
+     * @param charset the encoding of the bytes
+     * @return a new transducer
+     */
+    public static ITransducer<DelimitedRow, byte[]> decodeDelimited(final char delimiter, final char quote, final Charset charset) {
+        return new ATransducer<DelimitedRow, byte[]>() {
+            @Override
+            public <R> IReducingFunction<R, byte[]> apply(IReducingFunction<R, ? super DelimitedRow> rf) {
+                final DelimitedDecoder decoder = new DelimitedDecoder(delimiter, quote, charset);
+                return new AReducingFunctionOn<R, DelimitedRow, byte[]>(rf) {
+                    @Override
+                    public R apply(R result) {
+                        return rf.apply(decoder.finish(rf, result, new AtomicBoolean()));
+                    }
+
+                    @Override
+                    public R apply(R result, byte[] input, AtomicBoolean reduced) {
+                        return decoder.decode(input, rf, result, reduced);
+                    }
+
+                    @Override
+                    public void snapshot(DataOutput out) throws IOException {
+                        decoder.snapshot(out);
+                        super.snapshot(out);
+                    }
+
+                    @Override
+                    public void restore(DataInput in) throws IOException {
+                        decoder.restore(in);
+                        super.restore(in);
+                    }
+                };
+            }
+        };
+    }
+
+    /**
+     * Creates a transducer that passes its inputs on unchanged, checking a cancellation
+     * token at the first input and then every checkEvery inputs. Between checks it only
+     * counts, so the volatile read and clock read of a check are spread over many steps.
+     * When the token trips, it either throws a CancellationException or, with the PARTIAL
+     * policy, sets reduced without passing the input on, so the reduction completes with
+     * the inputs seen so far. Place it first in a pipeline, so it counts inputs as they
+     * come from the source; leading drop and take stages after it are still applied by
+     * position to indexed sources.
+     * @param token the token that stops the reduction
+     * @param checkEvery the number of inputs between checks
+     * @param <A> input type of input and output reducing functions
+     * @return a new transducer
+     */
+    public static <A> ITransducer<A, A> cancellable(final CancellationToken token, final int checkEvery) {
+        if (checkEvery < 1)
+            throw new IllegalArgumentException("checkEvery must be positive: " + checkEvery);
+        return new ASliceTransducer<A, A>() {
+            @Override
+            public <R> IReducingFunction<R, A> apply(IReducingFunction<R, ? super A> rf) {
+                return new AReducingFunctionOn<R, A, A>(rf) {
+                    int countdown = 0;
+
+                    @Override
+                    public R apply(R result, A input, AtomicBoolean reduced) {
+                        if (--countdown < 0) {
+                            countdown = checkEvery - 1;
+                            if (token.trip()) {
+                                reduced.set(true);
+                                return result;
+                            }
+                        }
+                        return rf.apply(result, input, reduced);
+                    }
+
+                    @Override
+                    public void snapshot(DataOutput out) throws IOException {
+                        out.writeInt(countdown);
+                        super.snapshot(out);
+                    }
+
+                    @Override
+                    public void restore(DataInput in) throws IOException {
+                        countdown = in.readInt();
+                        super.restore(in);
+                    }
+                };
+            }
+
+            @Override
+            public SizeHint sizeHint(SizeHint input) {
+                return input.atMost();
+            }
+        };
+    }
+
+    // *** key/value transducers
+
+    /**
+     * Creates a key/value transducer that replaces each value with the result of
+     * applying a function to the key and value.
+     * @param f a function of key and value
+     * @param <K> the key type of the input and output reducing functions
+     * @param <V> the value type of the output reducing function
+     * @param <W> the value type of the input reducing function
+     * @return a new key/value transducer
+     */
+    public static <K, V, W> IKVTransducer<K, W, K, V> kvMapVals(final BiFunction<K, V, W> f) {
+        return new AKVTransducer<K, W, K, V>() {
+            @Override
+            public <R> IKVReducingFunction<R, K, V> apply(IKVReducingFunction<R, ? super K, ? super W> rf) {
+                return new AKVReducingFunctionOn<R, K, W, K, V>(rf) {
+                    @Override
+                    public R apply(R result, K key, V value, AtomicBoolean reduced) {
+                        return rf.apply(result, key, f.apply(key, value), reduced);
+                    }
+                };
+            }
+        };
+    }
+
+    /**
+     * Creates a key/value transducer that replaces each key with the result of
+     * applying a function to the key and value.
+     * @param f a function of key and value
+     * @param <K> the key type of the output reducing function
+     * @param <V> the value type of the input and output reducing functions
+     * @param <J> the key type of the input reducing function
+     * @return a new key/value transducer
+     */
+    public static <K, V, J> IKVTransducer<J, V, K, V> kvMapKeys(final BiFunction<K, V, J> f) {
+        return new AKVTransducer<J, V, K, V>() {
+            @Override
+            public <R> IKVReducingFunction<R, K, V> apply(IKVReducingFunction<R, ? super J, ? super V> rf) {
+                return new AKVReducingFunctionOn<R, J, V, K, V>(rf) {
+                    @Override
+                    public R apply(R result, K key, V value, AtomicBoolean reduced) {
+                        return rf.apply(result, f.apply(key, value), value, reduced);
+                    }
+                };
+            }
+        };
+    }
+
+    /**
+     * Creates a key/value transducer that processes only the keys and values
+     * for which a predicate returns true.
+     * @param p a predicate of key and value
+     * @param <K> the key type of the input and output reducing functions
+     * @param <V> the value type of the input and output reducing functions
+     * @return a new key/value transducer
+     */
+    public static <K, V> IKVTransducer<K, V, K, V> kvFilter(final BiPredicate<K, V> p) {
+        return new AKVTransducer<K, V, K, V>() {
+            @Override
+            public <R> IKVReducingFunction<R, K, V> apply(IKVReducingFunction<R, ? super K, ? super V> rf) {
+                return new AKVReducingFunctionOn<R, K, V, K, V>(rf) {
+                    @Override
+                    public R apply(R result, K key, V value, AtomicBoolean reduced) {
+                        if (p.test(key, value))
+                            return rf.apply(result, key, value, reduced);
+                        return result;
+                    }
+                };
+            }
+        };
+    }
+
+    /**
+     * Creates a key/value transducer that replaces each value with the result of
+     * applying a function to the key and value, dropping the key and value where
+     * that result is null.
+     * @param f a function of key and value
+     * @param <K> the key type of the input and output reducing functions
+     * @param <V> the value type of the output reducing function
+     * @param <W> the value type of the input reducing function
+     * @return a new key/value transducer
+     */
+    public static <K, V, W> IKVTransducer<K, W, K, V> kvKeep(final BiFunction<K, V, W> f) {
+        return new AKVTransducer<K, W, K, V>() {
+            @Override
+            public <R> IKVReducingFunction<R, K, V> apply(IKVReducingFunction<R, ? super K, ? super W> rf) {
+                return new AKVReducingFunctionOn<R, K, W, K, V>(rf) {
+                    @Override
+                    public R apply(R result, K key, V value, AtomicBoolean reduced) {
+                        W _value = f.apply(key, value);
+                        if (_value != null)
+                            return rf.apply(result, key, _value, reduced);
+                        return result;
+                    }
+                };
+            }
+        };
+    }
+
+    /**
+     * Creates a key/value reducing function that combines each key and value into
+     * one input with a function and steps a reducing function with it, joining a
+     * key/value pipeline to an ordinary one. Initialization and completion forward
+     * to rf, which may itself be transformed by a transducer.
+     * @param f a function combining key and value
+     * @param rf a reducing function
+     * @param <R> the type of the result
+     * @param <A> the input type of rf
+     * @param <K> the key type of the returned reducing function
+     * @param <V> the value type of the returned reducing function
+     * @return a new key/value reducing function
+     */
+    public static <R, A, K, V> IKVReducingFunction<R, K, V> kvReducing(final BiFunction<K, V, A> f,
+                                                                       final IReducingFunction<R, ? super A> rf) {
+        return new IKVReducingFunction<R, K, V>() {
+            @Override
+            public R apply() {
+                return rf.apply();
+            }
+
+            @Override
+            public R apply(R result) {
+                return rf.apply(result);
+            }
+
+            @Override
+            public R apply(R result, K key, V value, AtomicBoolean reduced) {
+                return rf.apply(result, f.apply(key, value), reduced);
+            }
+        };
+    }
+
+    /**
+     * Creates a key/value reducing function that puts each key and value into the
+     * result map. Its zero-arity apply returns a new HashMap.
+     * @param <K> the key type
+     * @param <V> the value type
+     * @return a new key/value reducing function
+     */
+    public static <K, V> IKVReducingFunction<Map<K, V>, K, V> kvPut() {
+        return new AKVReducingFunction<Map<K, V>, K, V>() {
+            @Override
+            public Map<K, V> apply() {
+                return new HashMap<K, V>();
+            }
+
+            @Override
+            public Map<K, V> apply(Map<K, V> result, K key, V value, AtomicBoolean reduced) {
+                result.put(key, value);
+                return result;
+            }
+        };
+    }
+
+    // *** concurrent transducers
+
+    /**
+     * Creates a transducer that splits a pipeline between two threads: the stages
+     * before it, and the source, run on the calling thread, and the stages after it,
+     * and the reducing function, run on a worker thread of the reducing function the
+     * transducer is applied to. Inputs are handed across in batches through a
+     * lock-free single-producer single-consumer ring, and each thread waits for the
+     * other as the wait strategy says. Reduced is passed back to the calling thread at
+     * its next handoff, so the result is the same as without the boundary. The
+     * intermediate results seen by stages before the boundary are just the initial
+     * result; the completed result is only returned by completion, which waits for
+     * the worker. The worker retires once it has been idle for a millisecond and is
+     * restarted by the next handoff, so a reduction abandoned before completion
+     * leaves no thread behind. Ticks, checkpoints and restores are passed on to the
+     * stages after the boundary once the worker has caught up.
+     * @param batchSize the number of inputs handed across at a time
+     * @param capacity the number of inputs the ring holds
+     * @param wait how each thread waits for the other
+     * @param <A> input type of input and output reducing functions
+     * @return a new transducer
+     */
+    public static <A> ITransducer<A, A> asyncBoundary(final int batchSize, final int capacity, final WaitStrategy wait) {
+        return new ATransducer<A, A>() {
+            @Override
+            public <R> IReducingFunction<R, A> apply(IReducingFunction<R, ? super A> rf) {
+                return new AsyncBoundary<R, A>(rf, batchSize, capacity, wait);
+            }
+
+            @Override
+            public SizeHint sizeHint(SizeHint input) {
+                return input;
+            }
+        };
+    }
+
+    /**
+     * Creates a transducer like take whose state can be shared by multiple
+     * producer threads stepping the same reducing function. Exactly n inputs
+     * are processed no matter how many threads are stepping; the reducing
+     * function being chained to must itself be safe for concurrent use (see
+     * concurrentSink).
+     * @param n the number of inputs to process
+     * @param <A> input type of input and output reducing functions
+     * @return a new transducer
+     */
+    public static <A> ITransducer<A, A> concurrentTake(final long n) {
+        return new ATransducer<A, A>() {
+            @Override
+            public <R> IReducingFunction<R, A> apply(IReducingFunction<R, ? super A> rf) {
+                return new AReducingFunctionOn<R, A, A>(rf) {
+                    final AtomicLong taken = new AtomicLong();
+                    @Override
+                    public R apply(R result, A input, AtomicBoolean reduced) {
+                        // read before incrementing so the counter can't overflow once the limit is hit
+                        if (taken.get() < n && taken.getAndIncrement() < n)
+                            return rf.apply(result, input, reduced);
+                        reduced.set(true);
+                        return result;
+                    }
+
+                    @Override
+                    public void snapshot(DataOutput out) throws IOException {
+                        out.writeLong(taken.get());
+                        super.snapshot(out);
+                    }
+
+                    @Override
+                    public void restore(DataInput in) throws IOException {
+                        taken.set(in.readLong());
+                        super.restore(in);
+                    }
+                };
+            }
+
+            @Override
+            public SizeHint sizeHint(SizeHint input) {
+                return input.limit(n);
+            }
+        };
+    }
+
+    /**
+     * Creates a transducer like drop whose state can be shared by multiple
+     * producer threads stepping the same reducing function. Exactly n inputs
+     * are skipped no matter how many threads are stepping; the reducing
+     * function being chained to must itself be safe for concurrent use.
+     * @param n the number of inputs to skip
+     * @param <A> input type of input and output reducing functions
+     * @return a new transducer
+     */
+    public static <A> ITransducer<A, A> concurrentDrop(final long n) {
+        return new ATransducer<A, A>() {
+            @Override
+            public <R> IReducingFunction<R, A> apply(IReducingFunction<R,? super A> rf) {
+                return new AReducingFunctionOn<R, A, A>(rf) {
+                    final AtomicLong dropped = new AtomicLong();
+                    @Override
+                    public R apply(R result, A input, AtomicBoolean reduced) {
+                        if (dropped.get() < n && dropped.getAndIncrement() < n)
+                            return result;
+                        return rf.apply(result, input, reduced);
+                    }
+
+                    @Override
+                    public void snapshot(DataOutput out) throws IOException {
+                        out.writeLong(dropped.get());
+                        super.snapshot(out);
+                    }
+
+                    @Override
+                    public void restore(DataInput in) throws IOException {
+                        dropped.set(in.readLong());
+                        super.restore(in);
+                    }
+                };
+            }
+
+            @Override
+            public SizeHint sizeHint(SizeHint input) {
+                return input.skip(n);
+            }
+        };
+    }
+
+    /**
+     * Creates a transducer like takeNth whose state can be shared by multiple
+     * producer threads stepping the same reducing function. Every nth input,
+     * in the order in which the threads arrive, is processed.
+     * @param n The frequence of inputs to process (e.g., 3 processes every third input).
+     * @param <A> The input type of the input and output reducing functions
+     * @return a new transducer
+     */
+    public static <A> ITransducer<A, A> concurrentTakeNth(final long n) {
+        return new ATransducer<A, A>() {
+            @Override
+            public <R> IReducingFunction<R, A> apply(IReducingFunction<R, ? super A> rf) {
+                return new AReducingFunctionOn<R, A, A>(rf) {
+                    final AtomicLong nth = new AtomicLong();
+                    @Override
+                    public R apply(R result, A input, AtomicBoolean reduced) {
+                        return ((nth.getAndIncrement() % n) == 0) ? rf.apply(result, input, reduced) : result;
+                    }
+
+                    @Override
+                    public void snapshot(DataOutput out) throws IOException {
+                        out.writeLong(nth.get());
+                        super.snapshot(out);
+                    }
+
+                    @Override
+                    public void restore(DataInput in) throws IOException {
+                        nth.set(in.readLong());
+                        super.restore(in);
+                    }
+                };
+            }
+
+            @Override
+            public SizeHint sizeHint(SizeHint input) {
+                return input.groups(n);
+            }
+        };
+    }
+
+    /**
+     * Creates a transducer like keepIndexed whose state can be shared by multiple
+     * producer threads stepping the same reducing function. Each input is given
+     * a distinct index, in the order in which the threads arrive.
+     * @param f a function for processing inputs
+     * @param <A> the input type of the input and output reducing functions
+     * @return a new transducer
+     */
+    public static <A> ITransducer<A, A> concurrentKeepIndexed(final BiFunction<Long, A, A> f) {
+        return new ATransducer<A, A>() {
+            @Override
+            public <R> IReducingFunction<R, A> apply(IReducingFunction<R, ? super A> rf) {
+                return new AReducingFunctionOn<R, A, A>(rf) {
+                    final AtomicLong n = new AtomicLong();
+                    @Override
+                    public R apply(R result, A input, AtomicBoolean reduced) {
+                        A _input = f.apply(n.incrementAndGet(), input);
+                        if (_input != null)
+                            return rf.apply(result, _input, reduced);
+                        return result;
+                    }
+
+                    @Override
+                    public void snapshot(DataOutput out) throws IOException {
+                        out.writeLong(n.get());
+                        super.snapshot(out);
+                    }
+
+                    @Override
+                    public void restore(DataInput in) throws IOException {
+                        n.set(in.readLong());
+                        super.restore(in);
+                    }
+                };
+            }
+
+            @Override
+            public SizeHint sizeHint(SizeHint input) {
+                return input.atMost();
+            }
+        };
+    }
+
+    /**
+     * Creates a transducer like dedupe whose state can be shared by multiple
+     * producer threads stepping the same reducing function. Consecutive is
+     * defined by the order in which the threads arrive.
+     * @param <A> the input type of the input and output reducing functions
+     * @return a new transducer
+     */
+    public static <A> ITransducer<A, A> concurrentDedupe() {
+        return new ATransducer<A, A>() {
+            @Override
+            public <R> IReducingFunction<R, A> apply(IReducingFunction<R, ? super A> rf) {
+                return new AReducingFunctionOn<R, A, A>(rf) {
+                    final AtomicReference<A> prior = new AtomicReference<A>();
+                    // a restored prior is a copy, so the next input is compared with equals
+                    volatile boolean restored = false;
+                    @Override
+                    public R apply(R result, A input, AtomicBoolean reduced) {
+                        A p = prior.getAndSet(input);
+                        boolean same = (p == input) || (restored && input != null && input.equals(p));
+                        if (restored)
+                            restored = false;
+                        return same ? result : rf.apply(result, input, reduced);
+                    }
+
+                    @Override
+                    public void snapshot(DataOutput out) throws IOException {
+                        Codecs.<A>serializable().write(prior.get(), out);
+                        super.snapshot(out);
+                    }
+
+                    @Override
+                    public void restore(DataInput in) throws IOException {
+                        prior.set(Codecs.<A>serializable().read(in));
+                        restored = true;
+                        super.restore(in);
+                    }
+                };
+            }
+
+            @Override
+            public SizeHint sizeHint(SizeHint input) {
+                return input.atMost();
+            }
+        };
+    }
+
+    // the number of inputs a producer thread buffers before feeding them to the sink's reducing function
+    private static final int SINK_BUFFER = 1024;
+
+    /**
+     * Creates a reducing function that can be stepped by multiple producer
+     * threads at once. Each thread appends its inputs to a buffer of its own,
+     * so most steps take no lock. Once a thread has buffered 1024 inputs, it
+     * feeds them to the given reducing function under a lock, so memory stays
+     * bounded by the number of producer threads. Inputs reach the reducing
+     * function in arrival order per thread, in batches interleaved between
+     * threads. Steps return the result they are given unchanged; the result
+     * given to the first step that feeds a batch, or else to completion, is the
+     * initial result of the reducing function, and producers must all pass the
+     * same one. Once the reducing function sets reduced, later batches are
+     * dropped, and each producer sees reduced set at its next batch. The
+     * completion arity, which must be called once after all producers have
+     * finished, feeds the inputs still buffered and completes the reducing
+     * function, returning its result. A checkpoint includes the result reduced so
+     * far and the buffered inputs; no producer may step while it is taken or
+     * restored.
+     * @param rf the reducing function to feed
+     * @param <R> the result type
+     * @param <T> the input type
+     * @return a new reducing function
+     */
+    public static <R, T> IReducingFunction<R, T> concurrentSink(final IReducingFunction<R, ? super T> rf) {
+        return new AReducingFunctionOn<R, T, T>(rf) {
+            final ConcurrentLinkedQueue<List<T>> buffers = new ConcurrentLinkedQueue<List<T>>();
+            final ThreadLocal<List<T>> buffer = new ThreadLocal<List<T>>() {
+                @Override
+                protected List<T> initialValue() {
+                    List<T> ret = new ArrayList<T>();
+                    buffers.add(ret);
+                    return ret;
+                }
+            };
+            final AtomicBoolean stopped = new AtomicBoolean();
+            boolean started = false;
+            R acc;
+
+            // feeds a batch to rf; callers hold the lock on this
+            private void feed(R result, List<T> batch) {
+                if (!started) {
+                    acc = result;
+                    started = true;
+                }
+                for (int i = 0; i < batch.size() && !stopped.get(); i++) {
+                    acc = rf.apply(acc, batch.get(i), stopped);
+                }
+                batch.clear();
+            }
+
+            @Override
+            public R apply(R result, T input, AtomicBoolean reduced) {
+                List<T> b = buffer.get();
+                b.add(input);
+                if (b.size() >= SINK_BUFFER) {
+                    synchronized (this) {
+                        feed(result, b);
+                    }
+                    if (stopped.get())
+                        reduced.set(true);
+                }
+                return result;
+            }
+
+            @Override
+            public synchronized R apply(R result) {
+                for (List<T> b : buffers) {
+                    feed(result, b);
+                }
+                if (!started)
+                    acc = result;
+                return rf.apply(acc);
+            }
+
+            @Override
+            public synchronized void snapshot(DataOutput out) throws IOException {
+                out.writeBoolean(started);
+                if (started)
+                    Codecs.serializable().write(acc, out);
+                out.writeBoolean(stopped.get());
+                List<T> pending = new ArrayList<T>();
+                for (List<T> b : buffers) {
+                    pending.addAll(b);
+                }
+                Impl.writeAll(pending, null, out);
+                super.snapshot(out);
+            }
+
+            @Override
+            @SuppressWarnings("unchecked")
+            public synchronized void restore(DataInput in) throws IOException {
+                started = in.readBoolean();
+                acc = started ? (R) Codecs.serializable().read(in) : null;
+                stopped.set(in.readBoolean());
+                for (List<T> b : buffers) {
+                    b.clear();
+                }
+                // the buffered inputs go to the restoring thread, to be fed at its next full buffer
+                Impl.readAll(buffer.get(), null, in);
+                super.restore(in);
+            }
+        };
+    }
+
+    // *** sketching reducing functions
+
+    /**
+     * Creates a reducing function that estimates the number of distinct inputs
+     * with a HyperLogLog sketch. The zero-arity apply creates an empty sketch.
+     * @param precision the number of bits used to select a register, from 4 to 18
+     * @param <T> the input type
+     * @return a new reducing function
+     */
+    public static <T> IReducingFunction<HyperLogLog, T> hyperLogLog(final int precision) {
+        return new AReducingFunction<HyperLogLog, T>() {
+            @Override
+            public HyperLogLog apply() {
+                return new HyperLogLog(precision);
+            }
+
+            @Override
+            public HyperLogLog apply(HyperLogLog result, T input, AtomicBoolean reduced) {
+                return result.add(input);
+            }
+        };
+    }
+
+    /**
+     * Creates a reducing function that estimates the frequency of each input
+     * with a Count-Min sketch. The zero-arity apply creates an empty sketch.
+     * @param width the number of counters per row
+     * @param depth the number of rows
+     * @param <T> the input type
+     * @return a new reducing function
+     */
+    public static <T> IReducingFunction<CountMinSketch, T> countMin(final int width, final int depth) {
+        return new AReducingFunction<CountMinSketch, T>() {
+            @Override
+            public CountMinSketch apply() {
+                return new CountMinSketch(width, depth);
+            }
+
+            @Override
+            public CountMinSketch apply(CountMinSketch result, T input, AtomicBoolean reduced) {
+                return result.add(input);
+            }
+        };
+    }
+
+    /**
+     * Creates a reducing function that tracks the most frequent inputs with
+     * a Misra-Gries summary of k counters. The zero-arity apply creates an
+     * empty summary.
+     * @param k the number of counters
+     * @param <T> the input type
+     * @return a new reducing function
+     */
+    public static <T> IReducingFunction<HeavyHitters<T>, T> heavyHitters(final int k) {
+        return new AReducingFunction<HeavyHitters<T>, T>() {
+            @Override
+            public HeavyHitters<T> apply() {
+                return new HeavyHitters<T>(k);
+            }
+
+            @Override
+            public HeavyHitters<T> apply(HeavyHitters<T> result, T input, AtomicBoolean reduced) {
+                return result.add(input);
+            }
+        };
+    }
+
+    /**
+     * Creates a reducing function that estimates quantiles of numeric inputs
+     * with a KLL sketch. The zero-arity apply creates an empty sketch.
+     * @param k the capacity of the top level of the sketch, at least 8
+     * @param <T> the input type
+     * @return a new reducing function
+     */
+    public static <T extends Number> IReducingFunction<QuantileSketch, T> quantiles(final int k) {
+        return new AReducingFunction<QuantileSketch, T>() {
+            @Override
+            public QuantileSketch apply() {
+                return new QuantileSketch(k);
+            }
+
+            @Override
+            public QuantileSketch apply(QuantileSketch result, T input, AtomicBoolean reduced) {
+                return result.add(input.doubleValue());
+            }
+        };
+    }
+
+    // *** off-heap reducing functions
+
+    /**
+     * Creates a reducing function that appends the long value of each input to
+     * an OffHeapLongs, keeping the values out of the heap. The zero-arity apply
+     * creates an empty sequence.
+     * @param <T> the input type
+     * @return a new reducing function
+     */
+    public static <T extends Number> IReducingFunction<OffHeapLongs, T> offHeapLongs() {
+        return offHeapLongs(new ToLongFunction<T>() {
+            @Override
+            public long applyAsLong(T t) {
+                return t.longValue();
+            }
+        });
+    }
+
+    /**
+     * Like offHeapLongs, appending the value a function returns for each input.
+     * @param f a function returning the value to append for an input
+     * @param <T> the input type
+     * @return a new reducing function
+     */
+    public static <T> IReducingFunction<OffHeapLongs, T> offHeapLongs(final ToLongFunction<T> f) {
+        return new AReducingFunction<OffHeapLongs, T>() {
+            @Override
+            public OffHeapLongs apply() {
+                return new OffHeapLongs();
+            }
+
+            @Override
+            public OffHeapLongs apply(OffHeapLongs result, T input, AtomicBoolean reduced) {
+                result.append(f.applyAsLong(input));
+                return result;
+            }
+        };
+    }
+
+    /**
+     * Creates a reducing function that appends the double value of each input to
+     * an OffHeapDoubles, keeping the values out of the heap. The zero-arity apply
+     * creates an empty sequence.
+     * @param <T> the input type
+     * @return a new reducing function
+     */
+    public static <T extends Number> IReducingFunction<OffHeapDoubles, T> offHeapDoubles() {
+        return offHeapDoubles(new ToDoubleFunction<T>() {
+            @Override
+            public double applyAsDouble(T t) {
+                return t.doubleValue();
+            }
+        });
+    }
+
+    /**
+     * Like offHeapDoubles, appending the value a function returns for each input.
+     * @param f a function returning the value to append for an input
+     * @param <T> the input type
+     * @return a new reducing function
+     */
+    public static <T> IReducingFunction<OffHeapDoubles, T> offHeapDoubles(final ToDoubleFunction<T> f) {
+        return new AReducingFunction<OffHeapDoubles, T>() {
+            @Override
+            public OffHeapDoubles apply() {
+                return new OffHeapDoubles();
+            }
+
+            @Override
+            public OffHeapDoubles apply(OffHeapDoubles result, T input, AtomicBoolean reduced) {
+                result.append(f.applyAsDouble(input));
+                return result;
+            }
+        };
+    }
+
+    /**
+     * Creates a reducing function that writes each input as a fixed-width record
+     * to an OffHeapStructs, keeping the records out of the heap. The zero-arity
+     * apply creates an empty sequence.
+     * @param layout the binary layout of each record
+     * @param <T> the input type
+     * @return a new reducing function
+     */
+    public static <T> IReducingFunction<OffHeapStructs<T>, T> offHeapStructs(final IStructLayout<T> layout) {
+        return new AReducingFunction<OffHeapStructs<T>, T>() {
+            @Override
+            public OffHeapStructs<T> apply() {
+                return new OffHeapStructs<T>(layout);
+            }
+
+            @Override
+            public OffHeapStructs<T> apply(OffHeapStructs<T> result, T input, AtomicBoolean reduced) {
+                result.append(input);
+                return result;
+            }
         };
     }
 }
@@ -0,0 +1,51 @@
+// Copyright 2014 Cognitect. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS-IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.cognitect.transducers;
+
+/**
+ * 64-bit hashing of inputs for the sketches. Integral numbers, doubles and
+ * character sequences are hashed from their contents so they use all 64 bits;
+ * other objects are hashed from their 32-bit hashCode.
+ */
+final class Hashing {
+
+    private Hashing() {}
+
+    static long hash64(long l) {
+        return SplitMix64.mix64(l + 0x9e3779b97f4a7c15L);
+    }
+
+    static long hash64(double d) {
+        return hash64(Double.doubleToLongBits(d == 0.0 ? 0.0 : d));
+    }
+
+    static long hash64(Object o) {
+        if (o == null)
+            return hash64(0L);
+        if (o instanceof Long || o instanceof Integer || o instanceof Short || o instanceof Byte)
+            return hash64(((Number) o).longValue());
+        if (o instanceof Double || o instanceof Float)
+            return hash64(((Number) o).doubleValue());
+        if (o instanceof CharSequence) {
+            CharSequence cs = (CharSequence) o;
+            long h = 0xcbf29ce484222325L;
+            for (int i = 0; i < cs.length(); i++) {
+                h = (h ^ cs.charAt(i)) * 0x100000001b3L;
+            }
+            return SplitMix64.mix64(h ^ cs.length());
+        }
+        return hash64((long) o.hashCode());
+    }
+}
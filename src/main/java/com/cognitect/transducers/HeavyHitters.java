@@ -0,0 +1,267 @@
+// Copyright 2014 Cognitect. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS-IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.cognitect.transducers;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A Misra-Gries summary tracking the most frequent values added to it with k
+ * counters, of which up to 2k are kept between amortized prunes. Every value
+ * that makes up more than 1/(k+1) of the total is kept, and each kept count
+ * undercounts by at most total/(k+1). Summaries with the same k can be merged,
+ * and can be written to and read from a compact binary form given a codec for
+ * the values.
+ * @param <T> the type of value counted
+ */
+public class HeavyHitters<T> {
+
+    private static final byte VERSION = 1;
+
+    private final int k;
+    // up to 2k counters are kept between prunes, so that a prune, which
+    // brings them back down to k, happens at most once every k new values
+    private final Object[] items;
+    private final long[] counts;
+    private final long[] scratch;
+    private final Map<Object, Integer> slots;
+    private int size = 0;
+    private long total = 0;
+
+    /**
+     * Creates an empty summary.
+     * @param k the number of counters
+     */
+    public HeavyHitters(int k) {
+        if (k < 1)
+            throw new IllegalArgumentException("k must be positive: " + k);
+        this.k = k;
+        this.items = new Object[2 * k];
+        this.counts = new long[2 * k];
+        this.scratch = new long[2 * k];
+        this.slots = new HashMap<Object, Integer>(4 * k);
+    }
+
+    /**
+     * @return the number of counters
+     */
+    public int k() {
+        return k;
+    }
+
+    /**
+     * @return the sum of all counts added
+     */
+    public long total() {
+        return total;
+    }
+
+    private void addCount(Object item, long count) {
+        Integer slot = slots.get(item);
+        if (slot != null) {
+            counts[slot] += count;
+        } else {
+            if (size == counts.length)
+                prune();
+            items[size] = item;
+            counts[size] = count;
+            slots.put(item, size);
+            size++;
+        }
+    }
+
+    /**
+     * Subtracts the (k+1)th largest count from every counter, dropping those
+     * that reach zero, so that at most k counters remain.
+     */
+    private void prune() {
+        if (size <= k)
+            return;
+        System.arraycopy(counts, 0, scratch, 0, size);
+        long cut = select(scratch, size, size - k - 1);
+        int kept = 0;
+        slots.clear();
+        for (int i = 0; i < size; i++) {
+            long c = counts[i] - cut;
+            if (c > 0) {
+                items[kept] = items[i];
+                counts[kept] = c;
+                slots.put(items[kept], kept);
+                kept++;
+            }
+        }
+        for (int i = kept; i < size; i++) {
+            items[i] = null;
+        }
+        size = kept;
+    }
+
+    /**
+     * Quickselect: reorders the first n values of a and returns the one
+     * that would be at index i were they sorted ascending.
+     */
+    private static long select(long[] a, int n, int i) {
+        int lo = 0, hi = n - 1;
+        while (lo < hi) {
+            long pivot = a[(lo + hi) >>> 1];
+            int l = lo, r = hi;
+            while (l <= r) {
+                while (a[l] < pivot) l++;
+                while (a[r] > pivot) r--;
+                if (l <= r) {
+                    long t = a[l];
+                    a[l++] = a[r];
+                    a[r--] = t;
+                }
+            }
+            if (i <= r)
+                hi = r;
+            else if (i >= l)
+                lo = l;
+            else
+                return a[i];
+        }
+        return a[i];
+    }
+
+    /**
+     * Adds one occurrence of a value.
+     * @param item the value to add
+     * @return this summary
+     */
+    public HeavyHitters<T> add(T item) {
+        addCount(item, 1);
+        total++;
+        return this;
+    }
+
+    /**
+     * @param item a value
+     * @return a lower bound of how often the value was added, which is too
+     * low by at most total/(k+1)
+     */
+    public long count(T item) {
+        Integer slot = slots.get(item);
+        return (slot == null) ? 0 : counts[slot];
+    }
+
+    /**
+     * @return at most k tracked values, most frequent first
+     */
+    @SuppressWarnings("unchecked")
+    public List<T> items() {
+        int[] order = new int[size];
+        for (int i = 0; i < size; i++) {
+            order[i] = i;
+        }
+        sortByCount(order, new int[size], 0, size);
+        int n = Math.min(size, k);
+        List<T> ret = new ArrayList<T>(n);
+        for (int i = 0; i < n; i++) {
+            ret.add((T) items[order[i]]);
+        }
+        return ret;
+    }
+
+    // stable merge sort of slot indexes by descending count
+    private void sortByCount(int[] a, int[] tmp, int from, int to) {
+        if (to - from < 2)
+            return;
+        int mid = (from + to) >>> 1;
+        sortByCount(a, tmp, from, mid);
+        sortByCount(a, tmp, mid, to);
+        System.arraycopy(a, from, tmp, from, to - from);
+        int l = from, r = mid;
+        for (int i = from; i < to; i++) {
+            if (r >= to || (l < mid && counts[tmp[l]] >= counts[tmp[r]]))
+                a[i] = tmp[l++];
+            else
+                a[i] = tmp[r++];
+        }
+    }
+
+    /**
+     * Merges another summary into this one, so that this summary tracks the
+     * values added to either.
+     * @param other a summary with the same k
+     * @return this summary
+     */
+    public HeavyHitters<T> merge(HeavyHitters<? extends T> other) {
+        if (other.k != k)
+            throw new IllegalArgumentException("k mismatch: " + k + " != " + other.k);
+        for (int i = 0; i < other.size; i++) {
+            addCount(other.items[i], other.counts[i]);
+        }
+        total += other.total;
+        return this;
+    }
+
+    /**
+     * @param codec writes the tracked values
+     * @return the summary in binary form
+     */
+    @SuppressWarnings("unchecked")
+    public byte[] toBytes(IElementCodec<? super T> codec) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeByte(VERSION);
+            out.writeInt(k);
+            out.writeLong(total);
+            out.writeInt(size);
+            for (int i = 0; i < size; i++) {
+                codec.write((T) items[i], out);
+                out.writeLong(counts[i]);
+            }
+            out.flush();
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Reads a summary written by toBytes.
+     * @param bytes the summary in binary form
+     * @param codec reads the tracked values
+     * @param <T> the type of value counted
+     * @return a new summary
+     */
+    public static <T> HeavyHitters<T> fromBytes(byte[] bytes, IElementCodec<? extends T> codec) {
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+            if (in.readByte() != VERSION)
+                throw new IllegalArgumentException("unknown HeavyHitters version");
+            HeavyHitters<T> ret = new HeavyHitters<T>(in.readInt());
+            ret.total = in.readLong();
+            int n = in.readInt();
+            if (n > 2 * ret.k)
+                throw new IllegalArgumentException("malformed HeavyHitters");
+            for (int i = 0; i < n; i++) {
+                ret.addCount(codec.read(in), in.readLong());
+            }
+            return ret;
+        } catch (IOException e) {
+            throw new IllegalArgumentException("truncated HeavyHitters", e);
+        }
+    }
+}
@@ -0,0 +1,171 @@
+// Copyright 2014 Cognitect. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS-IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.cognitect.transducers;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * A HyperLogLog sketch estimating the number of distinct values added to it
+ * in 2^precision bytes of memory, with a standard error of about
+ * 1.04 / sqrt(2^precision). Sketches with the same precision can be merged,
+ * and can be written to and read from a compact binary form.
+ */
+public class HyperLogLog {
+
+    private static final byte VERSION = 1;
+
+    private final int precision;
+    private final byte[] registers;
+
+    /**
+     * Creates an empty sketch.
+     * @param precision the number of bits used to select a register, from 4 to 18
+     */
+    public HyperLogLog(int precision) {
+        if (precision < 4 || precision > 18)
+            throw new IllegalArgumentException("precision must be between 4 and 18: " + precision);
+        this.precision = precision;
+        this.registers = new byte[1 << precision];
+    }
+
+    /**
+     * @return the number of bits used to select a register
+     */
+    public int precision() {
+        return precision;
+    }
+
+    private void addHash(long hash) {
+        int idx = (int) (hash >>> (64 - precision));
+        // the guard bit bounds the rank when the remaining bits are all zero
+        long w = (hash << precision) | (1L << (precision - 1));
+        byte rank = (byte) (Long.numberOfLeadingZeros(w) + 1);
+        if (rank > registers[idx])
+            registers[idx] = rank;
+    }
+
+    /**
+     * Adds a value.
+     * @param value the value to add
+     * @return this sketch
+     */
+    public HyperLogLog add(Object value) {
+        addHash(Hashing.hash64(value));
+        return this;
+    }
+
+    /**
+     * Adds a primitive long value; equal to adding the boxed value.
+     * @param value the value to add
+     * @return this sketch
+     */
+    public HyperLogLog add(long value) {
+        addHash(Hashing.hash64(value));
+        return this;
+    }
+
+    /**
+     * Adds every value in an array.
+     * @param values the values to add
+     * @return this sketch
+     */
+    public HyperLogLog addAll(long[] values) {
+        for (long v : values) {
+            addHash(Hashing.hash64(v));
+        }
+        return this;
+    }
+
+    /**
+     * Adds every value in an int array; equal to adding the values as longs.
+     * @param values the values to add
+     * @return this sketch
+     */
+    public HyperLogLog addAll(int[] values) {
+        for (int v : values) {
+            addHash(Hashing.hash64(v));
+        }
+        return this;
+    }
+
+    /**
+     * @return the estimated number of distinct values added
+     */
+    public long estimate() {
+        int m = registers.length;
+        double sum = 0;
+        int zeros = 0;
+        for (byte r : registers) {
+            sum += 1.0 / (1L << r);
+            if (r == 0)
+                zeros++;
+        }
+        double alpha;
+        switch (m) {
+            case 16: alpha = 0.673; break;
+            case 32: alpha = 0.697; break;
+            case 64: alpha = 0.709; break;
+            default: alpha = 0.7213 / (1 + 1.079 / m);
+        }
+        double e = alpha * m * m / sum;
+        if (e <= 2.5 * m && zeros > 0)
+            e = m * Math.log((double) m / zeros);
+        return Math.round(e);
+    }
+
+    /**
+     * Merges another sketch into this one, so that this sketch estimates the
+     * distinct values added to either.
+     * @param other a sketch with the same precision
+     * @return this sketch
+     */
+    public HyperLogLog merge(HyperLogLog other) {
+        if (other.precision != precision)
+            throw new IllegalArgumentException("precision mismatch: " + precision + " != " + other.precision);
+        for (int i = 0; i < registers.length; i++) {
+            if (other.registers[i] > registers[i])
+                registers[i] = other.registers[i];
+        }
+        return this;
+    }
+
+    /**
+     * @return the sketch in binary form
+     */
+    public byte[] toBytes() {
+        ByteBuffer buf = ByteBuffer.allocate(2 + registers.length);
+        buf.put(VERSION).put((byte) precision).put(registers);
+        return buf.array();
+    }
+
+    /**
+     * Reads a sketch written by toBytes.
+     * @param bytes the sketch in binary form
+     * @return a new sketch
+     */
+    public static HyperLogLog fromBytes(byte[] bytes) {
+        try {
+            ByteBuffer buf = ByteBuffer.wrap(bytes);
+            if (buf.get() != VERSION)
+                throw new IllegalArgumentException("unknown HyperLogLog version");
+            HyperLogLog ret = new HyperLogLog(buf.get());
+            buf.get(ret.registers);
+            return ret;
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("truncated HyperLogLog", e);
+        }
+    }
+}
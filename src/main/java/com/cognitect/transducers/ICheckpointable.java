@@ -0,0 +1,43 @@
+// Copyright 2014 Cognitect. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS-IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.cognitect.transducers;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * A reducing function whose state can be written out and later restored, so
+ * that a long-running reduction can be checkpointed and resumed. Chained
+ * reducing functions write their own state followed by the state of the
+ * function they chain to, so the state of a whole chain built by
+ * ITransducer.apply is captured by the outermost function.
+ */
+public interface ICheckpointable {
+    /**
+     * Writes the current state.
+     * @param out the output to write to
+     * @throws IOException if the output fails
+     */
+    void snapshot(DataOutput out) throws IOException;
+
+    /**
+     * Replaces the current state with state written by snapshot on a
+     * reducing function built the same way.
+     * @param in the input to read from
+     * @throws IOException if the input fails
+     */
+    void restore(DataInput in) throws IOException;
+}
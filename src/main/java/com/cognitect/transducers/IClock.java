@@ -0,0 +1,39 @@
+// Copyright 2014 Cognitect. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS-IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.cognitect.transducers;
+
+/**
+ * A source of time for stages that flush on a deadline, so that tests can
+ * supply a ManualClock instead of the system clock.
+ */
+public interface IClock {
+
+    /**
+     * The system clock, backed by System.nanoTime.
+     */
+    IClock SYSTEM = new IClock() {
+        @Override
+        public long nanoTime() {
+            return System.nanoTime();
+        }
+    };
+
+    /**
+     * Returns the current time in nanoseconds. Like System.nanoTime, the value
+     * is only meaningful relative to other values from the same clock.
+     * @return the current time
+     */
+    long nanoTime();
+}
@@ -0,0 +1,41 @@
+// Copyright 2014 Cognitect. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS-IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.cognitect.transducers;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Writes values of a type to a binary form and reads them back.
+ * @param <T> type of value
+ */
+public interface IElementCodec<T> {
+    /**
+     * Writes a value.
+     * @param t the value to write
+     * @param out the output to write to
+     * @throws IOException if the output fails
+     */
+    void write(T t, DataOutput out) throws IOException;
+
+    /**
+     * Reads a value written by write.
+     * @param in the input to read from
+     * @return the value read
+     * @throws IOException if the input fails
+     */
+    T read(DataInput in) throws IOException;
+}
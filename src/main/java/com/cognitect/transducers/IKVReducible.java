@@ -0,0 +1,39 @@
+// Copyright 2014 Cognitect. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS-IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.cognitect.transducers;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A map that can reduce its own key/value pairs more efficiently than by
+ * iterating its entry set, for instance because it stores keys and values
+ * in arrays and has no entry objects to hand out. Fns.reduceKV and
+ * Fns.transduceKV use this in place of iteration for maps that implement it.
+ * @param <K> the type of each key
+ * @param <V> the type of each value
+ */
+public interface IKVReducible<K, V> {
+    /**
+     * Applies the reducing function to the result and each key and value, stopping
+     * early if the reducing function sets reduced. Does not call the completion
+     * arity of the reducing function.
+     * @param rf a key/value reducing function
+     * @param result an initial result value
+     * @param reduced a boolean flag that can be set to stop the reduction
+     * @param <R> the type of the result
+     * @return the result after the last pair reduced
+     */
+    <R> R reduceKV(IKVReducingFunction<R, ? super K, ? super V> rf, R result, AtomicBoolean reduced);
+}
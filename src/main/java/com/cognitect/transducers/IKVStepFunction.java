@@ -0,0 +1,38 @@
+// Copyright 2014 Cognitect. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS-IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.cognitect.transducers;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A reducing step function over key/value pairs, stepped with the key and the
+ * value as separate arguments so that no pair object is needed to carry them.
+ * @param <R> Type of first argument and return value
+ * @param <K> Type of key to reduce
+ * @param <V> Type of value to reduce
+ */
+public interface IKVStepFunction<R, K, V> {
+    /**
+     * Applies the reducing function to the current result and
+     * the next key and value, returning a new result.
+     * @param result The current result value
+     * @param key New key to process
+     * @param value New value to process
+     * @param reduced A boolean value which can be set to true
+     *                to stop the reduction process
+     * @return A new result value
+     */
+    public R apply(R result, K key, V value, AtomicBoolean reduced);
+}
@@ -0,0 +1,46 @@
+// Copyright 2014 Cognitect. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS-IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.cognitect.transducers;
+
+/**
+ * A transducer over key/value pairs, transforming a key/value reducing
+ * function of one key and value type into one of another.
+ * @param <J> The key type processed by an input process
+ * @param <W> The value type processed by an input process
+ * @param <K> The key type processed by the transduced process
+ * @param <V> The value type processed by the transduced process
+ */
+public interface IKVTransducer<J, W, K, V> {
+    /**
+     * Transforms a key/value reducing function of J and W into one of K and V.
+     * @param rf The input reducing function
+     * @param <R> The result type of both the input and the output
+     *           reducing functions
+     * @return The transformed reducing function
+     */
+    <R> IKVReducingFunction<R, K, V> apply(IKVReducingFunction<R, ? super J, ? super W> rf);
+
+    /**
+     * Composes a transducer with another transducer, yielding
+     * a new transducer.
+     * @param right the transducer to compose with this transducer
+     * @param <I> the key type processed by the reducing function
+     *           the composed transducer returns when applied
+     * @param <U> the value type processed by the reducing function
+     *           the composed transducer returns when applied
+     * @return A new composite transducer
+     */
+    <I, U> IKVTransducer<I, U, K, V> comp(IKVTransducer<I, U, ? super J, ? super W> right);
+}
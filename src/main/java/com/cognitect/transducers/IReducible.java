@@ -0,0 +1,39 @@
+// Copyright 2014 Cognitect. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS-IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.cognitect.transducers;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A source that can reduce itself, or a range of itself, more efficiently than
+ * by iteration. Transducing over an IReducible lets the source apply any
+ * leading drop and take stages by jumping to the range they select.
+ * @param <T> the type of each item in the source
+ */
+public interface IReducible<T> extends Iterable<T> {
+    /**
+     * Applies the reducing function to the result and each item in a range of this
+     * source, in order, stopping early if the reducing function sets reduced. Does
+     * not call the completion arity of the reducing function.
+     * @param rf a reducing function
+     * @param result an initial result value
+     * @param offset the number of items to skip
+     * @param limit the maximum number of items to reduce after those skipped
+     * @param reduced a boolean flag that can be set to stop the reduction
+     * @param <R> the type of the result
+     * @return the result after the last item reduced
+     */
+    <R> R reduce(IReducingFunction<R, ? super T> rf, R result, long offset, long limit, AtomicBoolean reduced);
+}
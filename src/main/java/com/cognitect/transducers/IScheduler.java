@@ -0,0 +1,28 @@
+// Copyright 2014 Cognitect. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS-IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.cognitect.transducers;
+
+/**
+ * A clock that can run a task once a given time is reached. A Sink uses one
+ * to flush timed stages while no input is arriving.
+ */
+public interface IScheduler extends IClock {
+    /**
+     * Arranges for a task to run, on some thread, once nanoTime reaches a time.
+     * @param task the task to run
+     * @param atNanos the time to run it at, in terms of nanoTime
+     */
+    void schedule(Runnable task, long atNanos);
+}
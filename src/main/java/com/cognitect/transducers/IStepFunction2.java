@@ -0,0 +1,38 @@
+// Copyright 2014 Cognitect. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS-IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.cognitect.transducers;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A reducing step function over two aligned inputs, stepped with one value
+ * from each input at a time.
+ * @param <R> Type of first argument and return value
+ * @param <A> Type of first input to reduce
+ * @param <B> Type of second input to reduce
+ */
+public interface IStepFunction2<R, A, B> {
+    /**
+     * Applies the reducing function to the current result and
+     * the next value of each input, returning a new result.
+     * @param result The current result value
+     * @param a New value of the first input
+     * @param b New value of the second input
+     * @param reduced A boolean value which can be set to true
+     *                to stop the reduction process
+     * @return A new result value
+     */
+    public R apply(R result, A a, B b, AtomicBoolean reduced);
+}
@@ -0,0 +1,46 @@
+// Copyright 2014 Cognitect. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS-IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.cognitect.transducers;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The fixed-width binary layout of values of a type, used to store them in
+ * OffHeapStructs. Reads and writes use absolute positions and must stay
+ * within width bytes of the offset they are given.
+ * @param <T> type of value
+ */
+public interface IStructLayout<T> {
+    /**
+     * @return the number of bytes each value takes
+     */
+    int width();
+
+    /**
+     * Writes a value.
+     * @param t the value to write
+     * @param buffer the buffer to write to
+     * @param offset the position of the first byte to write
+     */
+    void write(T t, ByteBuffer buffer, int offset);
+
+    /**
+     * Reads a value written by write.
+     * @param buffer the buffer to read from
+     * @param offset the position of the first byte to read
+     * @return the value read
+     */
+    T read(ByteBuffer buffer, int offset);
+}
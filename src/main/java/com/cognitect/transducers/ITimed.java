@@ -0,0 +1,41 @@
+// Copyright 2014 Cognitect. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS-IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.cognitect.transducers;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Implemented by reducing functions that hold input until a deadline, such as
+ * batch. Like AReducingFunctionOn, a timed reducing function reports and
+ * handles the deadlines of the reducing functions it chains to as well as
+ * its own.
+ * @param <R> the type of result
+ */
+public interface ITimed<R> {
+    /**
+     * @return the earliest time, in terms of the clock the stage was created
+     * with, at which tick should be called, or Long.MAX_VALUE if nothing is pending
+     */
+    long deadline();
+
+    /**
+     * Flushes any held input whose deadline has passed by the stage's clock,
+     * stepping the chained reducing function.
+     * @param result the current result
+     * @param reduced a boolean flag that can be set to stop the reduction
+     * @return a new result
+     */
+    R tick(R result, AtomicBoolean reduced);
+}
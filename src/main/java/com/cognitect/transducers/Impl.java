@@ -14,6 +14,18 @@
 
 package com.cognitect.transducers;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
@@ -50,6 +62,8 @@ public class Impl {
      * @return the final reduced result
      */
     public static <R, T> R reduce(IReducingFunction<R, ? super T> f, R result, Iterable<T> input, AtomicBoolean reduced) {
+        if (input instanceof IReducible)
+            return f.apply(((IReducible<T>) input).reduce(f, result, 0, Long.MAX_VALUE, reduced));
         R ret = result;
         for(T t : input) {
             ret = f.apply(ret, t, reduced);
@@ -58,4 +72,422 @@ public class Impl {
         }
         return f.apply(ret);
     }
+
+    /**
+     * Applies given reducing function to current result and each T in input, like
+     * reduce, but for an array.
+     * @param f a reducing function
+     * @param result an initial result value
+     * @param input the input to process
+     * @param reduced a boolean flag that can be set to indicate that the reducing process
+     *                should stop, even though there is still input to process
+     * @param <R> the type of the result
+     * @param <T> the type of each item in input
+     * @return the final reduced result
+     */
+    public static <R, T> R reduce(IReducingFunction<R, ? super T> f, R result, T[] input, AtomicBoolean reduced) {
+        R ret = result;
+        for (int i = 0; i < input.length; i++) {
+            ret = f.apply(ret, input[i], reduced);
+            if (reduced.get())
+                break;
+        }
+        return f.apply(ret);
+    }
+
+    /**
+     * Transforms a reducing function with a transducer and reduces input with it. If
+     * the pipeline starts with drop or take stages (possibly among map stages) and
+     * input is a RandomAccess list or an IReducible, the range those stages select
+     * is reduced directly instead of stepping past skipped inputs one by one.
+     */
+    @SuppressWarnings("unchecked")
+    static <R, A, B> R transduce(ITransducer<A, B> xf, IReducingFunction<R, ? super A> rf, R init, Iterable<B> input) {
+        boolean indexed = input instanceof RandomAccess && input instanceof List;
+        Pushdown p = (indexed || input instanceof IReducible) ? Pushdown.of(xf) : null;
+        if (p == null)
+            return reduce(xf.apply(rf), init, input);
+        IReducingFunction<R, B> f = p.<R, A, B>apply(rf);
+        AtomicBoolean reduced = new AtomicBoolean();
+        if (input instanceof IReducible)
+            return f.apply(((IReducible<B>) input).reduce(f, init, p.offset, p.limit, reduced));
+        List<B> list = (List<B>) input;
+        int from = (int) Math.min(p.offset, list.size());
+        int to = p.end(from, list.size());
+        R ret = init;
+        for (int i = from; i < to; i++) {
+            ret = f.apply(ret, list.get(i), reduced);
+            if (reduced.get())
+                break;
+        }
+        return f.apply(ret);
+    }
+
+    /**
+     * Like transduce over an Iterable, for an array.
+     */
+    static <R, A, B> R transduce(ITransducer<A, B> xf, IReducingFunction<R, ? super A> rf, R init, B[] input) {
+        Pushdown p = Pushdown.of(xf);
+        if (p == null)
+            return reduce(xf.apply(rf), init, input, new AtomicBoolean());
+        IReducingFunction<R, B> f = p.<R, A, B>apply(rf);
+        AtomicBoolean reduced = new AtomicBoolean();
+        int from = (int) Math.min(p.offset, input.length);
+        int to = p.end(from, input.length);
+        R ret = init;
+        for (int i = from; i < to; i++) {
+            ret = f.apply(ret, input[i], reduced);
+            if (reduced.get())
+                break;
+        }
+        return f.apply(ret);
+    }
+
+    /**
+     * Applies given key/value reducing function to current result and each key and
+     * value in input, using the result returned from each reduction step as input to
+     * the next step. Returns final result. Maps that implement IKVReducible reduce
+     * themselves; other maps are reduced by walking their entry set. HashMap,
+     * LinkedHashMap and TreeMap hand out their own internal nodes as entries, so that
+     * walk allocates nothing per pair.
+     * @param f a key/value reducing function
+     * @param result an initial result value
+     * @param input the map to process
+     * @param reduced a boolean flag that can be set to indicate that the reducing process
+     *                should stop, even though there is still input to process
+     * @param <R> the type of the result
+     * @param <K> the type of each key in input
+     * @param <V> the type of each value in input
+     * @return the final reduced result
+     */
+    @SuppressWarnings("unchecked")
+    public static <R, K, V> R reduceKV(IKVReducingFunction<R, ? super K, ? super V> f, R result, Map<K, V> input,
+                                       AtomicBoolean reduced) {
+        if (input instanceof IKVReducible)
+            return f.apply(((IKVReducible<K, V>) input).reduceKV(f, result, reduced));
+        R ret = result;
+        for (Map.Entry<K, V> e : input.entrySet()) {
+            ret = f.apply(ret, e.getKey(), e.getValue(), reduced);
+            if (reduced.get())
+                break;
+        }
+        return f.apply(ret);
+    }
+
+    /**
+     * Applies given reducing function to current result and each T in the merge of
+     * several sorted inputs, in the order given by comparator. Inputs are pulled one
+     * value at a time, and none is pulled from again once the reducing process
+     * stops. Values that compare equal are taken from earlier inputs first. Returns
+     * final result.
+     * @param f a reducing function
+     * @param result an initial result value
+     * @param comparator the order each input is sorted in
+     * @param inputs the sorted inputs to merge
+     * @param reduced a boolean flag that can be set to indicate that the reducing process
+     *                should stop, even though there is still input to process
+     * @param <R> the type of the result
+     * @param <T> the type of each item in input
+     * @return the final reduced result
+     */
+    public static <R, T> R reduceMerged(IReducingFunction<R, ? super T> f, R result, Comparator<? super T> comparator,
+                                        List<? extends Iterable<? extends T>> inputs, AtomicBoolean reduced) {
+        R ret = result;
+        LoserTree<T> tree = new LoserTree<T>(comparator, inputs);
+        while (!tree.isEmpty()) {
+            ret = f.apply(ret, tree.peek(), reduced);
+            if (reduced.get())
+                break;
+            tree.pop();
+        }
+        return f.apply(ret);
+    }
+
+    /**
+     * Applies given step function to current result and the values at the same position
+     * in two inputs, stopping at the end of the shorter input. Inputs that are both
+     * RandomAccess lists are stepped by index instead of through iterators. Returns
+     * final result.
+     * @param f a step function
+     * @param result an initial result value
+     * @param as the first input
+     * @param bs the second input
+     * @param reduced a boolean flag that can be set to indicate that the reducing process
+     *                should stop, even though there is still input to process
+     * @param <R> the type of the result
+     * @param <A> the type of each item in the first input
+     * @param <B> the type of each item in the second input
+     * @return the final reduced result
+     */
+    public static <R, A, B> R reduceZip(IStepFunction2<R, ? super A, ? super B> f, R result,
+                                        Iterable<A> as, Iterable<B> bs, AtomicBoolean reduced) {
+        R ret = result;
+        if (as instanceof RandomAccess && as instanceof List && bs instanceof RandomAccess && bs instanceof List) {
+            List<A> la = (List<A>) as;
+            List<B> lb = (List<B>) bs;
+            int n = Math.min(la.size(), lb.size());
+            for (int i = 0; i < n; i++) {
+                ret = f.apply(ret, la.get(i), lb.get(i), reduced);
+                if (reduced.get())
+                    break;
+            }
+            return ret;
+        }
+        Iterator<A> ia = as.iterator();
+        Iterator<B> ib = bs.iterator();
+        while (ia.hasNext() && ib.hasNext()) {
+            ret = f.apply(ret, ia.next(), ib.next(), reduced);
+            if (reduced.get())
+                break;
+        }
+        return ret;
+    }
+
+    /**
+     * Like reduceZip over two Iterables, for arrays.
+     */
+    public static <R, A, B> R reduceZip(IStepFunction2<R, ? super A, ? super B> f, R result,
+                                        A[] as, B[] bs, AtomicBoolean reduced) {
+        R ret = result;
+        int n = Math.min(as.length, bs.length);
+        for (int i = 0; i < n; i++) {
+            ret = f.apply(ret, as[i], bs[i], reduced);
+            if (reduced.get())
+                break;
+        }
+        return ret;
+    }
+
+    /**
+     * Applies given step function to current result and the values at the same position
+     * in three inputs, stopping at the end of the shortest input. Inputs that are all
+     * RandomAccess lists are stepped by index instead of through iterators. Returns
+     * final result.
+     * @param f a step function
+     * @param result an initial result value
+     * @param as the first input
+     * @param bs the second input
+     * @param cs the third input
+     * @param reduced a boolean flag that can be set to indicate that the reducing process
+     *                should stop, even though there is still input to process
+     * @param <R> the type of the result
+     * @param <A> the type of each item in the first input
+     * @param <B> the type of each item in the second input
+     * @param <C> the type of each item in the third input
+     * @return the final reduced result
+     */
+    public static <R, A, B, C> R reduceZip(IStepFunction3<R, ? super A, ? super B, ? super C> f, R result,
+                                           Iterable<A> as, Iterable<B> bs, Iterable<C> cs, AtomicBoolean reduced) {
+        R ret = result;
+        if (as instanceof RandomAccess && as instanceof List && bs instanceof RandomAccess && bs instanceof List
+                && cs instanceof RandomAccess && cs instanceof List) {
+            List<A> la = (List<A>) as;
+            List<B> lb = (List<B>) bs;
+            List<C> lc = (List<C>) cs;
+            int n = Math.min(la.size(), Math.min(lb.size(), lc.size()));
+            for (int i = 0; i < n; i++) {
+                ret = f.apply(ret, la.get(i), lb.get(i), lc.get(i), reduced);
+                if (reduced.get())
+                    break;
+            }
+            return ret;
+        }
+        Iterator<A> ia = as.iterator();
+        Iterator<B> ib = bs.iterator();
+        Iterator<C> ic = cs.iterator();
+        while (ia.hasNext() && ib.hasNext() && ic.hasNext()) {
+            ret = f.apply(ret, ia.next(), ib.next(), ic.next(), reduced);
+            if (reduced.get())
+                break;
+        }
+        return ret;
+    }
+
+    /**
+     * Like reduceZip over three Iterables, for arrays.
+     */
+    public static <R, A, B, C> R reduceZip(IStepFunction3<R, ? super A, ? super B, ? super C> f, R result,
+                                           A[] as, B[] bs, C[] cs, AtomicBoolean reduced) {
+        R ret = result;
+        int n = Math.min(as.length, Math.min(bs.length, cs.length));
+        for (int i = 0; i < n; i++) {
+            ret = f.apply(ret, as[i], bs[i], cs[i], reduced);
+            if (reduced.get())
+                break;
+        }
+        return ret;
+    }
+
+    /**
+     * Applies given reducing function to current result and a row holding the values
+     * at the same position in each of any number of inputs, stopping at the end of the
+     * shortest input. The same row array is reused for every step, so a reducing
+     * function that keeps rows must copy them. Returns final result.
+     * @param f a reducing function
+     * @param result an initial result value
+     * @param inputs the inputs, one per column of the row
+     * @param reduced a boolean flag that can be set to indicate that the reducing process
+     *                should stop, even though there is still input to process
+     * @param <R> the type of the result
+     * @return the final reduced result
+     */
+    public static <R> R reduceZip(IReducingFunction<R, ? super Object[]> f, R result,
+                                  List<? extends Iterable<?>> inputs, AtomicBoolean reduced) {
+        R ret = result;
+        int k = inputs.size();
+        Object[] row = new Object[k];
+        boolean indexed = k > 0;
+        int n = Integer.MAX_VALUE;
+        for (Iterable<?> input : inputs) {
+            if (input instanceof RandomAccess && input instanceof List)
+                n = Math.min(n, ((List<?>) input).size());
+            else
+                indexed = false;
+        }
+        if (indexed) {
+            for (int i = 0; i < n; i++) {
+                for (int j = 0; j < k; j++) {
+                    row[j] = ((List<?>) inputs.get(j)).get(i);
+                }
+                ret = f.apply(ret, row, reduced);
+                if (reduced.get())
+                    break;
+            }
+            return f.apply(ret);
+        }
+        Iterator<?>[] its = new Iterator<?>[k];
+        for (int j = 0; j < k; j++) {
+            its[j] = inputs.get(j).iterator();
+        }
+        outer:
+        while (k > 0) {
+            for (int j = 0; j < k; j++) {
+                if (!its[j].hasNext())
+                    break outer;
+                row[j] = its[j].next();
+            }
+            ret = f.apply(ret, row, reduced);
+            if (reduced.get())
+                break;
+        }
+        return f.apply(ret);
+    }
+
+    /**
+     * Returns the reducing function map transforms rf into.
+     */
+    static <R, A, B> IReducingFunction<R, B> mapping(IReducingFunction<R, ? super A> rf, final Function<B, A> f) {
+        return new AReducingFunctionOn<R, A, B>(rf) {
+            @Override
+            public R apply(R result, B input, AtomicBoolean reduced) {
+                return rf.apply(result, f.apply(input), reduced);
+            }
+        };
+    }
+
+    /**
+     * Returns the reducing function filter transforms rf into.
+     */
+    static <R, A> IReducingFunction<R, A> filtering(IReducingFunction<R, ? super A> rf, final Predicate<A> p) {
+        return new AReducingFunctionOn<R, A, A>(rf) {
+            @Override
+            public R apply(R result, A input, AtomicBoolean reduced) {
+                if (p.test(input))
+                    return rf.apply(result, input, reduced);
+                return result;
+            }
+        };
+    }
+
+    /**
+     * Returns the reducing function remove transforms rf into.
+     */
+    static <R, A> IReducingFunction<R, A> removing(IReducingFunction<R, ? super A> rf, final Predicate<A> p) {
+        return new AReducingFunctionOn<R, A, A>(rf) {
+            @Override
+            public R apply(R result, A input, AtomicBoolean reduced) {
+                if (!p.test(input))
+                    return rf.apply(result, input, reduced);
+                return result;
+            }
+        };
+    }
+
+    /**
+     * Returns the reducing function keep transforms rf into.
+     */
+    static <R, A> IReducingFunction<R, A> keeping(IReducingFunction<R, ? super A> rf, final Function<A, A> f) {
+        return new AReducingFunctionOn<R, A, A>(rf) {
+            @Override
+            public R apply(R result, A input, AtomicBoolean reduced) {
+                A _input = f.apply(input);
+                if (_input != null)
+                    return rf.apply(result, _input, reduced);
+                return result;
+            }
+        };
+    }
+
+    /**
+     * Returns the reducing function cat transforms rf into.
+     */
+    static <R, A, B extends Iterable<A>> IReducingFunction<R, B> concatenating(IReducingFunction<R, ? super A> rf) {
+        return new AReducingFunctionOn<R, A, B>(rf) {
+            @Override
+            public R apply(R result, B input, AtomicBoolean reduced) {
+                return reduce(rf, result, input, reduced);
+            }
+        };
+    }
+
+    /**
+     * Writes inputs buffered by a stage, for ICheckpointable, with the codec, or
+     * if it is null with one Java serialization stream for the lot, so that class
+     * descriptions are written once.
+     */
+    static <T> void writeAll(List<T> list, IElementCodec<? super T> codec, DataOutput out) throws IOException {
+        out.writeInt(list.size());
+        if (codec != null) {
+            for (T t : list) {
+                codec.write(t, out);
+            }
+            return;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream oos = new ObjectOutputStream(bytes);
+        for (T t : list) {
+            oos.writeObject(t);
+        }
+        oos.close();
+        out.writeInt(bytes.size());
+        out.write(bytes.toByteArray());
+    }
+
+    /**
+     * Replaces the contents of a list of inputs buffered by a stage with
+     * inputs written by writeAll with the same codec.
+     */
+    @SuppressWarnings("unchecked")
+    static <T> void readAll(List<T> list, IElementCodec<? extends T> codec, DataInput in) throws IOException {
+        list.clear();
+        int n = in.readInt();
+        if (codec != null) {
+            for (int i = 0; i < n; i++) {
+                list.add(codec.read(in));
+            }
+            return;
+        }
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(bytes));
+        try {
+            for (int i = 0; i < n; i++) {
+                list.add((T) ois.readObject());
+            }
+        } catch (ClassNotFoundException e) {
+            throw new IOException("class not found", e);
+        } finally {
+            ois.close();
+        }
+    }
 }
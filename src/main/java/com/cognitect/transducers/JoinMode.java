@@ -0,0 +1,35 @@
+// Copyright 2014 Cognitect. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS-IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.cognitect.transducers;
+
+/**
+ * How lookupJoin joins each input with the matching rows of an index.
+ */
+public enum JoinMode {
+    /**
+     * One output per matching row; inputs without a match are dropped.
+     */
+    INNER,
+    /**
+     * One output per matching row; inputs without a match are passed on
+     * once, combined with a null row.
+     */
+    LEFT,
+    /**
+     * One output for each input with a match, combined with its first
+     * matching row; inputs without a match are dropped.
+     */
+    SEMI
+}
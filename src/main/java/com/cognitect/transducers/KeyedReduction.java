@@ -0,0 +1,179 @@
+// Copyright 2014 Cognitect. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS-IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.cognitect.transducers;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Reduces input in parallel over shards chosen by a key of each input. Every
+ * shard has a worker thread, a reducing function of its own (built by applying
+ * the transducer anew) and an SPSC ring from the calling thread. Inputs with the
+ * same key always go to the same shard, in input order, so the state of stateful
+ * stages is confined to a shard. The completed shard results are merged in shard
+ * order.
+ * @param <R> the type of result
+ * @param <B> the type of input
+ */
+final class KeyedReduction<R, B> {
+
+    private static final Object NULL = new Object();
+    private static final int CAPACITY = 1024;
+
+    private final class Shard implements Runnable {
+        final SpscRing<Object> ring = new SpscRing<Object>(CAPACITY);
+        final IReducingFunction<R, B> f;
+        final AtomicBoolean reduced = new AtomicBoolean();
+        final Thread thread;
+        volatile boolean done = false;
+        volatile Throwable error = null;
+        R result;
+
+        Shard(IReducingFunction<R, B> f, int index) {
+            this.f = f;
+            this.thread = new Thread(this, "transducers-shard-" + index);
+            this.thread.setDaemon(true);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public void run() {
+            try {
+                R ret = init.apply();
+                int idle = 0;
+                while (!aborted) {
+                    Object o = ring.poll();
+                    if (o == null) {
+                        // check done before polling again, so nothing offered before done is missed
+                        if (done && (o = ring.poll()) == null)
+                            break;
+                        if (o == null) {
+                            SpscRing.backoff(idle++);
+                            continue;
+                        }
+                    }
+                    idle = 0;
+                    if (!reduced.get())
+                        ret = f.apply(ret, (o == NULL) ? null : (B) o, reduced);
+                }
+                if (!aborted)
+                    result = f.apply(ret);
+            } catch (Throwable t) {
+                error = t;
+            }
+        }
+    }
+
+    private final IReducingFunction<R, ?> init;
+    private final Function<B, ?> key;
+    private final BiFunction<R, R, R> merge;
+    private final List<Shard> shards;
+    private volatile boolean aborted = false;
+
+    <A> KeyedReduction(ITransducer<A, B> xf, IReducingFunction<R, ? super A> rf, Function<B, ?> key, int shards,
+                       BiFunction<R, R, R> merge) {
+        if (shards < 1)
+            throw new IllegalArgumentException("shards must be positive: " + shards);
+        this.init = rf;
+        this.key = key;
+        this.merge = merge;
+        this.shards = new ArrayList<Shard>(shards);
+        for (int i = 0; i < shards; i++) {
+            this.shards.add(new Shard(xf.apply(rf), i));
+        }
+    }
+
+    private int shardOf(B input) {
+        Object k = key.apply(input);
+        int h = (k == null) ? 0 : k.hashCode();
+        h ^= (h >>> 16);
+        return (int) (((h * 0x9E3779B9L) & 0xFFFFFFFFL) * shards.size() >>> 32);
+    }
+
+    private static RuntimeException rethrow(Throwable t) {
+        if (t instanceof RuntimeException)
+            throw (RuntimeException) t;
+        if (t instanceof Error)
+            throw (Error) t;
+        throw new RuntimeException(t);
+    }
+
+    private void checkErrors() {
+        for (Shard s : shards) {
+            if (s.error != null) {
+                aborted = true;
+                throw rethrow(s.error);
+            }
+        }
+    }
+
+    private boolean allReduced() {
+        for (Shard s : shards) {
+            if (!s.reduced.get())
+                return false;
+        }
+        return true;
+    }
+
+    R run(Iterable<B> input) {
+        for (Shard s : shards) {
+            s.thread.start();
+        }
+        boolean complete = false;
+        try {
+            int count = 0;
+            for (B b : input) {
+                Shard s = shards.get(shardOf(b));
+                if (s.reduced.get()) {
+                    if ((++count & 1023) == 0 && allReduced())
+                        break;
+                    continue;
+                }
+                Object o = (b == null) ? NULL : b;
+                for (int attempt = 0; !s.ring.offer(o); attempt++) {
+                    checkErrors();
+                    SpscRing.backoff(attempt);
+                }
+            }
+            complete = true;
+        } finally {
+            if (!complete)
+                aborted = true;
+            for (Shard s : shards) {
+                s.done = true;
+            }
+            boolean interrupted = false;
+            for (Shard s : shards) {
+                while (true) {
+                    try {
+                        s.thread.join();
+                        break;
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+            }
+            if (interrupted)
+                Thread.currentThread().interrupt();
+        }
+        checkErrors();
+        R ret = shards.get(0).result;
+        for (int i = 1; i < shards.size(); i++) {
+            ret = merge.apply(ret, shards.get(i).result);
+        }
+        return ret;
+    }
+}
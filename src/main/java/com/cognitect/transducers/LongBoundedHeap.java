@@ -0,0 +1,118 @@
+// Copyright 2014 Cognitect. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS-IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.cognitect.transducers;
+
+/**
+ * A BoundedHeap specialized for primitive long keys, which are compared
+ * without boxing.
+ * @param <V> the value type
+ */
+final class LongBoundedHeap<V> {
+
+    private final long[] keys;
+    private final Object[] vals;
+    private int size = 0;
+
+    LongBoundedHeap(int k) {
+        if (k < 0)
+            throw new IllegalArgumentException("k must not be negative: " + k);
+        this.keys = new long[k];
+        this.vals = new Object[k];
+    }
+
+    /**
+     * Maps a double onto a long with the same ordering, so that double keys
+     * can be kept in this heap.
+     */
+    static long sortable(double d) {
+        long bits = Double.doubleToLongBits(d);
+        return bits ^ ((bits >> 63) & 0x7fffffffffffffffL);
+    }
+
+    private void swap(int i, int j) {
+        long k = keys[i]; keys[i] = keys[j]; keys[j] = k;
+        Object v = vals[i]; vals[i] = vals[j]; vals[j] = v;
+    }
+
+    private void siftUp(int i) {
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (keys[i] >= keys[parent])
+                break;
+            swap(i, parent);
+            i = parent;
+        }
+    }
+
+    private void siftDown(int i) {
+        int half = size >>> 1;
+        while (i < half) {
+            int child = 2 * i + 1;
+            if (child + 1 < size && keys[child + 1] < keys[child])
+                child++;
+            if (keys[child] >= keys[i])
+                break;
+            swap(i, child);
+            i = child;
+        }
+    }
+
+    /**
+     * Adds a value if the heap is not full or its key is larger than the
+     * smallest key in the heap.
+     */
+    void offer(long key, V val) {
+        if (size < keys.length) {
+            keys[size] = key;
+            vals[size] = val;
+            siftUp(size++);
+        } else if (size > 0 && key > keys[0]) {
+            keys[0] = key;
+            vals[0] = val;
+            siftDown(0);
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Returns the key at a position in heap order. Offering the keys and values
+     * to an empty heap in this order rebuilds the same heap.
+     */
+    long key(int i) {
+        return keys[i];
+    }
+
+    @SuppressWarnings("unchecked")
+    V value(int i) {
+        return (V) vals[i];
+    }
+
+    /**
+     * Empties the heap, returning its values ordered from largest to smallest key.
+     */
+    Object[] drain() {
+        Object[] ret = new Object[size];
+        while (size > 0) {
+            ret[size - 1] = vals[0];
+            swap(0, --size);
+            vals[size] = null;
+            siftDown(0);
+        }
+        return ret;
+    }
+}
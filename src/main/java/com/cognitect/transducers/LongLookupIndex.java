@@ -0,0 +1,127 @@
+// Copyright 2014 Cognitect. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS-IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.cognitect.transducers;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A read-only hash index of rows by long key, like LookupIndex but with keys
+ * stored unboxed in an array of longs, so neither building it nor looking up
+ * a key boxes. Once built, an index never changes, so one index can be shared
+ * by any number of pipelines on any number of threads.
+ * @param <V> the row type
+ */
+public final class LongLookupIndex<V> {
+
+    private final long[] keys;
+    final Object[] values;
+    final int[] next;
+    private final int[] slots;
+    private final int mask;
+    final boolean unique;
+
+    private LongLookupIndex(long[] keys, List<V> values) {
+        int n = values.size();
+        this.keys = keys;
+        this.values = values.toArray();
+        this.next = new int[n];
+        int size = Integer.highestOneBit(Math.max(2, 2 * n - 1)) << 1;
+        this.slots = new int[size];
+        this.mask = size - 1;
+        int[] last = new int[n];
+        boolean unique = true;
+        for (int i = 0; i < n; i++) {
+            next[i] = -1;
+            long k = keys[i];
+            for (int s = spread(k) & mask; ; s = (s + 1) & mask) {
+                int e = slots[s] - 1;
+                if (e < 0) {
+                    slots[s] = i + 1;
+                    last[i] = i;
+                    break;
+                }
+                if (k == keys[e]) {
+                    next[last[e]] = i;
+                    last[e] = i;
+                    unique = false;
+                    break;
+                }
+            }
+        }
+        this.unique = unique;
+    }
+
+    private static int spread(long k) {
+        long h = k * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    /**
+     * Builds an index of rows by key.
+     * @param rows the rows to index
+     * @param key a function from a row to its key
+     * @param <V> the row type
+     * @return a new index
+     */
+    public static <V> LongLookupIndex<V> build(Iterable<V> rows, ToLongFunction<V> key) {
+        long[] keys = new long[16];
+        List<V> values = new ArrayList<V>();
+        for (V row : rows) {
+            if (values.size() == keys.length)
+                keys = Arrays.copyOf(keys, 2 * keys.length);
+            keys[values.size()] = key.applyAsLong(row);
+            values.add(row);
+        }
+        return new LongLookupIndex<V>(Arrays.copyOf(keys, values.size()), values);
+    }
+
+    /**
+     * @return the position of the first row with the given key, or -1 if there is none
+     */
+    int first(long key) {
+        for (int s = spread(key) & mask; ; s = (s + 1) & mask) {
+            int e = slots[s] - 1;
+            if (e < 0 || key == keys[e])
+                return e;
+        }
+    }
+
+    /**
+     * @return the number of rows in the index
+     */
+    public int size() {
+        return values.length;
+    }
+
+    /**
+     * @param key a key
+     * @return true if some row has the key
+     */
+    public boolean containsKey(long key) {
+        return first(key) >= 0;
+    }
+
+    /**
+     * @param key a key
+     * @return the first row with the key, or null if there is none
+     */
+    @SuppressWarnings("unchecked")
+    public V get(long key) {
+        int e = first(key);
+        return (e < 0) ? null : (V) values[e];
+    }
+}
@@ -0,0 +1,134 @@
+// Copyright 2014 Cognitect. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS-IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.cognitect.transducers;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A read-only hash index of rows by key, for joining inputs against a table
+ * with lookupJoin. Keys are found by open addressing in a table of ints; rows
+ * with equal keys are chained in the order they were given, and are all
+ * stored in flat arrays, so the index holds no per-row objects. Rows whose
+ * key is null are left out, since a null key never matches. Once built, an
+ * index never changes, so one index can be shared by any number of pipelines
+ * on any number of threads.
+ * @param <K> the key type
+ * @param <V> the row type
+ */
+public final class LookupIndex<K, V> {
+
+    private final Object[] keys;
+    final Object[] values;
+    final int[] next;
+    private final int[] slots;
+    private final int mask;
+    final boolean unique;
+
+    private LookupIndex(List<K> keys, List<V> values) {
+        int n = keys.size();
+        this.keys = keys.toArray();
+        this.values = values.toArray();
+        this.next = new int[n];
+        int size = Integer.highestOneBit(Math.max(2, 2 * n - 1)) << 1;
+        this.slots = new int[size];
+        this.mask = size - 1;
+        int[] last = new int[n];
+        boolean unique = true;
+        for (int i = 0; i < n; i++) {
+            next[i] = -1;
+            Object k = this.keys[i];
+            for (int s = spread(k.hashCode()) & mask; ; s = (s + 1) & mask) {
+                int e = slots[s] - 1;
+                if (e < 0) {
+                    slots[s] = i + 1;
+                    last[i] = i;
+                    break;
+                }
+                if (k.equals(this.keys[e])) {
+                    next[last[e]] = i;
+                    last[e] = i;
+                    unique = false;
+                    break;
+                }
+            }
+        }
+        this.unique = unique;
+    }
+
+    private static int spread(int h) {
+        h *= 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Builds an index of rows by key.
+     * @param rows the rows to index
+     * @param key a function from a row to its key
+     * @param <K> the key type
+     * @param <V> the row type
+     * @return a new index
+     */
+    public static <K, V> LookupIndex<K, V> build(Iterable<V> rows, Function<V, K> key) {
+        List<K> keys = new ArrayList<K>();
+        List<V> values = new ArrayList<V>();
+        for (V row : rows) {
+            K k = key.apply(row);
+            if (k != null) {
+                keys.add(k);
+                values.add(row);
+            }
+        }
+        return new LookupIndex<K, V>(keys, values);
+    }
+
+    /**
+     * @return the position of the first row with the given key, or -1 if there is none
+     */
+    int first(Object key) {
+        if (key == null)
+            return -1;
+        for (int s = spread(key.hashCode()) & mask; ; s = (s + 1) & mask) {
+            int e = slots[s] - 1;
+            if (e < 0 || key.equals(keys[e]))
+                return e;
+        }
+    }
+
+    /**
+     * @return the number of rows in the index
+     */
+    public int size() {
+        return values.length;
+    }
+
+    /**
+     * @param key a key
+     * @return true if some row has the key
+     */
+    public boolean containsKey(K key) {
+        return first(key) >= 0;
+    }
+
+    /**
+     * @param key a key
+     * @return the first row with the key, or null if there is none
+     */
+    @SuppressWarnings("unchecked")
+    public V get(K key) {
+        int e = first(key);
+        return (e < 0) ? null : (V) values[e];
+    }
+}
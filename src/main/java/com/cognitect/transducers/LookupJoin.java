@@ -0,0 +1,76 @@
+// Copyright 2014 Cognitect. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS-IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.cognitect.transducers;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * The stage lookupJoin creates: looks up each input's key in an index and
+ * passes on the input combined with the matching rows, as the join mode says.
+ * Derived classes find the first matching row for an input, in the index they
+ * were created with; the chain of further matches and the rows themselves are
+ * the next and values arrays of that index.
+ * @param <A> the input type
+ * @param <B> the output type
+ * @param <V> the row type
+ */
+abstract class LookupJoin<A, B, V> extends ATransducer<B, A> {
+
+    private final Object[] values;
+    private final int[] next;
+    private final boolean unique;
+    private final JoinMode mode;
+    private final BiFunction<A, V, B> combiner;
+
+    LookupJoin(Object[] values, int[] next, boolean unique, JoinMode mode, BiFunction<A, V, B> combiner) {
+        this.values = values;
+        this.next = next;
+        this.unique = unique;
+        this.mode = mode;
+        this.combiner = combiner;
+    }
+
+    /**
+     * @return the position of the first row matching input, or -1 if there is none
+     */
+    abstract int first(A input);
+
+    @Override
+    public <R> IReducingFunction<R, A> apply(IReducingFunction<R, ? super B> rf) {
+        return new AReducingFunctionOn<R, B, A>(rf) {
+            @Override
+            @SuppressWarnings("unchecked")
+            public R apply(R result, A input, AtomicBoolean reduced) {
+                int e = first(input);
+                if (e < 0)
+                    return (mode == JoinMode.LEFT) ? rf.apply(result, combiner.apply(input, null), reduced) : result;
+                if (mode == JoinMode.SEMI)
+                    return rf.apply(result, combiner.apply(input, (V) values[e]), reduced);
+                R ret = rf.apply(result, combiner.apply(input, (V) values[e]), reduced);
+                for (e = next[e]; e >= 0 && !reduced.get(); e = next[e]) {
+                    ret = rf.apply(ret, combiner.apply(input, (V) values[e]), reduced);
+                }
+                return ret;
+            }
+        };
+    }
+
+    @Override
+    public SizeHint sizeHint(SizeHint input) {
+        if (mode == JoinMode.SEMI || (unique && mode == JoinMode.INNER))
+            return input.atMost();
+        return unique ? input : SizeHint.UNKNOWN;
+    }
+}
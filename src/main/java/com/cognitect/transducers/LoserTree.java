@@ -0,0 +1,117 @@
+// Copyright 2014 Cognitect. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS-IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.cognitect.transducers;
+
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * A tournament tree of losers for merging sorted inputs. The head of each
+ * input is a leaf; each internal node holds the input that lost the match
+ * played there, and the overall winner is kept apart. Replacing the winner's
+ * head replays only the matches on its path to the root, so each value
+ * merged costs log2(N) comparisons and nothing is allocated after
+ * construction. Inputs are pulled one value at a time, and ties go to the
+ * earlier input, so the merge is stable.
+ * @param <T> the type of value merged
+ */
+final class LoserTree<T> {
+
+    private final Comparator<? super T> comparator;
+    private final Iterator<? extends T>[] inputs;
+    private final Object[] heads;
+    private final boolean[] live;
+    private final int[] losers;
+    private int winner;
+
+    @SuppressWarnings("unchecked")
+    LoserTree(Comparator<? super T> comparator, List<? extends Iterable<? extends T>> inputs) {
+        int k = Math.max(1, inputs.size());
+        this.comparator = comparator;
+        this.inputs = (Iterator<? extends T>[]) new Iterator<?>[k];
+        this.heads = new Object[k];
+        this.live = new boolean[k];
+        this.losers = new int[k];
+        for (int i = 0; i < inputs.size(); i++) {
+            this.inputs[i] = inputs.get(i).iterator();
+            advance(i);
+        }
+        // play every match bottom up, leaf i being node k + i
+        int[] winners = new int[2 * k];
+        for (int i = 0; i < k; i++) {
+            winners[k + i] = i;
+        }
+        for (int node = k - 1; node >= 1; node--) {
+            int l = winners[2 * node];
+            int r = winners[2 * node + 1];
+            if (beats(l, r)) {
+                winners[node] = l;
+                losers[node] = r;
+            } else {
+                winners[node] = r;
+                losers[node] = l;
+            }
+        }
+        winner = (k == 1) ? 0 : winners[1];
+    }
+
+    private void advance(int i) {
+        Iterator<? extends T> it = inputs[i];
+        live[i] = it != null && it.hasNext();
+        heads[i] = live[i] ? it.next() : null;
+    }
+
+    @SuppressWarnings("unchecked")
+    private boolean beats(int a, int b) {
+        if (!live[a])
+            return false;
+        if (!live[b])
+            return true;
+        int c = comparator.compare((T) heads[a], (T) heads[b]);
+        return c < 0 || (c == 0 && a < b);
+    }
+
+    /**
+     * @return true if every input is exhausted
+     */
+    boolean isEmpty() {
+        return !live[winner];
+    }
+
+    /**
+     * @return the least head of all inputs
+     */
+    @SuppressWarnings("unchecked")
+    T peek() {
+        return (T) heads[winner];
+    }
+
+    /**
+     * Replaces the least head with the next value of its input.
+     */
+    void pop() {
+        int w = winner;
+        advance(w);
+        for (int node = (losers.length + w) / 2; node >= 1; node /= 2) {
+            if (beats(losers[node], w)) {
+                int l = losers[node];
+                losers[node] = w;
+                w = l;
+            }
+        }
+        winner = w;
+    }
+}
@@ -0,0 +1,101 @@
+// Copyright 2014 Cognitect. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS-IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.cognitect.transducers;
+
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A scheduler whose time only moves when advance is called, for testing
+ * timed stages deterministically. Tasks run on the thread calling advance,
+ * in order of their time and then of scheduling.
+ */
+public class ManualClock implements IScheduler {
+
+    private static final class Task implements Comparable<Task> {
+        final Runnable task;
+        final long at;
+        final long seq;
+
+        Task(Runnable task, long at, long seq) {
+            this.task = task;
+            this.at = at;
+            this.seq = seq;
+        }
+
+        @Override
+        public int compareTo(Task o) {
+            if (at != o.at)
+                return (at - o.at < 0) ? -1 : 1;
+            return (seq < o.seq) ? -1 : ((seq == o.seq) ? 0 : 1);
+        }
+    }
+
+    private final PriorityQueue<Task> tasks = new PriorityQueue<Task>();
+    private long now;
+    private long seq = 0;
+
+    /**
+     * Creates a clock at time zero.
+     */
+    public ManualClock() {
+        this(0);
+    }
+
+    /**
+     * Creates a clock at the given time.
+     * @param now the initial time in nanoseconds
+     */
+    public ManualClock(long now) {
+        this.now = now;
+    }
+
+    @Override
+    public synchronized long nanoTime() {
+        return now;
+    }
+
+    @Override
+    public synchronized void schedule(Runnable task, long atNanos) {
+        tasks.add(new Task(task, atNanos, seq++));
+    }
+
+    /**
+     * Moves time forward, running each task that falls due at the time it falls
+     * due, including tasks those tasks schedule.
+     * @param duration the time to move forward by
+     * @param unit the unit of duration
+     */
+    public void advance(long duration, TimeUnit unit) {
+        long target;
+        synchronized (this) {
+            target = now + unit.toNanos(duration);
+        }
+        while (true) {
+            Task next;
+            synchronized (this) {
+                next = tasks.peek();
+                if (next == null || next.at - target > 0) {
+                    now = target;
+                    return;
+                }
+                tasks.poll();
+                if (next.at - now > 0)
+                    now = next.at;
+            }
+            next.task.run();
+        }
+    }
+}
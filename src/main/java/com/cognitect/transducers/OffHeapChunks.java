@@ -0,0 +1,104 @@
+// Copyright 2014 Cognitect. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS-IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.cognitect.transducers;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Fixed-width records appended to a growing list of direct ByteBuffer chunks,
+ * outside the garbage-collected heap. Chunks are never copied as the list
+ * grows; a new one is allocated whenever the last one is full.
+ */
+final class OffHeapChunks {
+
+    static final int CHUNK_BYTES = 1 << 20;
+
+    final int width;
+    final int perChunk;
+    private List<ByteBuffer> chunks = new ArrayList<ByteBuffer>();
+    ByteBuffer tail = null;
+    private int tailCount;
+    private long size = 0;
+
+    OffHeapChunks(int width) {
+        if (width < 1)
+            throw new IllegalArgumentException("width must be positive: " + width);
+        this.width = width;
+        this.perChunk = Math.max(1, CHUNK_BYTES / width);
+        this.tailCount = perChunk;
+    }
+
+    /**
+     * Reserves room for one more record at the end of tail, returning its byte offset.
+     */
+    int append() {
+        check();
+        if (tailCount == perChunk) {
+            tail = ByteBuffer.allocateDirect(perChunk * width).order(ByteOrder.nativeOrder());
+            chunks.add(tail);
+            tailCount = 0;
+        }
+        size++;
+        return width * tailCount++;
+    }
+
+    long size() {
+        return size;
+    }
+
+    void check() {
+        if (chunks == null)
+            throw new IllegalStateException("released");
+    }
+
+    /**
+     * @return the chunk holding the record at index
+     */
+    ByteBuffer chunk(long index) {
+        check();
+        if (index < 0 || index >= size)
+            throw new IndexOutOfBoundsException("index: " + index + ", size: " + size);
+        return chunks.get((int) (index / perChunk));
+    }
+
+    /**
+     * @return the byte offset of the record at index within its chunk
+     */
+    int offset(long index) {
+        return width * (int) (index % perChunk);
+    }
+
+    /**
+     * @return the number of records from index to the end of its chunk, at most max
+     */
+    int run(long index, long max) {
+        return (int) Math.min(perChunk - index % perChunk, max);
+    }
+
+    /**
+     * @return the end of the range of records selected by offset and limit
+     */
+    long end(long from, long limit) {
+        return (limit >= size - from) ? size : from + limit;
+    }
+
+    void release() {
+        chunks = null;
+        tail = null;
+    }
+}
@@ -0,0 +1,109 @@
+// Copyright 2014 Cognitect. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS-IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.cognitect.transducers;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A read-only sequence of doubles stored in direct memory outside the garbage
+ * collected heap, eight bytes each with no boxing, as built by Fns.offHeapDoubles.
+ * It can be read by index or reduced as a source. The memory is held until
+ * release is called, after which the sequence can no longer be read, or until
+ * the sequence itself is garbage collected.
+ */
+public final class OffHeapDoubles implements IReducible<Double> {
+
+    private final OffHeapChunks chunks = new OffHeapChunks(8);
+
+    OffHeapDoubles() {
+    }
+
+    void append(double value) {
+        int at = chunks.append();
+        chunks.tail.putDouble(at, value);
+    }
+
+    /**
+     * @return the number of values
+     */
+    public long size() {
+        return chunks.size();
+    }
+
+    /**
+     * @param index the position of a value
+     * @return the value at index
+     * @throws IndexOutOfBoundsException if index is not less than size
+     * @throws IllegalStateException if the sequence has been released
+     */
+    public double get(long index) {
+        return chunks.chunk(index).getDouble(chunks.offset(index));
+    }
+
+    /**
+     * Releases the memory holding the values. The sequence drops its buffers, which
+     * give their memory back once garbage collected, and cannot be read afterwards.
+     */
+    public void release() {
+        chunks.release();
+    }
+
+    @Override
+    public <R> R reduce(IReducingFunction<R, ? super Double> rf, R result, long offset, long limit, AtomicBoolean reduced) {
+        chunks.check();
+        long from = Math.min(offset, chunks.size());
+        long to = chunks.end(from, limit);
+        R ret = result;
+        for (long i = from; i < to; ) {
+            ByteBuffer chunk = chunks.chunk(i);
+            int at = chunks.offset(i);
+            int n = chunks.run(i, to - i);
+            for (int j = 0; j < n; j++, at += 8) {
+                ret = rf.apply(ret, chunk.getDouble(at), reduced);
+                if (reduced.get())
+                    return ret;
+            }
+            i += n;
+        }
+        return ret;
+    }
+
+    @Override
+    public Iterator<Double> iterator() {
+        return new Iterator<Double>() {
+            long i = 0;
+
+            @Override
+            public boolean hasNext() {
+                return i < chunks.size();
+            }
+
+            @Override
+            public Double next() {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                return get(i++);
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+}
@@ -0,0 +1,148 @@
+// Copyright 2014 Cognitect. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS-IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.cognitect.transducers;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A read-only sequence of fixed-width records stored in direct memory outside
+ * the garbage collected heap, laid out by an IStructLayout, as built by
+ * Fns.offHeapStructs. Records can be decoded whole with get, or single fields
+ * can be read in place with getLong, getDouble and getInt, which creates no
+ * objects. Reducing the sequence as a source decodes each record. The memory
+ * is held until release is called, after which the sequence can no longer be
+ * read, or until the sequence itself is garbage collected.
+ * @param <T> the type of each record
+ */
+public final class OffHeapStructs<T> implements IReducible<T> {
+
+    private final IStructLayout<T> layout;
+    private final OffHeapChunks chunks;
+
+    OffHeapStructs(IStructLayout<T> layout) {
+        this.layout = layout;
+        this.chunks = new OffHeapChunks(layout.width());
+    }
+
+    void append(T value) {
+        int at = chunks.append();
+        layout.write(value, chunks.tail, at);
+    }
+
+    /**
+     * @return the number of records
+     */
+    public long size() {
+        return chunks.size();
+    }
+
+    /**
+     * @param index the position of a record
+     * @return the record at index, decoded by the layout
+     * @throws IndexOutOfBoundsException if index is not less than size
+     * @throws IllegalStateException if the sequence has been released
+     */
+    public T get(long index) {
+        return layout.read(chunks.chunk(index), chunks.offset(index));
+    }
+
+    private int field(long index, int offset, int size) {
+        if (offset < 0 || offset > chunks.width - size)
+            throw new IndexOutOfBoundsException("field offset: " + offset + ", width: " + chunks.width);
+        return chunks.offset(index) + offset;
+    }
+
+    /**
+     * @param index the position of a record
+     * @param offset the byte offset of a long field within the record
+     * @return the value of the field
+     */
+    public long getLong(long index, int offset) {
+        return chunks.chunk(index).getLong(field(index, offset, 8));
+    }
+
+    /**
+     * @param index the position of a record
+     * @param offset the byte offset of a double field within the record
+     * @return the value of the field
+     */
+    public double getDouble(long index, int offset) {
+        return chunks.chunk(index).getDouble(field(index, offset, 8));
+    }
+
+    /**
+     * @param index the position of a record
+     * @param offset the byte offset of an int field within the record
+     * @return the value of the field
+     */
+    public int getInt(long index, int offset) {
+        return chunks.chunk(index).getInt(field(index, offset, 4));
+    }
+
+    /**
+     * Releases the memory holding the records. The sequence drops its buffers, which
+     * give their memory back once garbage collected, and cannot be read afterwards.
+     */
+    public void release() {
+        chunks.release();
+    }
+
+    @Override
+    public <R> R reduce(IReducingFunction<R, ? super T> rf, R result, long offset, long limit, AtomicBoolean reduced) {
+        chunks.check();
+        long from = Math.min(offset, chunks.size());
+        long to = chunks.end(from, limit);
+        R ret = result;
+        for (long i = from; i < to; ) {
+            ByteBuffer chunk = chunks.chunk(i);
+            int at = chunks.offset(i);
+            int n = chunks.run(i, to - i);
+            for (int j = 0; j < n; j++, at += chunks.width) {
+                ret = rf.apply(ret, layout.read(chunk, at), reduced);
+                if (reduced.get())
+                    return ret;
+            }
+            i += n;
+        }
+        return ret;
+    }
+
+    @Override
+    public Iterator<T> iterator() {
+        return new Iterator<T>() {
+            long i = 0;
+
+            @Override
+            public boolean hasNext() {
+                return i < chunks.size();
+            }
+
+            @Override
+            public T next() {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                return get(i++);
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+}
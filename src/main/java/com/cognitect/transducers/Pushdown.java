@@ -0,0 +1,101 @@
+// Copyright 2014 Cognitect. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS-IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.cognitect.transducers;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The leading drop and take stages of a pipeline, lifted out so that an
+ * indexed source can apply them by position. Map stages ahead of or between
+ * them don't change positions, so they stay in the pipeline; everything from
+ * the first other stage on is left as is.
+ */
+final class Pushdown {
+
+    long offset = 0;
+    long limit = ASliceTransducer.UNLIMITED;
+    private boolean sliced = false;
+    private ITransducer<?, ?> rest = null;
+
+    private Pushdown() {
+    }
+
+    private static void flatten(ITransducer<?, ?> xf, List<ITransducer<?, ?>> stages) {
+        if (xf instanceof ComposedTransducer) {
+            ComposedTransducer<?, ?, ?> c = (ComposedTransducer<?, ?, ?>) xf;
+            flatten(c.left, stages);
+            flatten(c.right, stages);
+        } else {
+            stages.add(xf);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void keep(ITransducer<?, ?> stage) {
+        rest = (rest == null) ? stage : ((ITransducer) rest).comp(stage);
+    }
+
+    private void slice(ASliceTransducer<?, ?> stage) {
+        sliced = true;
+        if (stage.offset > 0) {
+            offset = (offset > Long.MAX_VALUE - stage.offset) ? Long.MAX_VALUE : offset + stage.offset;
+            if (limit != ASliceTransducer.UNLIMITED)
+                limit = Math.max(0, limit - stage.offset);
+        }
+        limit = Math.min(limit, stage.limit);
+    }
+
+    /**
+     * Splits the leading drop and take stages out of a pipeline.
+     */
+    static Pushdown of(ITransducer<?, ?> xf) {
+        Pushdown ret = new Pushdown();
+        List<ITransducer<?, ?>> stages = new ArrayList<ITransducer<?, ?>>();
+        flatten(xf, stages);
+        int i = 0;
+        for (; i < stages.size() && stages.get(i) instanceof ASliceTransducer; i++) {
+            ASliceTransducer<?, ?> stage = (ASliceTransducer<?, ?>) stages.get(i);
+            if (stage.oneToOne)
+                ret.keep(stage);
+            else
+                ret.slice(stage);
+        }
+        if (!ret.sliced)
+            return null;
+        for (; i < stages.size(); i++) {
+            ret.keep(stages.get(i));
+        }
+        return ret;
+    }
+
+    /**
+     * Applies the stages that remain after the leading drop and take stages to
+     * a reducing function.
+     */
+    @SuppressWarnings("unchecked")
+    <R, A, B> IReducingFunction<R, B> apply(IReducingFunction<R, ? super A> rf) {
+        if (rest == null)
+            return (IReducingFunction<R, B>) rf;
+        return ((ITransducer<A, B>) rest).apply(rf);
+    }
+
+    /**
+     * @return the end of the selected range in a source of the given size
+     */
+    int end(int from, int size) {
+        return (limit >= size - from) ? size : (int) (from + limit);
+    }
+}
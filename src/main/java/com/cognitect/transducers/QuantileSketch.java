@@ -0,0 +1,316 @@
+// Copyright 2014 Cognitect. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS-IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.cognitect.transducers;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * A KLL sketch estimating quantiles of the doubles added to it. Values are
+ * kept in levels of double arrays; a value at level h stands for 2^h added
+ * values. When a level fills up it is sorted and every other value, starting
+ * at a random offset, is promoted to the next level. Memory is O(k) and rank
+ * error is about 1.7/k. Sketches with the same k can be merged, and can be
+ * written to and read from a compact binary form.
+ */
+public class QuantileSketch {
+
+    private static final byte VERSION = 1;
+    private static final double DECAY = 2.0 / 3.0;
+
+    private final int k;
+    private final SplitMix64 random = new SplitMix64();
+    private double[][] levels = new double[1][];
+    private int[] sizes = new int[1];
+    private long n = 0;
+    private double min = Double.NaN;
+    private double max = Double.NaN;
+
+    /**
+     * Creates an empty sketch.
+     * @param k the capacity of the top level, at least 8
+     */
+    public QuantileSketch(int k) {
+        if (k < 8)
+            throw new IllegalArgumentException("k must be at least 8: " + k);
+        this.k = k;
+        this.levels[0] = new double[k];
+    }
+
+    /**
+     * @return the capacity of the top level
+     */
+    public int k() {
+        return k;
+    }
+
+    /**
+     * @return the number of values added
+     */
+    public long count() {
+        return n;
+    }
+
+    private int capacity(int h) {
+        int depth = levels.length - 1 - h;
+        return Math.max(2, (int) Math.ceil(k * Math.pow(DECAY, depth)));
+    }
+
+    private void append(int h, double v) {
+        if (h == levels.length) {
+            levels = Arrays.copyOf(levels, h + 1);
+            sizes = Arrays.copyOf(sizes, h + 1);
+            levels[h] = new double[capacity(h)];
+        }
+        if (sizes[h] == levels[h].length)
+            levels[h] = Arrays.copyOf(levels[h], Math.max(2, 2 * sizes[h]));
+        levels[h][sizes[h]++] = v;
+    }
+
+    private void compact(int h) {
+        double[] level = levels[h];
+        int size = sizes[h];
+        Arrays.sort(level, 0, size);
+        int offset = (int) (random.nextLong() & 1);
+        int pairs = size / 2;
+        for (int i = 0; i < pairs; i++) {
+            append(h + 1, level[2 * i + offset]);
+        }
+        if ((size & 1) == 1) {
+            level[0] = level[size - 1];
+            sizes[h] = 1;
+        } else {
+            sizes[h] = 0;
+        }
+    }
+
+    private void compress() {
+        for (int h = 0; h < levels.length; h++) {
+            if (sizes[h] >= capacity(h))
+                compact(h);
+        }
+    }
+
+    /**
+     * Adds a value.
+     * @param value the value to add
+     * @return this sketch
+     */
+    public QuantileSketch add(double value) {
+        if (Double.isNaN(value))
+            return this;
+        if (n == 0 || value < min)
+            min = value;
+        if (n == 0 || value > max)
+            max = value;
+        n++;
+        append(0, value);
+        if (sizes[0] >= capacity(0))
+            compress();
+        return this;
+    }
+
+    /**
+     * Adds every value in an array.
+     * @param values the values to add
+     * @return this sketch
+     */
+    public QuantileSketch addAll(double[] values) {
+        for (double v : values) {
+            add(v);
+        }
+        return this;
+    }
+
+    /**
+     * Adds every value in a long array, converted to double.
+     * @param values the values to add
+     * @return this sketch
+     */
+    public QuantileSketch addAll(long[] values) {
+        for (long v : values) {
+            add((double) v);
+        }
+        return this;
+    }
+
+    /**
+     * Adds every value in an int array.
+     * @param values the values to add
+     * @return this sketch
+     */
+    public QuantileSketch addAll(int[] values) {
+        for (int v : values) {
+            add(v);
+        }
+        return this;
+    }
+
+    /**
+     * @param value a value
+     * @return the estimated fraction of added values less than or equal to value
+     */
+    public double rank(double value) {
+        if (n == 0)
+            return Double.NaN;
+        long weight = 0;
+        long below = 0;
+        for (int h = 0; h < levels.length; h++) {
+            for (int i = 0; i < sizes[h]; i++) {
+                weight += 1L << h;
+                if (levels[h][i] <= value)
+                    below += 1L << h;
+            }
+        }
+        return (double) below / weight;
+    }
+
+    /**
+     * @param q a fraction between 0 and 1
+     * @return the estimated value at fraction q of the added values in
+     * sorted order, or NaN if no values have been added
+     */
+    public double quantile(double q) {
+        if (q < 0.0 || q > 1.0)
+            throw new IllegalArgumentException("q must be between 0 and 1: " + q);
+        if (n == 0)
+            return Double.NaN;
+        if (q == 0.0)
+            return min;
+        if (q == 1.0)
+            return max;
+        // walk the sorted levels in merged order, accumulating weights
+        double[][] sorted = new double[levels.length][];
+        int[] pos = new int[levels.length];
+        long total = 0;
+        for (int h = 0; h < levels.length; h++) {
+            sorted[h] = Arrays.copyOf(levels[h], sizes[h]);
+            Arrays.sort(sorted[h]);
+            total += (long) sizes[h] << h;
+        }
+        long target = (long) Math.ceil(q * total);
+        long seen = 0;
+        while (true) {
+            int next = -1;
+            for (int h = 0; h < sorted.length; h++) {
+                if (pos[h] < sorted[h].length && (next < 0 || sorted[h][pos[h]] < sorted[next][pos[next]]))
+                    next = h;
+            }
+            if (next < 0)
+                return max;
+            double v = sorted[next][pos[next]++];
+            seen += 1L << next;
+            if (seen >= target)
+                return v;
+        }
+    }
+
+    /**
+     * @return the smallest value added, or NaN if none have been
+     */
+    public double min() {
+        return min;
+    }
+
+    /**
+     * @return the largest value added, or NaN if none have been
+     */
+    public double max() {
+        return max;
+    }
+
+    /**
+     * Merges another sketch into this one, so that this sketch summarizes the
+     * values added to either.
+     * @param other a sketch with the same k
+     * @return this sketch
+     */
+    public QuantileSketch merge(QuantileSketch other) {
+        if (other.k != k)
+            throw new IllegalArgumentException("k mismatch: " + k + " != " + other.k);
+        if (other.n == 0)
+            return this;
+        if (n == 0 || other.min < min)
+            min = other.min;
+        if (n == 0 || other.max > max)
+            max = other.max;
+        n += other.n;
+        for (int h = 0; h < other.levels.length; h++) {
+            for (int i = 0; i < other.sizes[h]; i++) {
+                append(h, other.levels[h][i]);
+            }
+        }
+        boolean over = true;
+        while (over) {
+            compress();
+            over = false;
+            for (int h = 0; h < levels.length; h++) {
+                over |= sizes[h] >= capacity(h);
+            }
+        }
+        return this;
+    }
+
+    /**
+     * @return the sketch in binary form
+     */
+    public byte[] toBytes() {
+        int retained = 0;
+        for (int h = 0; h < levels.length; h++) {
+            retained += sizes[h];
+        }
+        ByteBuffer buf = ByteBuffer.allocate(1 + 4 + 8 + 8 + 8 + 4 + 4 * levels.length + 8 * retained);
+        buf.put(VERSION).putInt(k).putLong(n).putDouble(min).putDouble(max).putInt(levels.length);
+        for (int h = 0; h < levels.length; h++) {
+            buf.putInt(sizes[h]);
+            for (int i = 0; i < sizes[h]; i++) {
+                buf.putDouble(levels[h][i]);
+            }
+        }
+        return buf.array();
+    }
+
+    /**
+     * Reads a sketch written by toBytes.
+     * @param bytes the sketch in binary form
+     * @return a new sketch
+     */
+    public static QuantileSketch fromBytes(byte[] bytes) {
+        try {
+            ByteBuffer buf = ByteBuffer.wrap(bytes);
+            if (buf.get() != VERSION)
+                throw new IllegalArgumentException("unknown QuantileSketch version");
+            QuantileSketch ret = new QuantileSketch(buf.getInt());
+            ret.n = buf.getLong();
+            ret.min = buf.getDouble();
+            ret.max = buf.getDouble();
+            int height = buf.getInt();
+            ret.levels = new double[height][];
+            ret.sizes = new int[height];
+            for (int h = 0; h < height; h++) {
+                int size = buf.getInt();
+                ret.levels[h] = new double[Math.max(size, ret.capacity(h))];
+                for (int i = 0; i < size; i++) {
+                    ret.levels[h][i] = buf.getDouble();
+                }
+                ret.sizes[h] = size;
+            }
+            return ret;
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("truncated QuantileSketch", e);
+        }
+    }
+}
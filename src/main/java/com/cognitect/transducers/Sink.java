@@ -0,0 +1,139 @@
+// Copyright 2014 Cognitect. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS-IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.cognitect.transducers;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A push-style handle on a reducing process, for event-driven code that
+ * receives inputs one at a time instead of as an Iterable. Call open once,
+ * push each input as it arrives and close once to complete the reduction.
+ * Pushing does not allocate beyond what the reducing function itself does.
+ *
+ * If the reducing function holds input until a deadline (see ITimed), tick
+ * flushes whatever is due. A sink created with a scheduler arranges for tick
+ * to be called at each deadline, so timed stages flush even when no input is
+ * arriving; the scheduler should be the clock the timed stages were created
+ * with. Calls to a sink are serialized, so they may come from any thread.
+ * @param <R> the type of result
+ * @param <T> the type of input
+ */
+public final class Sink<R, T> {
+
+    private final IReducingFunction<R, ? super T> rf;
+    private final ITimed<R> timed;
+    private final IScheduler scheduler;
+    private final R init;
+    private final boolean zero;
+    private final AtomicBoolean reduced = new AtomicBoolean();
+    private final Runnable ticker = new Runnable() {
+        @Override
+        public void run() {
+            tick();
+        }
+    };
+    private R result;
+    private boolean opened = false;
+    private boolean closed = false;
+    private long scheduled = Long.MAX_VALUE;
+
+    @SuppressWarnings("unchecked")
+    Sink(IReducingFunction<R, ? super T> rf, R init, boolean zero, IScheduler scheduler) {
+        this.rf = rf;
+        this.init = init;
+        this.zero = zero;
+        this.timed = (rf instanceof ITimed) ? (ITimed<R>) rf : null;
+        this.scheduler = (timed != null) ? scheduler : null;
+    }
+
+    /**
+     * Starts the reduction with its initial value.
+     * @return this sink
+     */
+    public synchronized Sink<R, T> open() {
+        if (opened)
+            throw new IllegalStateException("sink already opened");
+        opened = true;
+        result = zero ? rf.apply() : init;
+        return this;
+    }
+
+    private void check() {
+        if (!opened || closed)
+            throw new IllegalStateException(opened ? "sink closed" : "sink not opened");
+    }
+
+    private void schedule() {
+        long deadline = timed.deadline();
+        if (deadline != Long.MAX_VALUE && (scheduled == Long.MAX_VALUE || deadline - scheduled < 0)) {
+            scheduled = deadline;
+            scheduler.schedule(ticker, deadline);
+        }
+    }
+
+    /**
+     * Steps the reduction with an input. Inputs pushed once the reduction is
+     * reduced are ignored.
+     * @param input the input
+     * @return true if the reduction is reduced and wants no more input
+     */
+    public synchronized boolean push(T input) {
+        check();
+        if (!reduced.get()) {
+            result = rf.apply(result, input, reduced);
+            if (scheduler != null)
+                schedule();
+        }
+        return reduced.get();
+    }
+
+    /**
+     * Flushes input held by timed stages whose deadline has passed. Called at
+     * each deadline by the scheduler, if the sink has one; otherwise the caller
+     * can call it periodically. Does nothing once the sink is closed.
+     * @return true if the reduction is reduced and wants no more input
+     */
+    public synchronized boolean tick() {
+        if (!opened || closed || timed == null || reduced.get())
+            return reduced.get();
+        result = timed.tick(result, reduced);
+        if (scheduler != null) {
+            scheduled = Long.MAX_VALUE;
+            if (!reduced.get())
+                schedule();
+        }
+        return reduced.get();
+    }
+
+    /**
+     * @return true if the reduction is reduced and wants no more input
+     */
+    public synchronized boolean isReduced() {
+        return reduced.get();
+    }
+
+    /**
+     * Completes the reduction, flushing any inputs held by stateful stages.
+     * @return the result
+     */
+    public synchronized R close() {
+        if (!opened || closed)
+            throw new IllegalStateException(opened ? "sink already closed" : "sink not opened");
+        closed = true;
+        R ret = rf.apply(result);
+        result = null;
+        return ret;
+    }
+}
@@ -0,0 +1,164 @@
+// Copyright 2014 Cognitect. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS-IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.cognitect.transducers;
+
+import java.util.Collection;
+
+/**
+ * What is known about the number of values a source or a pipeline produces:
+ * exactly some number, at most some number, or nothing. Transducers built on
+ * ATransducer report how they change the hint of their input through
+ * sizeHint, so that collecting the output of a pipeline can presize its target.
+ */
+public final class SizeHint {
+
+    /**
+     * A hint that says nothing about the size.
+     */
+    public static final SizeHint UNKNOWN = new SizeHint(-1, false);
+
+    private final long size;
+    private final boolean exact;
+
+    private SizeHint(long size, boolean exact) {
+        this.size = size;
+        this.exact = exact;
+    }
+
+    /**
+     * @param size the number of values
+     * @return a hint that there are exactly size values
+     */
+    public static SizeHint exact(long size) {
+        return new SizeHint(Math.max(0, size), true);
+    }
+
+    /**
+     * @param size the maximum number of values
+     * @return a hint that there are at most size values
+     */
+    public static SizeHint atMost(long size) {
+        return new SizeHint(Math.max(0, size), false);
+    }
+
+    /**
+     * @param input a source
+     * @return an exact hint for collections, otherwise UNKNOWN
+     */
+    public static SizeHint of(Iterable<?> input) {
+        return (input instanceof Collection) ? exact(((Collection<?>) input).size()) : UNKNOWN;
+    }
+
+    /**
+     * @param xf a transducer
+     * @param input the hint for the input of xf
+     * @return the hint for the output of xf, or UNKNOWN if xf doesn't say
+     */
+    public static SizeHint through(ITransducer<?, ?> xf, SizeHint input) {
+        return (xf instanceof ATransducer) ? ((ATransducer<?, ?>) xf).sizeHint(input) : UNKNOWN;
+    }
+
+    /**
+     * @return true if the size is known exactly
+     */
+    public boolean isExact() {
+        return exact;
+    }
+
+    /**
+     * @return true if the size is known exactly or bounded
+     */
+    public boolean isKnown() {
+        return size >= 0;
+    }
+
+    /**
+     * @return the exact or maximum size, or -1 if unknown
+     */
+    public long size() {
+        return size;
+    }
+
+    /**
+     * @return the hint for a subset of the values, e.g. after filter
+     */
+    public SizeHint atMost() {
+        return exact ? atMost(size) : this;
+    }
+
+    /**
+     * @param n a limit
+     * @return the hint for at most the first n values, as after take
+     */
+    public SizeHint limit(long n) {
+        if (!isKnown())
+            return atMost(n);
+        return (n < size) ? new SizeHint(Math.max(0, n), exact) : this;
+    }
+
+    /**
+     * @param n a number of values
+     * @return the hint for all but the first n values, as after drop
+     */
+    public SizeHint skip(long n) {
+        return isKnown() ? new SizeHint(Math.max(0, size - Math.max(0, n)), exact) : this;
+    }
+
+    /**
+     * @param n a group size
+     * @return the hint for groups of n values, the last possibly smaller, as after partitionAll
+     */
+    public SizeHint groups(long n) {
+        if (!isKnown() || n < 1)
+            return UNKNOWN;
+        return new SizeHint(size / n + ((size % n == 0) ? 0 : 1), exact);
+    }
+
+    /**
+     * Returns a capacity to presize a target with: the exact size, or an upper
+     * bound of up to max, which keeps a loose bound on a large input from
+     * allocating far more than is used.
+     * @param dflt the capacity to use if the size is unknown
+     * @param max the largest upper bound to use as is
+     * @return the capacity to presize a target with
+     */
+    int capacity(int dflt, int max) {
+        if (exact)
+            return (int) Math.min(size, Integer.MAX_VALUE - 8);
+        if (isKnown())
+            return (int) Math.min(size, max);
+        return dflt;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof SizeHint))
+            return false;
+        SizeHint h = (SizeHint) o;
+        return size == h.size && exact == h.exact;
+    }
+
+    @Override
+    public int hashCode() {
+        return (int) (size ^ (size >>> 32)) * 31 + (exact ? 1 : 0);
+    }
+
+    @Override
+    public String toString() {
+        if (!isKnown())
+            return "SizeHint{unknown}";
+        return "SizeHint{" + (exact ? "exactly " : "at most ") + size + "}";
+    }
+}
@@ -0,0 +1,105 @@
+// Copyright 2014 Cognitect. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS-IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.cognitect.transducers;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A small, fast, non-thread-safe pseudo random generator (the SplitMix64
+ * algorithm used by java.util.SplittableRandom). Each reduction creates its
+ * own instance, so sampling never contends on a shared seed.
+ */
+final class SplitMix64 {
+
+    private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+    private static final double DOUBLE_UNIT = 0x1.0p-53;
+
+    private static final AtomicLong seeder = new AtomicLong(mix64(System.currentTimeMillis()) ^ mix64(System.nanoTime()));
+
+    private long seed;
+
+    /**
+     * Creates a generator with a seed that differs from every other unseeded
+     * generator created in this process.
+     */
+    SplitMix64() {
+        this(mix64(seeder.getAndAdd(2 * GOLDEN_GAMMA)) ^ System.nanoTime());
+    }
+
+    /**
+     * Creates a generator that produces a reproducible sequence for the given seed.
+     * @param seed the initial seed
+     */
+    SplitMix64(long seed) {
+        this.seed = seed;
+    }
+
+    long seed() {
+        return seed;
+    }
+
+    void seed(long seed) {
+        this.seed = seed;
+    }
+
+    static long mix64(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+    long nextLong() {
+        return mix64(seed += GOLDEN_GAMMA);
+    }
+
+    /**
+     * @return a value uniformly distributed in [0, 1)
+     */
+    double nextDouble() {
+        return (nextLong() >>> 11) * DOUBLE_UNIT;
+    }
+
+    /**
+     * @return a value uniformly distributed in (0, 1], safe to take the log of
+     */
+    double nextOpenDouble() {
+        return 1.0 - nextDouble();
+    }
+
+    /**
+     * @param bound the exclusive upper bound, must be positive
+     * @return a value uniformly distributed in [0, bound)
+     */
+    int nextInt(int bound) {
+        long r = (nextLong() >>> 33) * bound;
+        return (int) (r >>> 31);
+    }
+
+    /**
+     * Returns the number of failures before the first success in a series of
+     * Bernoulli trials with the given probability of success, drawing a single
+     * random number regardless of how many trials that covers.
+     * @param p the probability of success
+     * @return the number of trials to skip
+     */
+    long nextGeometric(double p) {
+        if (p >= 1.0)
+            return 0;
+        if (p <= 0.0)
+            return Long.MAX_VALUE;
+        // the cast saturates at Long.MAX_VALUE for tiny probabilities
+        return (long) Math.floor(Math.log(nextOpenDouble()) / Math.log1p(-p));
+    }
+}
@@ -0,0 +1,35 @@
+// Copyright 2014 Cognitect. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS-IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.cognitect.transducers;
+
+/**
+ * How a thread waits for a lock-free queue shared with another thread to
+ * have room or data, trading CPU for latency.
+ */
+public enum WaitStrategy {
+    /**
+     * Busy-spin: lowest latency, but keeps a core fully busy while waiting.
+     */
+    SPIN,
+    /**
+     * Spin briefly, then yield the processor between attempts.
+     */
+    YIELD,
+    /**
+     * Spin briefly, then yield, then park for short intervals; cheapest when
+     * waits are long, at the cost of wake-up latency.
+     */
+    PARK
+}
@@ -0,0 +1,185 @@
+// Copyright 2014 Cognitect. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS-IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.cognitect.transducers;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A bounded lock-free queue for exactly one producer thread and one consumer
+ * thread. Values are held in a ring of power-of-two size indexed by two ever
+ * increasing counters; each side publishes its counter with an ordered write
+ * and keeps a cached copy of the other's, so an uncontended offer or poll
+ * touches no shared cache line but its own. Null values are not allowed.
+ *
+ * This is the Java 21 version of SpscRing, packaged in META-INF/versions/21 of
+ * the multi-release jar. The counters are plain fields accessed through
+ * VarHandles with acquire/release ordering instead of AtomicLongs, and
+ * spinning hints the processor with Thread.onSpinWait.
+ * @param <T> the type of value
+ */
+final class SpscRing<T> {
+
+    private static final VarHandle HEAD;
+    private static final VarHandle TAIL;
+
+    static {
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            HEAD = lookup.findVarHandle(SpscRing.class, "head", long.class);
+            TAIL = lookup.findVarHandle(SpscRing.class, "tail", long.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private final Object[] buffer;
+    private final int mask;
+    // written by the consumer
+    private long head = 0;
+    // written by the producer
+    private long tail = 0;
+    // producer side
+    private long headCache = 0;
+    // consumer side
+    private long tailCache = 0;
+
+    SpscRing(int capacity) {
+        if (capacity < 1 || capacity > (1 << 30))
+            throw new IllegalArgumentException("invalid capacity: " + capacity);
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity)
+            size <<= 1;
+        this.buffer = new Object[size];
+        this.mask = size - 1;
+    }
+
+    int capacity() {
+        return buffer.length;
+    }
+
+    /**
+     * Adds a value, if there is room. Producer thread only.
+     */
+    boolean offer(T value) {
+        long t = tail;
+        if (t - headCache >= buffer.length) {
+            headCache = (long) HEAD.getAcquire(this);
+            if (t - headCache >= buffer.length)
+                return false;
+        }
+        buffer[(int) t & mask] = value;
+        TAIL.setRelease(this, t + 1);
+        return true;
+    }
+
+    /**
+     * Adds as many of values[from..to) as there is room for, publishing them at
+     * once. Producer thread only.
+     * @return the number of values added
+     */
+    int offer(Object[] values, int from, int to) {
+        long t = tail;
+        long room = buffer.length - (t - headCache);
+        if (room < to - from) {
+            headCache = (long) HEAD.getAcquire(this);
+            room = buffer.length - (t - headCache);
+        }
+        int n = (int) Math.min(room, to - from);
+        for (int i = 0; i < n; i++) {
+            buffer[(int) (t + i) & mask] = values[from + i];
+        }
+        if (n > 0)
+            TAIL.setRelease(this, t + n);
+        return n;
+    }
+
+    /**
+     * Removes the oldest value, or returns null if there is none. Consumer thread only.
+     */
+    @SuppressWarnings("unchecked")
+    T poll() {
+        long h = head;
+        if (h >= tailCache) {
+            tailCache = (long) TAIL.getAcquire(this);
+            if (h >= tailCache)
+                return null;
+        }
+        int i = (int) h & mask;
+        T ret = (T) buffer[i];
+        buffer[i] = null;
+        HEAD.setRelease(this, h + 1);
+        return ret;
+    }
+
+    /**
+     * Removes up to values.length of the oldest values into values, releasing
+     * their slots at once. Consumer thread only.
+     * @return the number of values removed
+     */
+    int drain(Object[] values) {
+        long h = head;
+        if (h >= tailCache) {
+            tailCache = (long) TAIL.getAcquire(this);
+            if (h >= tailCache)
+                return 0;
+        }
+        int n = (int) Math.min(values.length, tailCache - h);
+        for (int k = 0; k < n; k++) {
+            int i = (int) (h + k) & mask;
+            values[k] = buffer[i];
+            buffer[i] = null;
+        }
+        HEAD.setRelease(this, h + n);
+        return n;
+    }
+
+    /**
+     * Waits a little before a thread retries an offer or poll that failed, by
+     * spinning at first, then yielding, then parking briefly.
+     * @param attempt the number of failed attempts so far
+     */
+    static void backoff(int attempt) {
+        if (attempt < 64) {
+            Thread.onSpinWait();
+            return;
+        }
+        if (attempt < 128)
+            Thread.yield();
+        else
+            LockSupport.parkNanos(50000);
+    }
+
+    /**
+     * Waits a little before a thread retries an offer or poll that failed, as the
+     * wait strategy says: SPIN only spins, YIELD spins briefly and then yields, and
+     * PARK backs off like backoff.
+     * @param wait the wait strategy
+     * @param attempt the number of failed attempts so far
+     */
+    static void idle(WaitStrategy wait, int attempt) {
+        switch (wait) {
+            case SPIN -> Thread.onSpinWait();
+            case YIELD -> {
+                if (attempt < 64)
+                    Thread.onSpinWait();
+                else
+                    Thread.yield();
+            }
+            default -> backoff(attempt);
+        }
+    }
+}
@@ -0,0 +1,241 @@
+package com.cognitect.transducers;
+
+import junit.framework.TestCase;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static com.cognitect.transducers.Fns.*;
+
+/**
+ * Guards the hot paths of Fns and Impl.reduce against allocation regressions.
+ * Allocation is measured with ThreadMXBean.getThreadAllocatedBytes for the
+ * current thread. Steady-state cost is the difference between reducing 2n and
+ * n elements, so per-reduction setup (iterators, reducing function chains)
+ * cancels out.
+ *
+ * Each measurement prints a line of the form "alloc name value unit". Set the
+ * system property transducers.allocation.report to a file name to also append
+ * the lines to that file, so that reports can be diffed between versions.
+ */
+public class AllocationTest extends TestCase {
+
+    private static final int N = 100000;
+    private static final int WARMUP = 20;
+    private static final int RUNS = 5;
+
+    private static final com.sun.management.ThreadMXBean threads = threadMXBean();
+
+    private static com.sun.management.ThreadMXBean threadMXBean() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean tb = (com.sun.management.ThreadMXBean) bean;
+            if (tb.isThreadAllocatedMemorySupported()) {
+                tb.setThreadAllocatedMemoryEnabled(true);
+                return tb;
+            }
+        }
+        return null;
+    }
+
+    private static List<Integer> ints(final int n) {
+        List<Integer> ret = new ArrayList<Integer>(n);
+        for(int i = 0; i < n; i++) {
+            ret.add(i);
+        }
+        return ret;
+    }
+
+    private static final List<Integer> small = ints(N);
+    private static final List<Integer> large = ints(2 * N);
+
+    // Counts inputs into a preallocated holder, so the sink itself never allocates.
+    private static <T> IReducingFunction<long[], T> counter() {
+        return new AReducingFunction<long[], T>() {
+            @Override
+            public long[] apply(long[] result, T input, AtomicBoolean reduced) {
+                result[0]++;
+                return result;
+            }
+        };
+    }
+
+    private static <T> long allocated(ITransducer<T, Integer> xf, IReducingFunction<long[], ? super T> rf, List<Integer> input) {
+        long[] holder = new long[1];
+        AtomicBoolean reduced = new AtomicBoolean();
+        IReducingFunction<long[], Integer> f = xf.apply(rf);
+        long before = threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+        Impl.reduce(f, holder, input, reduced);
+        return threads.getThreadAllocatedBytes(Thread.currentThread().getId()) - before;
+    }
+
+    private static <T> double bytesPer(ITransducer<T, Integer> xf, IReducingFunction<long[], ? super T> rf, long units) {
+        for (int i = 0; i < WARMUP; i++) {
+            allocated(xf, rf, small);
+            allocated(xf, rf, large);
+        }
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < RUNS; i++) {
+            long delta = allocated(xf, rf, large) - allocated(xf, rf, small);
+            best = Math.min(best, delta);
+        }
+        return Math.max(0, best) / (double) units;
+    }
+
+    private static void report(String name, double value, String unit) {
+        String line = String.format(Locale.US, "alloc %-14s %10.3f %s", name, value, unit);
+        System.out.println(line);
+        String file = System.getProperty("transducers.allocation.report");
+        if (file != null) {
+            PrintWriter out = null;
+            try {
+                out = new PrintWriter(new FileWriter(file, true));
+                out.println(line);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            } finally {
+                if (out != null)
+                    out.close();
+            }
+        }
+    }
+
+    private void assertNoPerElementGarbage(String name, ITransducer<Integer, Integer> xf) {
+        if (threads == null)
+            return;
+        double perElement = bytesPer(xf, AllocationTest.<Integer>counter(), N);
+        report(name, perElement, "bytes/element");
+        assertTrue(name + " allocates " + perElement + " bytes/element", perElement < 1.0);
+    }
+
+    private void assertBoundedPerBatch(String name, ITransducer<Iterable<Integer>, Integer> xf, int batchSize, long batches) {
+        if (threads == null)
+            return;
+        double perBatch = bytesPer(xf, AllocationTest.<Iterable<Integer>>counter(), batches);
+        report(name, perBatch, "bytes/batch");
+        // one list header plus one backing array per batch
+        long bound = 64 + 16L * batchSize;
+        assertTrue(name + " allocates " + perBatch + " bytes/batch", perBatch <= bound);
+    }
+
+    private static final Predicate<Integer> even = new Predicate<Integer>() {
+        @Override
+        public boolean test(Integer i) {
+            return (i & 1) == 0;
+        }
+    };
+
+    private static final Function<Integer, Integer> identity = new Function<Integer, Integer>() {
+        @Override
+        public Integer apply(Integer i) {
+            return i;
+        }
+    };
+
+    public void testMap() throws Exception {
+        assertNoPerElementGarbage("map", map(identity));
+    }
+
+    public void testFilter() throws Exception {
+        assertNoPerElementGarbage("filter", filter(even));
+    }
+
+    public void testRemove() throws Exception {
+        assertNoPerElementGarbage("remove", remove(even));
+    }
+
+    public void testTake() throws Exception {
+        assertNoPerElementGarbage("take", Fns.<Integer>take(Long.MAX_VALUE));
+    }
+
+    public void testDrop() throws Exception {
+        assertNoPerElementGarbage("drop", Fns.<Integer>drop(10));
+    }
+
+    public void testTakeNth() throws Exception {
+        assertNoPerElementGarbage("takeNth", Fns.<Integer>takeNth(3));
+    }
+
+    public void testKeep() throws Exception {
+        assertNoPerElementGarbage("keep", keep(identity));
+    }
+
+    public void testComposed() throws Exception {
+        assertNoPerElementGarbage("composed",
+                filter(even).comp(map(identity)).comp(Fns.<Integer>take(Long.MAX_VALUE)));
+    }
+
+    public void testPartitionAll() throws Exception {
+        int n = 32;
+        assertBoundedPerBatch("partitionAll", Fns.<Integer>partitionAll(n), n, N / n);
+    }
+
+    public void testPartitionBy() throws Exception {
+        final int n = 32;
+        assertBoundedPerBatch("partitionBy", partitionBy(new Function<Integer, Boolean>() {
+            @Override
+            public Boolean apply(Integer i) {
+                return (i / n) % 2 == 0;
+            }
+        }), n, N / n);
+    }
+
+    public void testPartitionByReduce() throws Exception {
+        if (threads == null)
+            return;
+        final int n = 1024;
+        IReducingFunction<long[], Integer> sum = new AReducingFunction<long[], Integer>() {
+            @Override
+            public long[] apply() {
+                return new long[1];
+            }
+
+            @Override
+            public long[] apply(long[] result, Integer input, AtomicBoolean reduced) {
+                result[0] += input;
+                return result;
+            }
+        };
+        ITransducer<long[], Integer> xf = Fns.<long[], Integer, Boolean>partitionByReduce(new Function<Integer, Boolean>() {
+            @Override
+            public Boolean apply(Integer i) {
+                return (i / n) % 2 == 0;
+            }
+        }, sum);
+        double perRun = bytesPer(xf, AllocationTest.<long[]>counter(), N / n);
+        report("partitionByReduce", perRun, "bytes/batch");
+        // one accumulator per run, however long the run
+        assertTrue("partitionByReduce allocates " + perRun + " bytes/batch", perRun <= 64);
+    }
+
+    private static long sinkAllocated(ITransducer<Integer, Integer> xf, List<Integer> input) {
+        Sink<long[], Integer> sink = sink(xf, AllocationTest.<Integer>counter(), new long[1]).open();
+        long before = threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+        for (int i = 0; i < input.size(); i++) {
+            sink.push(input.get(i));
+        }
+        sink.close();
+        return threads.getThreadAllocatedBytes(Thread.currentThread().getId()) - before;
+    }
+
+    public void testSink() throws Exception {
+        if (threads == null)
+            return;
+        ITransducer<Integer, Integer> xf = filter(even).comp(map(identity));
+        for (int i = 0; i < WARMUP; i++) {
+            sinkAllocated(xf, small);
+            sinkAllocated(xf, large);
+        }
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < RUNS; i++) {
+            best = Math.min(best, sinkAllocated(xf, large) - sinkAllocated(xf, small));
+        }
+        double perElement = Math.max(0, best) / (double) N;
+        report("sink", perElement, "bytes/element");
+        assertTrue("sink allocates " + perElement + " bytes/element", perElement < 1.0);
+    }
+}
@@ -0,0 +1,90 @@
+package com.cognitect.transducers;
+
+import junit.framework.TestCase;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static com.cognitect.transducers.Fns.*;
+
+public class ChunkedListTest extends TestCase {
+
+    private List<Integer> ints(int n) {
+        List<Integer> ret = new ArrayList<Integer>(n);
+        for(int i = 0; i < n; i++) {
+            ret.add(i);
+        }
+        return ret;
+    }
+
+    private static final Predicate<Integer> odd = new Predicate<Integer>() {
+        @Override
+        public boolean test(Integer i) {
+            return i % 2 == 1;
+        }
+    };
+
+    private static final IReducingFunction<Long, Integer> sum = new AReducingFunction<Long, Integer>() {
+        @Override
+        public Long apply(Long result, Integer input, AtomicBoolean reduced) {
+            return result + input;
+        }
+    };
+
+    public void testAppendAndRead() throws Exception {
+        ChunkedList<Integer> list = new ChunkedList<Integer>(5);
+        assertTrue(list.isEmpty());
+        for (int i = 0; i < 100; i++) {
+            list.add(i);
+        }
+        assertEquals(100, list.size());
+        assertEquals(ints(100), list);
+        assertEquals(ints(100), new ArrayList<Integer>(list));
+        assertEquals(Integer.valueOf(42), list.set(42, -1));
+        assertEquals(Integer.valueOf(-1), list.get(42));
+        try {
+            list.get(100);
+            fail("expected IndexOutOfBoundsException");
+        } catch (IndexOutOfBoundsException e) {
+        }
+        try {
+            list.remove(0);
+            fail("expected UnsupportedOperationException");
+        } catch (UnsupportedOperationException e) {
+        }
+        list.clear();
+        assertEquals(0, list.size());
+        list.add(7);
+        assertEquals(Arrays.asList(7), list);
+    }
+
+    public void testToArray() throws Exception {
+        ChunkedList<Integer> list = intoChunked(filter(odd), ints(5000));
+        assertEquals(2500, list.size());
+        Integer[] flat = list.toArray(new Integer[0]);
+        assertEquals(2500, flat.length);
+        assertEquals(Integer.valueOf(4999), flat[2499]);
+        Object[] objects = list.toArray();
+        assertEquals(Integer.valueOf(1), objects[0]);
+        Integer[] roomy = new Integer[2502];
+        Arrays.fill(roomy, 0);
+        assertSame(roomy, list.toArray(roomy));
+        assertNull(roomy[2500]);
+
+        Integer[] viaIntoArray = intoArray(filter(odd), ints(5000), new Integer[0]);
+        assertTrue(Arrays.equals(flat, viaIntoArray));
+    }
+
+    public void testReduceRange() throws Exception {
+        ChunkedList<Integer> list = new ChunkedList<Integer>(16);
+        list.addAll(ints(1000));
+        assertEquals(Long.valueOf(999 * 1000 / 2), transduce(Fns.<Integer>take(1000), sum, 0L, list));
+        long expected = 0;
+        for (int i = 10; i < 60; i++) {
+            expected += i;
+        }
+        assertEquals(Long.valueOf(expected), transduce(Fns.<Integer>drop(10).comp(Fns.<Integer>take(50)), sum, 0L, list));
+        assertEquals(Long.valueOf(0), transduce(Fns.<Integer>drop(2000), sum, 0L, list));
+        assertEquals(Long.valueOf(999), transduce(Fns.<Integer>drop(999), sum, 0L, list));
+    }
+}
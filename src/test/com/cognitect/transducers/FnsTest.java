@@ -2,7 +2,14 @@ package com.cognitect.transducers;
 
 import junit.framework.TestCase;
 
+import java.io.File;
+import java.nio.charset.Charset;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import static com.cognitect.transducers.Fns.*;
@@ -213,6 +220,70 @@ public class FnsTest extends TestCase {
 
     }
 
+    public void testStatelessStagesForward() throws Exception {
+        Predicate<Integer> odd = new Predicate<Integer>() {
+            @Override
+            public boolean test(Integer i) {
+                return i % 2 != 0;
+            }
+        };
+        Function<Integer, Integer> inc = new Function<Integer, Integer>() {
+            @Override
+            public Integer apply(Integer i) {
+                return i + 1;
+            }
+        };
+        Predicate<Integer> big = new Predicate<Integer>() {
+            @Override
+            public boolean test(Integer i) {
+                return i > 8;
+            }
+        };
+        Function<Integer, Integer> notFive = new Function<Integer, Integer>() {
+            @Override
+            public Integer apply(Integer i) {
+                return i == 5 ? null : i;
+            }
+        };
+        ITransducer<Integer, Integer> stateless = filter(odd).comp(map(inc)).comp(remove(big)).comp(keep(notFive));
+
+        // checkpoints pass through to the stateful stage after them
+        assertResumes(stateless.comp(Fns.<Integer>partitionAll(2)), ints(12));
+        List<List<Integer>> nested = new ArrayList<List<Integer>>();
+        nested.add(ints(3));
+        nested.add(ints(4));
+        nested.add(ints(5));
+        assertResumes(Fns.<Integer, List<Integer>>cat().comp(Fns.<Integer>partitionAll(5)), nested);
+
+        // and so do ticks
+        ManualClock clock = new ManualClock();
+        List<List<Integer>> batches = new ArrayList<List<Integer>>();
+        Sink<List<List<Integer>>, Integer> sink = sink(stateless.comp(Fns.<Integer>batch(10, 10, TimeUnit.MILLISECONDS, clock)),
+                FnsTest.<List<Integer>>addAll(), batches, clock).open();
+        for (int i = 0; i < 4; i++) {
+            sink.push(i);
+        }
+        clock.advance(10, TimeUnit.MILLISECONDS);
+        assertEquals(1, batches.size());
+        assertEquals(Arrays.asList(2, 4), batches.get(0));
+        sink.close();
+
+        // a list that changes size during the reduction fails like its iterator would
+        final List<Integer> shrinking = ints(10);
+        try {
+            transduce(map(inc), new IStepFunction<List<Integer>, Integer>() {
+                @Override
+                public List<Integer> apply(List<Integer> result, Integer input, AtomicBoolean reduced) {
+                    shrinking.remove(shrinking.size() - 1);
+                    result.add(input);
+                    return result;
+                }
+            }, new ArrayList<Integer>(), shrinking);
+            fail();
+        } catch (ConcurrentModificationException e) {
+        }
+    }
+
     public void testTake() throws Exception {
         ITransducer<Integer, Integer> xf = take(5);
         List<Integer> five = transduce(xf, new IStepFunction<List<Integer>, Integer>() {
@@ -492,4 +563,1501 @@ public class FnsTest extends TestCase {
 
         assertEquals(14, res.size());
     }
-}
\ No newline at end of file
+    private static <T> IReducingFunction<List<T>, T> addAll() {
+        return new AReducingFunction<List<T>, T>() {
+            @Override
+            public List<T> apply(List<T> result, T input, AtomicBoolean reduced) {
+                result.add(input);
+                return result;
+            }
+        };
+    }
+
+    private <T> List<T> pushConcurrently(ITransducer<T, Integer> xf, int threads, final int perThread) throws Exception {
+        final IReducingFunction<List<T>, Integer> f = xf.apply(concurrentSink(FnsTest.<T>addAll()));
+        final List<T> init = new ArrayList<T>();
+        final AtomicBoolean reduced = new AtomicBoolean();
+        Thread[] producers = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            producers[i] = new Thread() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < perThread && !reduced.get(); j++) {
+                        f.apply(init, j, reduced);
+                    }
+                }
+            };
+            producers[i].start();
+        }
+        for (Thread t : producers)
+            t.join();
+        return f.apply(init);
+    }
+
+    public void testConcurrentTakeAndDrop() throws Exception {
+        assertEquals(100, pushConcurrently(Fns.<Integer>concurrentTake(100), 4, 1000).size());
+        assertEquals(3900, pushConcurrently(Fns.<Integer>concurrentDrop(100), 4, 1000).size());
+        assertEquals(2000, pushConcurrently(Fns.<Integer>concurrentTakeNth(2), 4, 1000).size());
+    }
+
+    public void testConcurrentKeepIndexed() throws Exception {
+        List<Integer> idxs = pushConcurrently(concurrentKeepIndexed(new BiFunction<Long, Integer, Integer>() {
+            @Override
+            public Integer apply(Long idx, Integer integer) {
+                return idx.intValue();
+            }
+        }), 4, 1000);
+
+        assertEquals(4000, idxs.size());
+        assertEquals(4000, new HashSet<Integer>(idxs).size());
+        assertEquals(4000, (int) Collections.max(idxs));
+    }
+
+    public void testConcurrentDedupe() throws Exception {
+        Integer[] seed = {1,2,2,3,4,5,5,5,5,5,5,5,0};
+        List<Integer> nums = transduce(Fns.<Integer>concurrentDedupe(), FnsTest.<Integer>addAll(),
+                new ArrayList<Integer>(), Arrays.asList(seed));
+
+        Integer[] expected = {1,2,3,4,5,0};
+
+        assertTrue(nums.equals(Arrays.asList(expected)));
+
+        final Integer seven = 7;
+        List<Integer> sevens = pushConcurrently(map(new Function<Integer, Integer>() {
+            @Override
+            public Integer apply(Integer i) {
+                return seven;
+            }
+        }).comp(Fns.<Integer>concurrentDedupe()), 4, 5000);
+        assertEquals(Arrays.asList(7), sevens);
+
+        List<Integer> runs = pushConcurrently(map(new Function<Integer, Integer>() {
+            @Override
+            public Integer apply(Integer i) {
+                return i / 1250;
+            }
+        }).comp(Fns.<Integer>concurrentDedupe()), 4, 5000);
+        assertEquals(new HashSet<Integer>(Arrays.asList(0, 1, 2, 3)), new HashSet<Integer>(runs));
+        assertTrue(runs.size() < 20000);
+    }
+
+    public void testConcurrentSinkDrainsIncrementally() throws Exception {
+        final List<Integer> fed = new ArrayList<Integer>();
+        IReducingFunction<List<Integer>, Integer> sink = concurrentSink(new AReducingFunction<List<Integer>, Integer>() {
+            @Override
+            public List<Integer> apply(List<Integer> result, Integer input, AtomicBoolean reduced) {
+                result.add(input);
+                if (result.size() == 3000)
+                    reduced.set(true);
+                return result;
+            }
+        });
+        AtomicBoolean reduced = new AtomicBoolean();
+        int pushed = 0;
+        while (!reduced.get()) {
+            sink.apply(fed, pushed++, reduced);
+            if (pushed == 2048)
+                assertEquals(2048, fed.size());
+        }
+        assertEquals(3072, pushed);
+        assertEquals(ints(3000), sink.apply(fed));
+    }
+    public void testRandomSample() throws Exception {
+        List<Integer> all = transduce(Fns.<Integer>randomSample(1.0), FnsTest.<Integer>addAll(), new ArrayList<Integer>(), ints(100));
+        assertEquals(ints(100), all);
+
+        List<Integer> none = transduce(Fns.<Integer>randomSample(0.0), FnsTest.<Integer>addAll(), new ArrayList<Integer>(), ints(100));
+        assertTrue(none.isEmpty());
+
+        List<Integer> some = transduce(Fns.<Integer>randomSample(0.1), FnsTest.<Integer>addAll(), new ArrayList<Integer>(), ints(100000));
+        assertTrue(some.size() > 9000 && some.size() < 11000);
+
+        ITransducer<Integer, Integer> seeded = randomSample(0.01, 42l);
+        List<Integer> a = transduce(seeded, FnsTest.<Integer>addAll(), new ArrayList<Integer>(), ints(10000));
+        List<Integer> b = transduce(seeded, FnsTest.<Integer>addAll(), new ArrayList<Integer>(), ints(10000));
+        assertFalse(a.isEmpty());
+        assertEquals(a, b);
+    }
+
+    public void testReservoirSample() throws Exception {
+        List<Integer> few = transduce(Fns.<Integer>reservoirSample(10), FnsTest.<Integer>addAll(), new ArrayList<Integer>(), ints(5));
+        assertEquals(ints(5), few);
+
+        List<Integer> none = transduce(Fns.<Integer>reservoirSample(0), FnsTest.<Integer>addAll(), new ArrayList<Integer>(), ints(5));
+        assertTrue(none.isEmpty());
+
+        List<Integer> sample = transduce(Fns.<Integer>reservoirSample(10), FnsTest.<Integer>addAll(), new ArrayList<Integer>(), ints(100000));
+        assertEquals(10, sample.size());
+        assertEquals(10, new HashSet<Integer>(sample).size());
+
+        ITransducer<Integer, Integer> seeded = reservoirSample(10, 7l);
+        assertEquals(transduce(seeded, FnsTest.<Integer>addAll(), new ArrayList<Integer>(), ints(1000)),
+                transduce(seeded, FnsTest.<Integer>addAll(), new ArrayList<Integer>(), ints(1000)));
+
+        // every position should be about equally likely to be sampled
+        int[] hits = new int[10];
+        for (int i = 0; i < 2000; i++) {
+            for (Integer n : transduce(Fns.<Integer>reservoirSample(1), FnsTest.<Integer>addAll(), new ArrayList<Integer>(), ints(10))) {
+                hits[n]++;
+            }
+        }
+        for (int h : hits) {
+            assertTrue(h > 100 && h < 300);
+        }
+    }
+    public void testTopK() throws Exception {
+        List<Integer> shuffled = ints(1000);
+        Collections.shuffle(shuffled, new Random(1));
+        Comparator<Integer> natural = new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return a.compareTo(b);
+            }
+        };
+
+        Integer[] top = {999,998,997,996,995};
+        Integer[] bottom = {0,1,2,3,4};
+
+        assertEquals(Arrays.asList(top), transduce(Fns.<Integer>topK(5, natural), FnsTest.<Integer>addAll(), new ArrayList<Integer>(), shuffled));
+        assertEquals(Arrays.asList(bottom), transduce(Fns.<Integer>bottomK(5, natural), FnsTest.<Integer>addAll(), new ArrayList<Integer>(), shuffled));
+
+        Function<Integer, Integer> negated = new Function<Integer, Integer>() {
+            @Override
+            public Integer apply(Integer i) {
+                return -i;
+            }
+        };
+        assertEquals(Arrays.asList(bottom), transduce(topKBy(5, negated), FnsTest.<Integer>addAll(), new ArrayList<Integer>(), shuffled));
+        assertEquals(Arrays.asList(top), transduce(bottomKBy(5, negated), FnsTest.<Integer>addAll(), new ArrayList<Integer>(), shuffled));
+
+        ToLongFunction<Integer> asLong = new ToLongFunction<Integer>() {
+            @Override
+            public long applyAsLong(Integer i) {
+                return i - 500;
+            }
+        };
+        assertEquals(Arrays.asList(top), transduce(topKByLong(5, asLong), FnsTest.<Integer>addAll(), new ArrayList<Integer>(), shuffled));
+        assertEquals(Arrays.asList(bottom), transduce(bottomKByLong(5, asLong), FnsTest.<Integer>addAll(), new ArrayList<Integer>(), shuffled));
+
+        ToDoubleFunction<Integer> asDouble = new ToDoubleFunction<Integer>() {
+            @Override
+            public double applyAsDouble(Integer i) {
+                return (i - 500) / 7.0;
+            }
+        };
+        assertEquals(Arrays.asList(top), transduce(topKByDouble(5, asDouble), FnsTest.<Integer>addAll(), new ArrayList<Integer>(), shuffled));
+        assertEquals(Arrays.asList(bottom), transduce(bottomKByDouble(5, asDouble), FnsTest.<Integer>addAll(), new ArrayList<Integer>(), shuffled));
+
+        assertEquals(ints(3), transduce(Fns.<Integer>bottomK(5, natural), FnsTest.<Integer>addAll(), new ArrayList<Integer>(), ints(3)));
+    }
+    public void testSortBy() throws Exception {
+        Comparator<Long> natural = new Comparator<Long>() {
+            @Override
+            public int compare(Long a, Long b) {
+                return a.compareTo(b);
+            }
+        };
+        List<Long> shuffled = longs(10000);
+        Collections.shuffle(shuffled, new Random(2));
+
+        List<Long> inMemory = transduce(sortBy(natural), FnsTest.<Long>addAll(), new ArrayList<Long>(), shuffled);
+        assertEquals(longs(10000), inMemory);
+
+        File dir = File.createTempFile("sort", "test");
+        dir.delete();
+        dir.mkdir();
+        try {
+            List<Long> spilled = transduce(sortBy(natural, Codecs.LONG, 1000, dir), FnsTest.<Long>addAll(), new ArrayList<Long>(), shuffled);
+            assertEquals(longs(10000), spilled);
+            assertEquals(0, dir.list().length);
+
+            // take after sort stops the merge early and still removes the runs
+            List<Long> first = transduce(sortBy(natural, Codecs.LONG, 1000, dir).comp(Fns.<Long>take(5)),
+                    FnsTest.<Long>addAll(), new ArrayList<Long>(), shuffled);
+            assertEquals(longs(5), first);
+            assertEquals(0, dir.list().length);
+
+            // 100 runs merged at most 3 at a time take several passes
+            ExternalSort<Long> sort = new ExternalSort<Long>(natural, Codecs.LONG, 100, 3, dir);
+            for (Long l : shuffled) {
+                sort.add(l);
+            }
+            assertEquals(100, dir.list().length);
+            List<Long> merged = sort.reduce(FnsTest.<Long>addAll(), new ArrayList<Long>(), new AtomicBoolean());
+            assertEquals(longs(10000), merged);
+            assertEquals(0, dir.list().length);
+        } finally {
+            dir.delete();
+        }
+
+        // ties keep their input order
+        Comparator<Long> byTens = new Comparator<Long>() {
+            @Override
+            public int compare(Long a, Long b) {
+                return Long.valueOf(a / 10).compareTo(b / 10);
+            }
+        };
+        List<Long> reversed = longs(100);
+        Collections.reverse(reversed);
+        List<Long> stable = transduce(sortBy(byTens, Codecs.LONG, 7, null), FnsTest.<Long>addAll(), new ArrayList<Long>(), reversed);
+        assertEquals(Long.valueOf(9), stable.get(0));
+        assertEquals(Long.valueOf(0), stable.get(9));
+        assertEquals(Long.valueOf(99), stable.get(90));
+
+        ExternalSort<Long> passes = new ExternalSort<Long>(byTens, Codecs.LONG, 7, 2, null);
+        for (Long l : reversed) {
+            passes.add(l);
+        }
+        assertEquals(stable, passes.reduce(FnsTest.<Long>addAll(), new ArrayList<Long>(), new AtomicBoolean()));
+    }
+    public void testCachedMap() throws Exception {
+        final int[] calls = {0};
+        Function<Integer, String> slow = new Function<Integer, String>() {
+            @Override
+            public String apply(Integer i) {
+                calls[0]++;
+                return (i == 0) ? null : i.toString();
+            }
+        };
+        List<Integer> repetitive = new ArrayList<Integer>();
+        for (int i = 0; i < 100; i++) {
+            repetitive.add(i % 5);
+        }
+
+        List<String> vals = transduce(cachedMap(slow, 10), FnsTest.<String>addAll(), new ArrayList<String>(), repetitive);
+        assertEquals(100, vals.size());
+        assertNull(vals.get(0));
+        assertEquals("4", vals.get(99));
+        assertEquals(5, calls[0]);
+
+        BoundedCache<Integer, String> lru = new BoundedCache<Integer, String>(3, BoundedCache.Policy.LRU, false);
+        transduce(cachedMap(slow, lru), FnsTest.<String>addAll(), new ArrayList<String>(), repetitive);
+        assertEquals(100, lru.misses());
+        assertEquals(0, lru.hits());
+        assertEquals(97, lru.evictions());
+
+        // a popular key survives a scan of one-off keys under TinyLFU, but not under LRU
+        List<Integer> scan = new ArrayList<Integer>();
+        for (int i = 0; i < 50; i++) {
+            scan.add(1);
+        }
+        for (int i = 100; i < 200; i++) {
+            scan.add(i);
+        }
+        scan.add(1);
+        BoundedCache<Integer, String> lfu = new BoundedCache<Integer, String>(20, BoundedCache.Policy.TINY_LFU, false);
+        transduce(cachedMap(slow, lfu), FnsTest.<String>addAll(), new ArrayList<String>(), scan);
+        assertEquals(50, lfu.hits());
+        assertTrue(lfu.rejections() > 70);
+
+        lru = new BoundedCache<Integer, String>(20, BoundedCache.Policy.LRU, false);
+        transduce(cachedMap(slow, lru), FnsTest.<String>addAll(), new ArrayList<String>(), scan);
+        assertEquals(49, lru.hits());
+    }
+
+    public void testSharedCachedMap() throws Exception {
+        final BoundedCache<Integer, Integer> cache = new BoundedCache<Integer, Integer>(100, BoundedCache.Policy.TINY_LFU, true);
+        final ITransducer<Integer, Integer> xf = cachedMap(new Function<Integer, Integer>() {
+            @Override
+            public Integer apply(Integer i) {
+                return i * 2;
+            }
+        }, cache);
+        final List<Integer> input = new ArrayList<Integer>();
+        for (int i = 0; i < 10000; i++) {
+            input.add(i % 50);
+        }
+        final List<List<Integer>> results = Collections.synchronizedList(new ArrayList<List<Integer>>());
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    results.add(transduce(xf, FnsTest.<Integer>addAll(), new ArrayList<Integer>(), input));
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread t : threads)
+            t.join();
+        for (List<Integer> r : results) {
+            assertEquals(10000, r.size());
+            assertEquals(Integer.valueOf(98), r.get(49));
+        }
+        assertEquals(40000, cache.hits() + cache.misses());
+        assertTrue(cache.size() <= 50);
+    }
+    private static AsyncStage<Integer, Integer> delayed(final ScheduledExecutorService timer, final AtomicInteger inFlight,
+                                                        final AtomicInteger maxSeen, final List<Deferred<Integer>> started, int maxInFlight) {
+        final Random random = new Random(5);
+        return mapAsync(new Function<Integer, Deferred<Integer>>() {
+            @Override
+            public Deferred<Integer> apply(final Integer i) {
+                final Deferred<Integer> d = new Deferred<Integer>();
+                started.add(d);
+                int now = inFlight.incrementAndGet();
+                synchronized (maxSeen) {
+                    maxSeen.set(Math.max(maxSeen.get(), now));
+                }
+                timer.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        inFlight.decrementAndGet();
+                        d.complete(i * 10);
+                    }
+                }, random.nextInt(3), TimeUnit.MILLISECONDS);
+                return d;
+            }
+        }, maxInFlight);
+    }
+
+    public void testTransduceAsync() throws Exception {
+        ScheduledExecutorService timer = Executors.newScheduledThreadPool(4);
+        try {
+            AtomicInteger inFlight = new AtomicInteger();
+            AtomicInteger maxSeen = new AtomicInteger();
+            List<Deferred<Integer>> started = Collections.synchronizedList(new ArrayList<Deferred<Integer>>());
+            ITransducer<Integer, Integer> xf = filter(new Predicate<Integer>() {
+                @Override
+                public boolean test(Integer i) {
+                    return i % 20 == 0;
+                }
+            });
+
+            Deferred<List<Integer>> d = transduceAsync(delayed(timer, inFlight, maxSeen, started, 4), xf,
+                    FnsTest.<Integer>addAll(), new ArrayList<Integer>(), ints(100));
+            List<Integer> vals = d.get(10, TimeUnit.SECONDS);
+            assertEquals(50, vals.size());
+            for (int i = 0; i < vals.size(); i++) {
+                assertEquals(Integer.valueOf(i * 20), vals.get(i));
+            }
+            assertTrue(maxSeen.get() <= 4);
+
+            // take stops the reduction and cancels what is still pending
+            started.clear();
+            Deferred<List<Integer>> first = transduceAsync(delayed(timer, inFlight, maxSeen, started, 8), Fns.<Integer>take(3),
+                    FnsTest.<Integer>addAll(), new ArrayList<Integer>(), ints(1000));
+            Integer[] expected = {0,10,20};
+            assertEquals(Arrays.asList(expected), first.get(10, TimeUnit.SECONDS));
+            assertTrue(started.size() < 20);
+            synchronized (started) {
+                for (Deferred<Integer> s : started) {
+                    assertTrue(s.isDone());
+                }
+            }
+
+            // a failed Deferred fails the reduction
+            Deferred<List<Integer>> failed = transduceAsync(mapAsync(new Function<Integer, Deferred<Integer>>() {
+                @Override
+                public Deferred<Integer> apply(Integer i) {
+                    Deferred<Integer> ret = new Deferred<Integer>();
+                    if (i == 5)
+                        ret.fail(new IllegalStateException("boom"));
+                    else
+                        ret.complete(i);
+                    return ret;
+                }
+            }, 2), Fns.<Integer>take(100), FnsTest.<Integer>addAll(), new ArrayList<Integer>(), ints(10));
+            try {
+                failed.get();
+                fail();
+            } catch (ExecutionException e) {
+                assertEquals("boom", e.getCause().getMessage());
+            }
+        } finally {
+            timer.shutdownNow();
+        }
+    }
+
+    public void testCheckpoint() throws Exception {
+        ITransducer<Iterable<Integer>, Integer> xf = Fns.<Integer>take(8).comp(Fns.<Integer>dedupe()).comp(Fns.<Integer>partitionAll(3));
+        Integer[] data = {0, 1, 1, 2, 3, 4, 5, 6, 7, 8, 9};
+
+        IReducingFunction<List<Iterable<Integer>>, Integer> first = xf.apply(FnsTest.<Iterable<Integer>>addAll());
+        List<Iterable<Integer>> result = new ArrayList<Iterable<Integer>>();
+        AtomicBoolean reduced = new AtomicBoolean();
+        for (int i = 0; i < 5; i++) {
+            result = first.apply(result, data[i], reduced);
+        }
+        byte[] state = checkpoint(first);
+
+        // resume in a fresh pipeline from the saved result and input position
+        IReducingFunction<List<Iterable<Integer>>, Integer> second = restore(xf.apply(FnsTest.<Iterable<Integer>>addAll()), state);
+        for (int i = 5; i < data.length && !reduced.get(); i++) {
+            result = second.apply(result, data[i], reduced);
+        }
+        result = second.apply(result);
+
+        List<Iterable<Integer>> expected = transduce(xf, FnsTest.<Iterable<Integer>>addAll(), new ArrayList<Iterable<Integer>>(), Arrays.asList(data));
+        assertEquals(expected, result);
+        assertEquals(new ArrayList<List<Integer>>() {{
+            add(Arrays.asList(0, 1, 2));
+            add(Arrays.asList(3, 4, 5));
+            add(Arrays.asList(6));
+        }}, result);
+
+        // a restored prior is a copy, so dedupe compares the next input by value
+        IReducingFunction<List<String>, String> deduping = Fns.<String>dedupe().apply(FnsTest.<String>addAll());
+        List<String> strings = deduping.apply(new ArrayList<String>(), new String("5"), reduced);
+        IReducingFunction<List<String>, String> restored = restore(Fns.<String>dedupe().apply(FnsTest.<String>addAll()), checkpoint(deduping));
+        strings = restored.apply(strings, new String("5"), reduced);
+        strings = restored.apply(strings, new String("6"), reduced);
+        assertEquals(Arrays.asList("5", "6"), restored.apply(strings));
+
+        // buffered inputs are written with a codec if the stage has one
+        IReducingFunction<List<Iterable<Long>>, Long> serialized = Fns.<Long>partitionAll(100).apply(FnsTest.<Iterable<Long>>addAll());
+        IReducingFunction<List<Iterable<Long>>, Long> encoded = Fns.<Long>partitionAll(100, Codecs.LONG).apply(FnsTest.<Iterable<Long>>addAll());
+        List<Iterable<Long>> parts = new ArrayList<Iterable<Long>>();
+        for (long l = 0; l < 50; l++) {
+            serialized.apply(parts, l, reduced);
+            encoded.apply(parts, l, reduced);
+        }
+        assertEquals(4 + 50 * 8, checkpoint(encoded).length);
+        assertTrue(checkpoint(serialized).length < 50 * 20);
+        IReducingFunction<List<Iterable<Long>>, Long> decoded = restore(Fns.<Long>partitionAll(100, Codecs.LONG).apply(FnsTest.<Iterable<Long>>addAll()), checkpoint(encoded));
+        assertEquals(Collections.singletonList(longs(50)), decoded.apply(parts));
+        IReducingFunction<List<Iterable<Long>>, Long> deserialized = restore(Fns.<Long>partitionAll(100).apply(FnsTest.<Iterable<Long>>addAll()), checkpoint(serialized));
+        assertEquals(Collections.singletonList(longs(50)), deserialized.apply(new ArrayList<Iterable<Long>>()));
+
+        // state restored into a pipeline of a different shape is rejected
+        try {
+            restore(Fns.<Integer>take(7).apply(FnsTest.<Integer>addAll()), new byte[] {1});
+            fail();
+        } catch (IllegalArgumentException e) {
+        }
+    }
+
+    // steps a fresh reducing function through data, checkpointing and restoring it into another at the given position
+    private static <A, B> List<A> resumed(ITransducer<A, B> xf, List<B> data, int at) {
+        IReducingFunction<List<A>, B> first = xf.apply(FnsTest.<A>addAll());
+        List<A> result = new ArrayList<A>();
+        AtomicBoolean reduced = new AtomicBoolean();
+        for (int i = 0; i < at && !reduced.get(); i++) {
+            result = first.apply(result, data.get(i), reduced);
+        }
+        IReducingFunction<List<A>, B> second = restore(xf.apply(FnsTest.<A>addAll()), checkpoint(first));
+        for (int i = at; i < data.size() && !reduced.get(); i++) {
+            result = second.apply(result, data.get(i), reduced);
+        }
+        return second.apply(result);
+    }
+
+    private <A, B> void assertResumes(ITransducer<A, B> xf, List<B> data) {
+        List<A> expected = transduce(xf, FnsTest.<A>addAll(), new ArrayList<A>(), data);
+        assertEquals(expected, resumed(xf, data, data.size() / 2));
+    }
+
+    public void testCheckpointStatefulStages() throws Exception {
+        Comparator<Long> natural = new Comparator<Long>() {
+            @Override
+            public int compare(Long a, Long b) {
+                return a.compareTo(b);
+            }
+        };
+        ToLongFunction<Long> asLong = new ToLongFunction<Long>() {
+            @Override
+            public long applyAsLong(Long l) {
+                return l % 17;
+            }
+        };
+        ToDoubleFunction<Long> asDouble = new ToDoubleFunction<Long>() {
+            @Override
+            public double applyAsDouble(Long l) {
+                return l / 3.0;
+            }
+        };
+        List<Long> data = longs(200);
+        Collections.shuffle(data, new Random(4));
+
+        assertResumes(Fns.<Long>reservoirSample(10, 42), data);
+        assertResumes(Fns.<Long>topK(5, natural), data);
+        assertResumes(Fns.<Long>bottomK(5, natural), data);
+        assertResumes(Fns.<Long>topKByLong(5, asLong), data);
+        assertResumes(Fns.<Long>bottomKByDouble(5, asDouble), data);
+        assertResumes(Fns.<Long>sortBy(natural), data);
+        assertResumes(Fns.<Long>batch(7, 1, TimeUnit.HOURS, IClock.SYSTEM), data);
+        assertResumes(Fns.<Long>cancellable(CancellationToken.create(CancellationToken.Policy.THROW), 3), data);
+        assertResumes(Fns.<Long>concurrentTake(150), data);
+        assertResumes(Fns.<Long>concurrentDrop(150), data);
+        assertResumes(Fns.<Long>concurrentTakeNth(3), data);
+        assertResumes(Fns.<Long>concurrentKeepIndexed(new BiFunction<Long, Long, Long>() {
+            @Override
+            public Long apply(Long i, Long l) {
+                return (i % 2 == 0) ? l : null;
+            }
+        }), data);
+
+        // spilled runs are written into the checkpoint, and the restored sort spills them again
+        File dir = File.createTempFile("sort", "test");
+        dir.delete();
+        dir.mkdir();
+        try {
+            Comparator<Long> byTens = new Comparator<Long>() {
+                @Override
+                public int compare(Long a, Long b) {
+                    return Long.valueOf(a / 10).compareTo(b / 10);
+                }
+            };
+            assertResumes(Fns.<Long>sortBy(byTens, Codecs.LONG, 30, dir), data);
+        } finally {
+            // the runs of the pipeline abandoned at the checkpoint are left behind
+            for (File f : dir.listFiles()) {
+                f.delete();
+            }
+            dir.delete();
+        }
+
+        // rows and characters split across the checkpoint
+        ITransducer<String, String> fields = Fns.<String>decodeDelimited(',').comp(map(new Function<DelimitedRow, String>() {
+            @Override
+            public String apply(DelimitedRow row) {
+                return Arrays.asList(row.toArray()).toString();
+            }
+        }));
+        assertEquals(Arrays.asList("[a, b]", "[cd, e,f, g]", "[hi]"), resumed(fields, Arrays.asList("a,b\nc", "d,\"e,", "f\",g\nh", "i"), 2));
+        ITransducer<String, byte[]> utf8 = decodeDelimited(',', '"', Charset.forName("UTF-8")).comp(map(new Function<DelimitedRow, String>() {
+            @Override
+            public String apply(DelimitedRow row) {
+                return row.getString(0);
+            }
+        }));
+        byte[] euro = "\u20ac\n".getBytes("UTF-8");
+        assertEquals(Arrays.asList("\u20ac"), resumed(utf8, Arrays.asList(new byte[] {euro[0], euro[1]}, new byte[] {euro[2], euro[3]}), 1));
+
+        // the downstream result of concurrentSink is part of its checkpoint
+        IReducingFunction<List<Long>, Long> sink = concurrentSink(FnsTest.<Long>addAll());
+        List<Long> init = new ArrayList<Long>();
+        AtomicBoolean reduced = new AtomicBoolean();
+        for (long l = 0; l < 1500; l++) {
+            sink.apply(init, l, reduced);
+        }
+        IReducingFunction<List<Long>, Long> sinkResumed = restore(concurrentSink(FnsTest.<Long>addAll()), checkpoint(sink));
+        for (long l = 1500; l < 2000; l++) {
+            sinkResumed.apply(init, l, reduced);
+        }
+        assertEquals(longs(2000), sinkResumed.apply(init));
+    }
+
+    public void testSink() throws Exception {
+        Sink<List<Iterable<Integer>>, Integer> sink = sink(Fns.<Integer>take(7).comp(Fns.<Integer>partitionAll(3)),
+                new AReducingFunction<List<Iterable<Integer>>, Iterable<Integer>>() {
+                    @Override
+                    public List<Iterable<Integer>> apply() {
+                        return new ArrayList<Iterable<Integer>>();
+                    }
+
+                    @Override
+                    public List<Iterable<Integer>> apply(List<Iterable<Integer>> result, Iterable<Integer> input, AtomicBoolean reduced) {
+                        result.add(input);
+                        return result;
+                    }
+                });
+        try {
+            sink.push(0);
+            fail();
+        } catch (IllegalStateException e) {
+        }
+        sink.open();
+        int pushed = 0;
+        while (!sink.push(pushed)) {
+            pushed++;
+        }
+        // take signals reduced on the first input past its limit
+        assertEquals(7, pushed);
+        assertTrue(sink.isReduced());
+        assertTrue(sink.push(100));
+
+        List<Iterable<Integer>> expected = transduce(Fns.<Integer>take(7).comp(Fns.<Integer>partitionAll(3)),
+                FnsTest.<Iterable<Integer>>addAll(), new ArrayList<Iterable<Integer>>(), ints(10));
+        assertEquals(expected, sink.close());
+
+        Sink<String, Long> strings = sink(stringify, new IStepFunction<String, String>() {
+            @Override
+            public String apply(String result, String input, AtomicBoolean reduced) {
+                return result + input;
+            }
+        }, "").open();
+        for (long i = 0; i < 5; i++) {
+            assertFalse(strings.push(i));
+        }
+        assertEquals("01234", strings.close());
+    }
+
+    public void testTransduceMerged() throws Exception {
+        Random random = new Random(7);
+        List<List<Integer>> inputs = new ArrayList<List<Integer>>();
+        List<Integer> all = new ArrayList<Integer>();
+        for (int i = 0; i < 13; i++) {
+            List<Integer> input = new ArrayList<Integer>();
+            for (int j = random.nextInt(50); j > 0; j--) {
+                input.add(random.nextInt(100));
+            }
+            Collections.sort(input);
+            inputs.add(input);
+            all.addAll(input);
+        }
+        inputs.add(new ArrayList<Integer>());
+        Collections.sort(all);
+        Comparator<Integer> natural = new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return a.compareTo(b);
+            }
+        };
+        ITransducer<Integer, Integer> xf = map(new Function<Integer, Integer>() {
+            @Override
+            public Integer apply(Integer i) {
+                return i;
+            }
+        });
+
+        List<Integer> merged = transduceMerged(xf, FnsTest.<Integer>addAll(), new ArrayList<Integer>(), natural, inputs);
+        assertEquals(all, merged);
+
+        List<Integer> single = transduceMerged(xf, FnsTest.<Integer>addAll(), new ArrayList<Integer>(), natural, inputs.subList(0, 1));
+        assertEquals(inputs.get(0), single);
+
+        List<Integer> none = transduceMerged(xf, FnsTest.<Integer>addAll(), new ArrayList<Integer>(), natural, new ArrayList<List<Integer>>());
+        assertTrue(none.isEmpty());
+
+        // stops pulling from every input once reduced
+        final int[] pulled = new int[1];
+        List<Iterable<Integer>> counted = new ArrayList<Iterable<Integer>>();
+        for (final List<Integer> input : inputs) {
+            counted.add(new Iterable<Integer>() {
+                @Override
+                public Iterator<Integer> iterator() {
+                    final Iterator<Integer> it = input.iterator();
+                    return new Iterator<Integer>() {
+                        public boolean hasNext() { return it.hasNext(); }
+                        public Integer next() { pulled[0]++; return it.next(); }
+                        public void remove() { throw new UnsupportedOperationException(); }
+                    };
+                }
+            });
+        }
+        List<Integer> first = transduceMerged(Fns.<Integer>take(5), FnsTest.<Integer>addAll(), new ArrayList<Integer>(), natural, counted);
+        assertEquals(all.subList(0, 5), first);
+        assertTrue(pulled[0] <= inputs.size() + 6);
+    }
+
+    public void testReduceZip() throws Exception {
+        List<Integer> xs = ints(10);
+        List<String> names = Arrays.asList("a", "b", "c", "d");
+        IStepFunction2<String, Integer, String> pairs = new IStepFunction2<String, Integer, String>() {
+            @Override
+            public String apply(String result, Integer x, String name, AtomicBoolean reduced) {
+                return result + name + x + " ";
+            }
+        };
+        assertEquals("a0 b1 c2 d3 ", reduceZip(pairs, "", xs, names));
+        assertEquals("a0 b1 c2 d3 ", reduceZip(pairs, "", new LinkedList<Integer>(xs), names));
+        assertEquals("a0 b1 ", reduceZip(pairs, "", new Integer[] {0, 1}, names.toArray(new String[0])));
+
+        IStepFunction3<Long, Integer, Integer, Integer> dot = new IStepFunction3<Long, Integer, Integer, Integer>() {
+            @Override
+            public Long apply(Long result, Integer a, Integer b, Integer c, AtomicBoolean reduced) {
+                if (a == 5)
+                    reduced.set(true);
+                return result + a * b * c;
+            }
+        };
+        assertEquals(Long.valueOf(0 + 1 + 8 + 27 + 64 + 125), reduceZip(dot, 0l, xs, xs, new LinkedList<Integer>(xs)));
+        assertEquals(Long.valueOf(0 + 1 + 8), reduceZip(dot, 0l, new Integer[] {0, 1, 2}, new Integer[] {0, 1, 2, 3}, new Integer[] {0, 1, 2, 3}));
+
+        ITransducer<String, Object[]> row = map(new Function<Object[], String>() {
+            @Override
+            public String apply(Object[] row) {
+                return row[0] + ":" + row[1] + ":" + row[2];
+            }
+        });
+        List<Iterable<?>> columns = new ArrayList<Iterable<?>>();
+        columns.add(xs);
+        columns.add(names);
+        columns.add(Arrays.asList(true, false, true));
+        List<String> rows = transduceZip(row, FnsTest.<String>addAll(), new ArrayList<String>(), columns);
+        assertEquals(Arrays.asList("0:a:true", "1:b:false", "2:c:true"), rows);
+
+        columns.set(0, new LinkedList<Integer>(xs));
+        rows = transduceZip(row.comp(Fns.<String>take(2)), FnsTest.<String>addAll(), new ArrayList<String>(), columns);
+        assertEquals(Arrays.asList("0:a:true", "1:b:false"), rows);
+    }
+
+    private static final ITransducer<List<String>, DelimitedRow> rowStrings = map(new Function<DelimitedRow, List<String>>() {
+        @Override
+        public List<String> apply(DelimitedRow row) {
+            return Arrays.asList(row.toArray());
+        }
+    });
+
+    public void testDecodeDelimited() throws Exception {
+        String text = "id,name,score\r\n1,\"Smith, J\",2.5\n\n2,\"say \"\"hi\"\"\",-1e3\r3,\"two\nlines\",\n4,,0.1";
+        List<List<String>> expected = new ArrayList<List<String>>() {{
+            add(Arrays.asList("id", "name", "score"));
+            add(Arrays.asList("1", "Smith, J", "2.5"));
+            add(Arrays.asList("2", "say \"hi\"", "-1e3"));
+            add(Arrays.asList("3", "two\nlines", ""));
+            add(Arrays.asList("4", "", "0.1"));
+        }};
+
+        // every way of splitting the text into two chunks decodes the same rows
+        for (int i = 0; i <= text.length(); i++) {
+            List<String> chunks = Arrays.asList(text.substring(0, i), text.substring(i));
+            List<List<String>> rows = transduce(Fns.<String>decodeDelimited(',').comp(rowStrings),
+                    FnsTest.<List<String>>addAll(), new ArrayList<List<String>>(), chunks);
+            assertEquals(expected, rows);
+        }
+
+        // filtering and parsing fields without creating strings
+        ITransducer<DelimitedRow, String> scores = Fns.<String>decodeDelimited(',').comp(filter(new Predicate<DelimitedRow>() {
+            @Override
+            public boolean test(DelimitedRow row) {
+                return row.number() > 1 && !row.fieldEquals(0, "3");
+            }
+        }));
+        double sum = transduce(scores, new IStepFunction<Double, DelimitedRow>() {
+            @Override
+            public Double apply(Double result, DelimitedRow row, AtomicBoolean reduced) {
+                return result + row.parseLong(0) * row.parseDouble(2);
+            }
+        }, 0.0, Arrays.asList(text));
+        assertEquals(1 * 2.5 + 2 * -1e3 + 4 * 0.1, sum);
+
+        // multi-byte characters split across byte chunks
+        byte[] bytes = "a\t\u00df\u20ac\n\u00e9\t\"x\ty\"".getBytes("UTF-8");
+        List<List<String>> decoded = new ArrayList<List<String>>() {{
+            add(Arrays.asList("a", "\u00df\u20ac"));
+            add(Arrays.asList("\u00e9", "x\ty"));
+        }};
+        for (int i = 0; i <= bytes.length; i++) {
+            List<byte[]> chunks = Arrays.asList(Arrays.copyOfRange(bytes, 0, i), Arrays.copyOfRange(bytes, i, bytes.length));
+            List<List<String>> rows = transduce(decodeDelimited('\t', '"', java.nio.charset.Charset.forName("UTF-8")).comp(rowStrings),
+                    FnsTest.<List<String>>addAll(), new ArrayList<List<String>>(), chunks);
+            assertEquals(decoded, rows);
+        }
+
+        try {
+            transduce(Fns.<String>decodeDelimited(',').comp(rowStrings), FnsTest.<List<String>>addAll(),
+                    new ArrayList<List<String>>(), Arrays.asList("a,\"b"));
+            fail();
+        } catch (IllegalStateException e) {
+        }
+    }
+
+    public void testDelimitedRowParse() throws Exception {
+        final String[] longs = {"0", "-0", "+7", "9223372036854775807", "-9223372036854775808", "-123456789"};
+        final String[] doubles = {"0", "1.5", "-0.001", "3.14159", "1e22", "1e-22", "2.5E+3", ".5", "5.", "123456789012345",
+                "1234567890123456789", "1e300", "4.9e-324", "NaN", "-Infinity", "0.1", "0.30000000000000004"};
+        StringBuilder line = new StringBuilder();
+        for (String l : longs) {
+            line.append(l).append(',');
+        }
+        for (String d : doubles) {
+            line.append(d).append(',');
+        }
+        line.append("x,9223372036854775808,1.2.3,");
+        // rows are only valid during the step they are passed to
+        int checked = transduce(Fns.<String>decodeDelimited(','), new IStepFunction<Integer, DelimitedRow>() {
+            @Override
+            public Integer apply(Integer result, DelimitedRow row, AtomicBoolean reduced) {
+                int f = 0;
+                for (String l : longs) {
+                    assertEquals(Long.parseLong(l), row.parseLong(f++));
+                }
+                for (String d : doubles) {
+                    assertEquals(d, Double.parseDouble(d), row.parseDouble(f++));
+                }
+                for (; f < row.size(); f++) {
+                    try {
+                        row.parseLong(f);
+                        fail();
+                    } catch (NumberFormatException e) {
+                    }
+                }
+                assertEquals(3, row.get(0).length() + row.get(1).length());
+                assertEquals("+7", row.get(2).toString());
+                assertEquals(5, row.parseInt(2) - 2);
+                return result + 1;
+            }
+        }, 0, Arrays.asList(line.toString()));
+        assertEquals(1, checked);
+    }
+
+    public void testSlicePushdown() throws Exception {
+        final int[] mapped = new int[1];
+        ITransducer<Integer, Integer> inc = map(new Function<Integer, Integer>() {
+            @Override
+            public Integer apply(Integer i) {
+                mapped[0]++;
+                return i + 1;
+            }
+        });
+        List<ITransducer<Integer, Integer>> pipelines = new ArrayList<ITransducer<Integer, Integer>>();
+        pipelines.add(Fns.<Integer>drop(990));
+        pipelines.add(Fns.<Integer>drop(20).comp(Fns.<Integer>take(5)));
+        pipelines.add(Fns.<Integer>take(50).comp(Fns.<Integer>drop(45)));
+        pipelines.add(inc.comp(Fns.<Integer>drop(500)).comp(inc).comp(Fns.<Integer>take(3)));
+        pipelines.add(Fns.<Integer>drop(5).comp(Fns.<Integer>drop(5)).comp(Fns.<Integer>take(1000)).comp(Fns.<Integer>take(4)));
+        pipelines.add(Fns.<Integer>drop(2000));
+        pipelines.add(Fns.<Integer>take(0));
+        pipelines.add(Fns.<Integer>drop(998).comp(Fns.<Integer>partitionAll(3)).comp(Fns.<Integer, Iterable<Integer>>cat()));
+        pipelines.add(Fns.<Integer>drop(10).comp(filter(new Predicate<Integer>() {
+            @Override
+            public boolean test(Integer i) {
+                return i % 100 == 0;
+            }
+        })).comp(Fns.<Integer>take(3)));
+
+        final List<Integer> data = ints(1000);
+        IReducible<Integer> reducible = new IReducible<Integer>() {
+            @Override
+            public <R> R reduce(IReducingFunction<R, ? super Integer> rf, R result, long offset, long limit, AtomicBoolean reduced) {
+                R ret = result;
+                for (long i = offset; i < data.size() && i - offset < limit && !reduced.get(); i++) {
+                    ret = rf.apply(ret, data.get((int) i), reduced);
+                }
+                return ret;
+            }
+
+            @Override
+            public Iterator<Integer> iterator() {
+                return data.iterator();
+            }
+        };
+        for (ITransducer<Integer, Integer> xf : pipelines) {
+            List<Integer> expected = transduce(xf, FnsTest.<Integer>addAll(), new ArrayList<Integer>(), new LinkedList<Integer>(data));
+            assertEquals(expected, transduce(xf, FnsTest.<Integer>addAll(), new ArrayList<Integer>(), data));
+            assertEquals(expected, transduce(xf, FnsTest.<Integer>addAll(), new ArrayList<Integer>(), data.toArray(new Integer[0])));
+            assertEquals(expected, transduce(xf, FnsTest.<Integer>addAll(), new ArrayList<Integer>(), reducible));
+        }
+
+        // skipped inputs never reach the stages ahead of drop
+        mapped[0] = 0;
+        List<Integer> page = into(inc.comp(Fns.<Integer>drop(500)).comp(Fns.<Integer>take(3)), new ArrayList<Integer>(), data);
+        assertEquals(Arrays.asList(501, 502, 503), page);
+        assertEquals(3, mapped[0]);
+    }
+
+    public void testTransduceKeyed() throws Exception {
+        final int shards = 4;
+        Function<Integer, Integer> customer = new Function<Integer, Integer>() {
+            @Override
+            public Integer apply(Integer i) {
+                return (i / 100) % 10;
+            }
+        };
+        IReducingFunction<List<Iterable<Integer>>, Iterable<Integer>> batches = new AReducingFunction<List<Iterable<Integer>>, Iterable<Integer>>() {
+            @Override
+            public List<Iterable<Integer>> apply() {
+                return new ArrayList<Iterable<Integer>>();
+            }
+
+            @Override
+            public List<Iterable<Integer>> apply(List<Iterable<Integer>> result, Iterable<Integer> input, AtomicBoolean reduced) {
+                result.add(input);
+                return result;
+            }
+        };
+        BiFunction<List<Iterable<Integer>>, List<Iterable<Integer>>, List<Iterable<Integer>>> concat =
+                new BiFunction<List<Iterable<Integer>>, List<Iterable<Integer>>, List<Iterable<Integer>>>() {
+            @Override
+            public List<Iterable<Integer>> apply(List<Iterable<Integer>> a, List<Iterable<Integer>> b) {
+                a.addAll(b);
+                return a;
+            }
+        };
+        List<Iterable<Integer>> result = transduceKeyed(Fns.<Integer, Integer>partitionBy(customer), batches, customer, shards, concat, ints(100000));
+
+        // each run of one customer's inputs forms a batch, in input order
+        List<Integer> all = new ArrayList<Integer>();
+        for (Iterable<Integer> batch : result) {
+            Integer prior = null;
+            for (Integer i : batch) {
+                if (prior != null) {
+                    assertEquals(prior / 100, i / 100);
+                    assertTrue(prior < i);
+                }
+                prior = i;
+                all.add(i);
+            }
+        }
+        assertEquals(1000, result.size());
+        Collections.sort(all);
+        assertEquals(ints(100000), all);
+
+        // the sum is the same however it is sharded
+        BiFunction<Long, Long, Long> plus = new BiFunction<Long, Long, Long>() {
+            @Override
+            public Long apply(Long a, Long b) {
+                return a + b;
+            }
+        };
+        IReducingFunction<Long, Integer> sum = new AReducingFunction<Long, Integer>() {
+            @Override
+            public Long apply() {
+                return 0l;
+            }
+
+            @Override
+            public Long apply(Long result, Integer input, AtomicBoolean reduced) {
+                return result + input;
+            }
+        };
+        ITransducer<Integer, Integer> odd = filter(new Predicate<Integer>() {
+            @Override
+            public boolean test(Integer i) {
+                return i % 2 == 1;
+            }
+        });
+        assertEquals(transduce(odd, sum, ints(100000)), transduceKeyed(odd, sum, customer, 3, plus, ints(100000)));
+
+        // a failure in a shard fails the reduction
+        ITransducer<Integer, Integer> failing = map(new Function<Integer, Integer>() {
+            @Override
+            public Integer apply(Integer i) {
+                if (i == 5000)
+                    throw new IllegalStateException("boom");
+                return i;
+            }
+        });
+        try {
+            transduceKeyed(failing, sum, customer, shards, plus, ints(100000));
+            fail();
+        } catch (IllegalStateException e) {
+            assertEquals("boom", e.getMessage());
+        }
+    }
+
+    public void testBatch() throws Exception {
+        ManualClock clock = new ManualClock();
+        ITransducer<List<Integer>, Integer> xf = batch(3, 10, TimeUnit.MILLISECONDS, clock);
+        List<List<Integer>> batches = new ArrayList<List<Integer>>();
+        Sink<List<List<Integer>>, Integer> sink = sink(xf, FnsTest.<List<Integer>>addAll(), batches, clock).open();
+
+        sink.push(0);
+        sink.push(1);
+        clock.advance(5, TimeUnit.MILLISECONDS);
+        assertTrue(batches.isEmpty());
+        // flushed by the scheduler though no input arrives
+        clock.advance(5, TimeUnit.MILLISECONDS);
+        assertEquals(Collections.singletonList(Arrays.asList(0, 1)), batches);
+
+        // flushed by size, before the delay passes
+        sink.push(2);
+        sink.push(3);
+        sink.push(4);
+        assertEquals(Arrays.asList(2, 3, 4), batches.get(1));
+        clock.advance(20, TimeUnit.MILLISECONDS);
+        assertEquals(2, batches.size());
+
+        sink.push(5);
+        clock.advance(9, TimeUnit.MILLISECONDS);
+        sink.push(6);
+        clock.advance(1, TimeUnit.MILLISECONDS);
+        assertEquals(Arrays.asList(5, 6), batches.get(2));
+        sink.push(7);
+        assertSame(batches, sink.close());
+        assertEquals(Arrays.asList(7), batches.get(3));
+
+        // pulled through transduce, the delay is checked as inputs arrive
+        List<List<Integer>> pulled = transduce(Fns.<Integer>batch(4, 1, TimeUnit.HOURS, IClock.SYSTEM), FnsTest.<List<Integer>>addAll(),
+                new ArrayList<List<Integer>>(), ints(10));
+        assertEquals(new ArrayList<List<Integer>>() {{
+            add(Arrays.asList(0, 1, 2, 3));
+            add(Arrays.asList(4, 5, 6, 7));
+            add(Arrays.asList(8, 9));
+        }}, pulled);
+    }
+
+    public void testSizeHint() throws Exception {
+        Function<Integer, Integer> inc = new Function<Integer, Integer>() {
+            @Override
+            public Integer apply(Integer i) {
+                return i + 1;
+            }
+        };
+        Predicate<Integer> even = new Predicate<Integer>() {
+            @Override
+            public boolean test(Integer i) {
+                return i % 2 == 0;
+            }
+        };
+        SizeHint hundred = SizeHint.of(ints(100));
+        assertEquals(SizeHint.exact(100), hundred);
+        assertEquals(SizeHint.UNKNOWN, SizeHint.of(new Iterable<Integer>() {
+            @Override
+            public Iterator<Integer> iterator() {
+                return ints(1).iterator();
+            }
+        }));
+        assertEquals(SizeHint.exact(100), SizeHint.through(map(inc), hundred));
+        assertEquals(SizeHint.exact(90), SizeHint.through(map(inc).comp(Fns.<Integer>drop(10)), hundred));
+        assertEquals(SizeHint.atMost(50), SizeHint.through(filter(even).comp(map(inc)).comp(Fns.<Integer>take(50)), hundred));
+        assertEquals(SizeHint.atMost(5), SizeHint.through(Fns.<Integer>take(5), SizeHint.UNKNOWN));
+        assertEquals(SizeHint.exact(34), SizeHint.through(Fns.<Integer>partitionAll(3), hundred));
+        assertEquals(SizeHint.UNKNOWN, SizeHint.through(Fns.<Integer>partitionAll(3).comp(Fns.<Integer, Iterable<Integer>>cat()), hundred));
+
+        ArrayList<Integer> list = intoList(map(inc).comp(Fns.<Integer>take(10)), ints(100));
+        assertEquals(Arrays.asList(1, 2, 3, 4, 5, 6, 7, 8, 9, 10), list);
+
+        Integer[] exact = intoArray(map(inc), ints(5), new Integer[0]);
+        assertTrue(Arrays.equals(new Integer[] {1, 2, 3, 4, 5}, exact));
+        Integer[] bounded = intoArray(filter(even), ints(10), new Integer[0]);
+        assertTrue(Arrays.equals(new Integer[] {0, 2, 4, 6, 8}, bounded));
+        Integer[] unknown = intoArray(Fns.<Integer>partitionAll(2).comp(Fns.<Integer, Iterable<Integer>>cat()), ints(25), new Integer[0]);
+        assertEquals(ints(25), Arrays.asList(unknown));
+
+        HashSet<Integer> set = intoSet(map(new Function<Integer, Integer>() {
+            @Override
+            public Integer apply(Integer i) {
+                return i % 7;
+            }
+        }), ints(100));
+        assertEquals(7, set.size());
+
+        HashMap<Integer, String> map = intoMap(map(new Function<Integer, Map.Entry<Integer, String>>() {
+            @Override
+            public Map.Entry<Integer, String> apply(Integer i) {
+                return new AbstractMap.SimpleEntry<Integer, String>(i, i.toString());
+            }
+        }), ints(100));
+        assertEquals(100, map.size());
+        assertEquals("42", map.get(42));
+    }
+
+    public void testReduceKV() throws Exception {
+        TreeMap<String, Integer> counts = new TreeMap<String, Integer>();
+        for (int i = 0; i < 6; i++) {
+            counts.put(String.valueOf((char) ('a' + i)), i);
+        }
+
+        String joined = reduceKV(new IKVStepFunction<String, String, Integer>() {
+            @Override
+            public String apply(String result, String key, Integer value, AtomicBoolean reduced) {
+                return result + key + value;
+            }
+        }, "", counts);
+        assertEquals("a0b1c2d3e4f5", joined);
+
+        IKVTransducer<String, Integer, String, Integer> evensTimesTen = Fns.<String, Integer>kvFilter(new BiPredicate<String, Integer>() {
+            @Override
+            public boolean test(String key, Integer value) {
+                return value % 2 == 0;
+            }
+        }).comp(Fns.<String, Integer, Integer>kvMapVals(new BiFunction<String, Integer, Integer>() {
+            @Override
+            public Integer apply(String key, Integer value) {
+                return value * 10;
+            }
+        }));
+        Map<String, Integer> evens = transduceKV(evensTimesTen, Fns.<String, Integer>kvPut(), counts);
+        assertEquals(new TreeMap<String, Integer>(evens).toString(), "{a=0, c=20, e=40}");
+
+        IKVTransducer<String, Integer, String, Integer> upperOdd = Fns.<String, Integer, Integer>kvKeep(new BiFunction<String, Integer, Integer>() {
+            @Override
+            public Integer apply(String key, Integer value) {
+                return value % 2 == 1 ? value : null;
+            }
+        }).comp(Fns.<String, Integer, String>kvMapKeys(new BiFunction<String, Integer, String>() {
+            @Override
+            public String apply(String key, Integer value) {
+                return key.toUpperCase();
+            }
+        }));
+        Map<String, Integer> odds = transduceKV(upperOdd, Fns.<String, Integer>kvPut(), new HashMap<String, Integer>(), counts);
+        assertEquals(new TreeMap<String, Integer>(odds).toString(), "{B=1, D=3, F=5}");
+
+        BiFunction<String, Integer, String> pair = new BiFunction<String, Integer, String>() {
+            @Override
+            public String apply(String key, Integer value) {
+                return key + "=" + value;
+            }
+        };
+        IReducingFunction<List<String>, String> conj = new AReducingFunction<List<String>, String>() {
+            @Override
+            public List<String> apply(List<String> result, String input, AtomicBoolean reduced) {
+                result.add(input);
+                return result;
+            }
+        };
+        final AtomicInteger stepped = new AtomicInteger();
+        IKVTransducer<String, Integer, String, Integer> counting = Fns.<String, Integer, Integer>kvMapVals(new BiFunction<String, Integer, Integer>() {
+            @Override
+            public Integer apply(String key, Integer value) {
+                stepped.incrementAndGet();
+                return value;
+            }
+        });
+        List<String> firstTwo = transduceKV(counting, kvReducing(pair, Fns.<String>take(2).apply(conj)),
+                new ArrayList<String>(), counts);
+        assertEquals(Arrays.asList("a=0", "b=1"), firstTwo);
+        assertEquals(3, stepped.get());
+
+        class Columns extends AbstractMap<String, Integer> implements IKVReducible<String, Integer> {
+            final String[] keys = {"x", "y", "z"};
+            final int[] values = {7, 8, 9};
+
+            @Override
+            public Set<Map.Entry<String, Integer>> entrySet() {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public <R> R reduceKV(IKVReducingFunction<R, ? super String, ? super Integer> rf, R result, AtomicBoolean reduced) {
+                for (int i = 0; i < keys.length && !reduced.get(); i++) {
+                    result = rf.apply(result, keys[i], values[i], reduced);
+                }
+                return result;
+            }
+        }
+        assertEquals("x7y8z9", reduceKV(new IKVStepFunction<String, String, Integer>() {
+            @Override
+            public String apply(String result, String key, Integer value, AtomicBoolean reduced) {
+                return result + key + value;
+            }
+        }, "", new Columns()));
+    }
+
+    public void testCancellation() throws Exception {
+        final CancellationToken token = CancellationToken.create(CancellationToken.Policy.PARTIAL);
+        ITransducer<Integer, Integer> cancelAt1500 = map(new Function<Integer, Integer>() {
+            @Override
+            public Integer apply(Integer i) {
+                if (i == 1500)
+                    token.cancel();
+                return i;
+            }
+        });
+        List<Integer> partial = transduce(cancelAt1500, FnsTest.<Integer>addAll(), new ArrayList<Integer>(), ints(10000), token);
+        assertEquals(ints(2048), partial);
+
+        final CancellationToken groups = CancellationToken.create(CancellationToken.Policy.PARTIAL);
+        ITransducer<Iterable<Integer>, Integer> grouped = map(new Function<Integer, Integer>() {
+            @Override
+            public Integer apply(Integer i) {
+                if (i == 1500)
+                    groups.cancel();
+                return i;
+            }
+        }).comp(Fns.<Integer>partitionAll(100));
+        List<Iterable<Integer>> parts = transduce(grouped, FnsTest.<Iterable<Integer>>addAll(), new ArrayList<Iterable<Integer>>(),
+                ints(10000).toArray(new Integer[0]), groups);
+        assertEquals(21, parts.size());
+        assertEquals(48, ((List<Integer>) parts.get(20)).size());
+
+        final CancellationToken throwing = CancellationToken.create(CancellationToken.Policy.THROW);
+        ITransducer<Integer, Integer> cancelAt10 = map(new Function<Integer, Integer>() {
+            @Override
+            public Integer apply(Integer i) {
+                if (i == 10)
+                    throwing.cancel();
+                return i;
+            }
+        });
+        try {
+            transduce(cancelAt10, FnsTest.<Integer>addAll(), new ArrayList<Integer>(), ints(5000), throwing);
+            fail("expected CancellationException");
+        } catch (java.util.concurrent.CancellationException e) {
+            assertEquals("cancelled", e.getMessage());
+        }
+
+        final ManualClock clock = new ManualClock();
+        CancellationToken deadline = CancellationToken.withTimeout(10, TimeUnit.MILLISECONDS, clock, CancellationToken.Policy.PARTIAL);
+        ITransducer<Integer, Integer> tick = map(new Function<Integer, Integer>() {
+            @Override
+            public Integer apply(Integer i) {
+                clock.advance(1, TimeUnit.MILLISECONDS);
+                return i;
+            }
+        });
+        List<Integer> timed = transduce(Fns.<Integer>cancellable(deadline, 4).comp(tick), FnsTest.<Integer>addAll(),
+                new ArrayList<Integer>(), ints(100));
+        assertEquals(ints(12), timed);
+        assertTrue(deadline.isCancelled());
+
+        List<Integer> none = transduce(Fns.<Integer>cancellable(deadline, 4).comp(Fns.<Integer>drop(5)), FnsTest.<Integer>addAll(),
+                new ArrayList<Integer>(), ints(100));
+        assertTrue(none.isEmpty());
+
+        CancellationToken open = CancellationToken.create(CancellationToken.Policy.THROW);
+        List<Integer> sliced = transduce(Fns.<Integer>drop(5).comp(Fns.<Integer>take(3)), FnsTest.<Integer>addAll(),
+                new ArrayList<Integer>(), ints(100), open);
+        assertEquals(Arrays.asList(5, 6, 7), sliced);
+        assertFalse(open.isCancelled());
+    }
+
+    public void testPartitionByReduce() throws Exception {
+        Function<Integer, Integer> tens = new Function<Integer, Integer>() {
+            @Override
+            public Integer apply(Integer i) {
+                return i / 10;
+            }
+        };
+        IReducingFunction<Long, Integer> sum = new AReducingFunction<Long, Integer>() {
+            @Override
+            public Long apply() {
+                return 0L;
+            }
+
+            @Override
+            public Long apply(Long result, Integer input, AtomicBoolean reduced) {
+                return result + input;
+            }
+        };
+        List<Long> sums = transduce(Fns.<Long, Integer, Integer>partitionByReduce(tens, sum), FnsTest.<Long>addAll(),
+                new ArrayList<Long>(), ints(35));
+        assertEquals(Arrays.asList(45L, 145L, 245L, 160L), sums);
+
+        ITransducer<Integer, Integer> firstTwoEven = filter(new Predicate<Integer>() {
+            @Override
+            public boolean test(Integer i) {
+                return i % 2 == 0;
+            }
+        }).comp(Fns.<Integer>take(2));
+        List<Long> firsts = transduce(Fns.<Long, Integer, Integer, Integer>partitionByReduce(tens, firstTwoEven, sum),
+                FnsTest.<Long>addAll(), new ArrayList<Long>(), ints(35));
+        assertEquals(Arrays.asList(2L, 22L, 42L, 62L), firsts);
+
+        List<Long> two = transduce(Fns.<Long, Integer, Integer>partitionByReduce(tens, sum).comp(Fns.<Long>take(2)),
+                FnsTest.<Long>addAll(), new ArrayList<Long>(), ints(35));
+        assertEquals(Arrays.asList(45L, 145L), two);
+
+        IReducingFunction<List<Long>, Integer> rf = Fns.<Long, Integer, Integer>partitionByReduce(tens, sum).apply(FnsTest.<Long>addAll());
+        List<Long> result = new ArrayList<Long>();
+        AtomicBoolean reduced = new AtomicBoolean();
+        for (int i = 0; i < 15; i++) {
+            result = rf.apply(result, i, reduced);
+        }
+        byte[] state = checkpoint(rf);
+        IReducingFunction<List<Long>, Integer> resumed = restore(Fns.<Long, Integer, Integer>partitionByReduce(tens, sum).apply(FnsTest.<Long>addAll()), state);
+        for (int i = 15; i < 25; i++) {
+            result = resumed.apply(result, i, reduced);
+        }
+        assertEquals(Arrays.asList(45L, 145L, 110L), resumed.apply(result));
+    }
+
+    public void testAsyncBoundary() throws Exception {
+        final Set<String> upstream = Collections.synchronizedSet(new HashSet<String>());
+        final Set<String> downstream = Collections.synchronizedSet(new HashSet<String>());
+        ITransducer<Integer, Integer> before = map(new Function<Integer, Integer>() {
+            @Override
+            public Integer apply(Integer i) {
+                upstream.add(Thread.currentThread().getName());
+                return i;
+            }
+        });
+        ITransducer<Integer, Integer> after = map(new Function<Integer, Integer>() {
+            @Override
+            public Integer apply(Integer i) {
+                downstream.add(Thread.currentThread().getName());
+                return i * 2;
+            }
+        });
+        IReducingFunction<Long, Integer> sum = new AReducingFunction<Long, Integer>() {
+            @Override
+            public Long apply(Long result, Integer input, AtomicBoolean reduced) {
+                return result + input;
+            }
+        };
+        for (WaitStrategy wait : WaitStrategy.values()) {
+            upstream.clear();
+            downstream.clear();
+            Long total = transduce(before.comp(Fns.<Integer>asyncBoundary(64, 1024, wait)).comp(after), sum, 0L, ints(100000));
+            assertEquals(Long.valueOf(100000L * 99999), total);
+            assertEquals(Collections.singleton(Thread.currentThread().getName()), upstream);
+            assertEquals(Collections.singleton("transducers-boundary"), downstream);
+        }
+
+        final AtomicInteger produced = new AtomicInteger();
+        ITransducer<Integer, Integer> counting = map(new Function<Integer, Integer>() {
+            @Override
+            public Integer apply(Integer i) {
+                produced.incrementAndGet();
+                return i;
+            }
+        });
+        List<Integer> first = transduce(counting.comp(Fns.<Integer>asyncBoundary(16, 64, WaitStrategy.YIELD)).comp(Fns.<Integer>take(10)),
+                FnsTest.<Integer>addAll(), new ArrayList<Integer>(), ints(1000000));
+        assertEquals(ints(10), first);
+        assertTrue(produced.get() < 10000);
+
+        List<Iterable<Integer>> parts = transduce(Fns.<Integer>asyncBoundary(4, 8, WaitStrategy.PARK).comp(Fns.<Integer>partitionAll(3)),
+                FnsTest.<Iterable<Integer>>addAll(), new ArrayList<Iterable<Integer>>(), ints(10));
+        assertEquals(4, parts.size());
+        assertEquals(Arrays.asList(9), parts.get(3));
+
+        List<Integer> withNulls = transduce(Fns.<Integer>asyncBoundary(2, 2, WaitStrategy.PARK), FnsTest.<Integer>addAll(),
+                new ArrayList<Integer>(), Arrays.asList(1, null, 3));
+        assertEquals(Arrays.asList(1, null, 3), withNulls);
+
+        ITransducer<Integer, Integer> failing = map(new Function<Integer, Integer>() {
+            @Override
+            public Integer apply(Integer i) {
+                if (i == 500)
+                    throw new IllegalStateException("boom");
+                return i;
+            }
+        });
+        try {
+            transduce(Fns.<Integer>asyncBoundary(8, 32, WaitStrategy.YIELD).comp(failing), sum, 0L, ints(1000));
+            fail("expected IllegalStateException");
+        } catch (IllegalStateException e) {
+            assertEquals("boom", e.getMessage());
+        }
+
+        // a stage before the boundary failing abandons the reduction, and the worker retires
+        for (WaitStrategy wait : WaitStrategy.values()) {
+            try {
+                transduce(failing.comp(Fns.<Integer>asyncBoundary(8, 32, wait)), sum, 0L, ints(1000));
+                fail("expected IllegalStateException");
+            } catch (IllegalStateException e) {
+                assertEquals("boom", e.getMessage());
+            }
+        }
+        long deadline = System.currentTimeMillis() + 5000;
+        while (boundaryWorkers() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, boundaryWorkers());
+
+        // ticks reach timed stages after the boundary
+        ManualClock clock = new ManualClock();
+        List<List<Integer>> batches = new ArrayList<List<Integer>>();
+        Sink<List<List<Integer>>, Integer> sink = sink(Fns.<Integer>asyncBoundary(4, 8, WaitStrategy.PARK)
+                .comp(Fns.<Integer>batch(3, 10, TimeUnit.MILLISECONDS, clock)), FnsTest.<List<Integer>>addAll(), batches, clock).open();
+        sink.push(0);
+        sink.push(1);
+        // the inputs are still on this side of the boundary, so the batch has no deadline yet
+        sink.tick();
+        assertTrue(batches.isEmpty());
+        clock.advance(10, TimeUnit.MILLISECONDS);
+        assertEquals(Collections.singletonList(Arrays.asList(0, 1)), sink.close());
+
+        // checkpoints include the stages, and the result, after the boundary
+        IReducingFunction<Long, Integer> stepped = Fns.<Integer>asyncBoundary(4, 8, WaitStrategy.PARK)
+                .comp(Fns.<Integer>dedupe()).apply(sum);
+        AtomicBoolean reduced = new AtomicBoolean();
+        Long result = 0L;
+        for (int i = 0; i < 10; i++) {
+            result = stepped.apply(result, i / 2, reduced);
+        }
+        byte[] state = checkpoint(stepped);
+        assertEquals(Long.valueOf(10), stepped.apply(result));
+        IReducingFunction<Long, Integer> resumed = restore(Fns.<Integer>asyncBoundary(4, 8, WaitStrategy.PARK)
+                .comp(Fns.<Integer>dedupe()).apply(sum), state);
+        for (int i = 10; i < 14; i++) {
+            result = resumed.apply(result, i / 2, reduced);
+        }
+        assertEquals(Long.valueOf(10 + 5 + 6), resumed.apply(result));
+    }
+
+    private static int boundaryWorkers() {
+        int n = 0;
+        for (Thread t : Thread.getAllStackTraces().keySet()) {
+            if (t.isAlive() && "transducers-boundary".equals(t.getName()))
+                n++;
+        }
+        return n;
+    }
+
+    public void testLookupJoin() throws Exception {
+        List<String> people = Arrays.asList("1=ann", "2=bob", "2=bea", "4=dan", "x=nobody");
+        Function<String, Integer> id = new Function<String, Integer>() {
+            @Override
+            public Integer apply(String row) {
+                String k = row.substring(0, row.indexOf('='));
+                return k.equals("x") ? null : Integer.valueOf(k);
+            }
+        };
+        Function<Integer, Integer> self = new Function<Integer, Integer>() {
+            @Override
+            public Integer apply(Integer i) {
+                return i;
+            }
+        };
+        BiFunction<Integer, String, String> combine = new BiFunction<Integer, String, String>() {
+            @Override
+            public String apply(Integer i, String row) {
+                return i + ":" + (row == null ? null : row.substring(row.indexOf('=') + 1));
+            }
+        };
+        List<Integer> input = Arrays.asList(1, 2, 3, 4, 5);
+
+        LookupIndex<Integer, String> index = LookupIndex.build(people, id);
+        assertEquals(4, index.size());
+        assertEquals("2=bob", index.get(2));
+        assertFalse(index.containsKey(3));
+        assertNull(index.get(null));
+
+        assertEquals(Arrays.asList("1:ann", "2:bob", "2:bea", "4:dan"),
+                intoList(lookupJoin(index, self, JoinMode.INNER, combine), input));
+        assertEquals(Arrays.asList("1:ann", "2:bob", "2:bea", "3:null", "4:dan", "5:null"),
+                intoList(lookupJoin(index, self, JoinMode.LEFT, combine), input));
+        assertEquals(Arrays.asList("1:ann", "2:bob", "4:dan"),
+                intoList(lookupJoin(people, id, self, JoinMode.SEMI, combine), input));
+        assertEquals(Arrays.asList("1:ann", "2:bob"),
+                intoList(lookupJoin(index, self, JoinMode.INNER, combine).comp(Fns.<String>take(2)), input));
+
+        List<String> numbered = Arrays.asList("1=ann", "2=bob", "4=dan");
+        LongLookupIndex<String> longs = LongLookupIndex.build(numbered, new ToLongFunction<String>() {
+            @Override
+            public long applyAsLong(String row) {
+                return Long.parseLong(row.substring(0, row.indexOf('=')));
+            }
+        });
+        ToLongFunction<Integer> longKey = new ToLongFunction<Integer>() {
+            @Override
+            public long applyAsLong(Integer i) {
+                return i;
+            }
+        };
+        assertEquals("4=dan", longs.get(4));
+        assertFalse(longs.containsKey(3));
+        ITransducer<String, Integer> left = lookupJoin(longs, longKey, JoinMode.LEFT, combine);
+        assertEquals(SizeHint.exact(5), SizeHint.through(left, SizeHint.of(input)));
+        assertEquals(Arrays.asList("1:ann", "2:bob", "3:null", "4:dan", "5:null"), intoList(left, input));
+
+        List<Integer> many = new ArrayList<Integer>();
+        LongLookupIndex<Integer> squares = LongLookupIndex.build(ints(1000), new ToLongFunction<Integer>() {
+            @Override
+            public long applyAsLong(Integer i) {
+                return (long) i * i;
+            }
+        });
+        for (int i = 0; i < 2000; i++) {
+            many.add(i);
+        }
+        ITransducer<Integer, Integer> roots = lookupJoin(squares, longKey, JoinMode.INNER, new BiFunction<Integer, Integer, Integer>() {
+            @Override
+            public Integer apply(Integer square, Integer root) {
+                return root;
+            }
+        });
+        assertEquals(ints(45), intoList(roots, many));
+
+        IReducingFunction<Long, Integer> count = new AReducingFunction<Long, Integer>() {
+            @Override
+            public Long apply() {
+                return 0L;
+            }
+
+            @Override
+            public Long apply(Long result, Integer input, AtomicBoolean reduced) {
+                return result + 1;
+            }
+        };
+        BiFunction<Long, Long, Long> plus = new BiFunction<Long, Long, Long>() {
+            @Override
+            public Long apply(Long a, Long b) {
+                return a + b;
+            }
+        };
+        ITransducer<Integer, Integer> shared = lookupJoin(squares, longKey, JoinMode.SEMI, new BiFunction<Integer, Integer, Integer>() {
+            @Override
+            public Integer apply(Integer square, Integer root) {
+                return root;
+            }
+        });
+        assertEquals(Long.valueOf(1000), transduceKeyed(shared, count, self, 4, plus, ints(1000000)));
+    }
+}
@@ -0,0 +1,145 @@
+package com.cognitect.transducers;
+
+import junit.framework.TestCase;
+
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static com.cognitect.transducers.Fns.*;
+
+public class OffHeapTest extends TestCase {
+
+    private List<Integer> ints(int n) {
+        List<Integer> ret = new ArrayList<Integer>(n);
+        for(int i = 0; i < n; i++) {
+            ret.add(i);
+        }
+        return ret;
+    }
+
+    private static final IReducingFunction<Long, Number> sum = new AReducingFunction<Long, Number>() {
+        @Override
+        public Long apply(Long result, Number input, AtomicBoolean reduced) {
+            return result + input.longValue();
+        }
+    };
+
+    private static final class Score {
+        final long id;
+        final double score;
+
+        Score(long id, double score) {
+            this.id = id;
+            this.score = score;
+        }
+    }
+
+    private static final IStructLayout<Score> scores = new IStructLayout<Score>() {
+        @Override
+        public int width() {
+            return 16;
+        }
+
+        @Override
+        public void write(Score s, ByteBuffer buffer, int offset) {
+            buffer.putLong(offset, s.id);
+            buffer.putDouble(offset + 8, s.score);
+        }
+
+        @Override
+        public Score read(ByteBuffer buffer, int offset) {
+            return new Score(buffer.getLong(offset), buffer.getDouble(offset + 8));
+        }
+    };
+
+    public void testLongs() throws Exception {
+        // more than two chunks of 1 MiB
+        int n = 300000;
+        OffHeapLongs longs = transduce(map(new Function<Integer, Integer>() {
+            @Override
+            public Integer apply(Integer i) {
+                return 3 * i;
+            }
+        }), Fns.<Integer>offHeapLongs(), ints(n));
+        assertEquals(n, longs.size());
+        assertEquals(0L, longs.get(0));
+        assertEquals(600000L, longs.get(200000));
+        assertEquals(3L * (n - 1), longs.get(n - 1));
+        try {
+            longs.get(n);
+            fail("expected IndexOutOfBoundsException");
+        } catch (IndexOutOfBoundsException e) {
+        }
+
+        long expected = 0;
+        for (long i = 131000; i < 131200; i++) {
+            expected += 3 * i;
+        }
+        Long straddling = transduce(Fns.<Long>drop(131000).comp(Fns.<Long>take(200)), sum, 0L, longs);
+        assertEquals(Long.valueOf(expected), straddling);
+
+        long iterated = 0;
+        for (Long l : longs) {
+            iterated += l;
+        }
+        assertEquals(3L * n * (n - 1) / 2, iterated);
+        assertEquals(Long.valueOf(iterated), transduce(Fns.<Long>take(n), sum, 0L, longs));
+
+        longs.release();
+        try {
+            longs.get(0);
+            fail("expected IllegalStateException");
+        } catch (IllegalStateException e) {
+        }
+        try {
+            transduce(Fns.<Long>take(1), sum, 0L, longs);
+            fail("expected IllegalStateException");
+        } catch (IllegalStateException e) {
+        }
+    }
+
+    public void testDoubles() throws Exception {
+        OffHeapDoubles halves = transduce(Fns.<Double, Integer>map(new Function<Integer, Double>() {
+            @Override
+            public Double apply(Integer i) {
+                return i / 2.0;
+            }
+        }), Fns.<Double>offHeapDoubles(), ints(10));
+        assertEquals(10, halves.size());
+        assertEquals(4.5, halves.get(9));
+        List<Double> copy = new ArrayList<Double>();
+        for (Double d : halves) {
+            copy.add(d);
+        }
+        assertEquals(Arrays.asList(0.0, 0.5, 1.0, 1.5, 2.0, 2.5, 3.0, 3.5, 4.0, 4.5), copy);
+        halves.release();
+    }
+
+    public void testStructs() throws Exception {
+        OffHeapStructs<Score> table = transduce(Fns.<Score, Integer>map(new Function<Integer, Score>() {
+            @Override
+            public Score apply(Integer i) {
+                return new Score(i, i * 0.25);
+            }
+        }), offHeapStructs(scores), ints(100000));
+        assertEquals(100000, table.size());
+        assertEquals(70000L, table.getLong(70000, 0));
+        assertEquals(17500.0, table.getDouble(70000, 8));
+        assertEquals(70001L, table.get(70001).id);
+        try {
+            table.getLong(0, 12);
+            fail("expected IndexOutOfBoundsException");
+        } catch (IndexOutOfBoundsException e) {
+        }
+
+        Long ids = transduce(Fns.<Score>drop(99990).comp(Fns.<Long, Score>map(new Function<Score, Long>() {
+            @Override
+            public Long apply(Score s) {
+                return s.id;
+            }
+        })), sum, 0L, table);
+        assertEquals(Long.valueOf(99990L + 99991 + 99992 + 99993 + 99994 + 99995 + 99996 + 99997 + 99998 + 99999), ids);
+        table.release();
+    }
+}
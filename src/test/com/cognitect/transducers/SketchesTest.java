@@ -0,0 +1,169 @@
+package com.cognitect.transducers;
+
+import junit.framework.TestCase;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.*;
+
+import static com.cognitect.transducers.Fns.*;
+
+public class SketchesTest extends TestCase {
+
+    private List<Integer> ints(int from, int to) {
+        List<Integer> ret = new ArrayList<Integer>(to - from);
+        for(int i = from; i < to; i++) {
+            ret.add(i);
+        }
+        return ret;
+    }
+
+    private static final ITransducer<Integer, Integer> identity = map(new Function<Integer, Integer>() {
+        @Override
+        public Integer apply(Integer i) {
+            return i;
+        }
+    });
+
+    private static final IElementCodec<String> strings = new IElementCodec<String>() {
+        @Override
+        public void write(String s, DataOutput out) throws IOException {
+            out.writeUTF(s);
+        }
+
+        @Override
+        public String read(DataInput in) throws IOException {
+            return in.readUTF();
+        }
+    };
+
+    private static void assertNear(double expected, double actual, double tolerance) {
+        assertTrue("expected " + expected + " but was " + actual, Math.abs(expected - actual) <= tolerance);
+    }
+
+    public void testHyperLogLog() throws Exception {
+        HyperLogLog a = transduce(identity, Fns.<Integer>hyperLogLog(14), ints(0, 100000));
+        assertNear(100000, a.estimate(), 3000);
+
+        HyperLogLog small = transduce(identity, Fns.<Integer>hyperLogLog(14), ints(0, 100));
+        assertNear(100, small.estimate(), 2);
+
+        HyperLogLog b = transduce(identity, Fns.<Integer>hyperLogLog(14), ints(50000, 150000));
+        a.merge(b);
+        assertNear(150000, a.estimate(), 4500);
+
+        assertEquals(a.estimate(), HyperLogLog.fromBytes(a.toBytes()).estimate());
+        assertEquals(new HyperLogLog(10).add(42).estimate(), new HyperLogLog(10).add(42l).addAll(new long[] {42}).estimate());
+        assertEquals(new HyperLogLog(10).addAll(new long[] {1, 2, 3}).estimate(), new HyperLogLog(10).addAll(new int[] {1, 2, 3}).estimate());
+    }
+
+    public void testCountMin() throws Exception {
+        List<Integer> data = ints(0, 10000);
+        for (int i = 0; i < 500; i++) {
+            data.add(7);
+        }
+        CountMinSketch a = transduce(identity, Fns.<Integer>countMin(2000, 5), data);
+        assertTrue(a.estimate(7) >= 501);
+        assertTrue(a.estimate(7) <= 501 + 20);
+        assertTrue(a.estimate(3) >= 1);
+        assertEquals(10500, a.total());
+
+        CountMinSketch b = new CountMinSketch(2000, 5).add(7, 100);
+        a.merge(b);
+        assertTrue(a.estimate(7l) >= 601);
+
+        CountMinSketch c = CountMinSketch.fromBytes(a.toBytes());
+        assertEquals(a.estimate(7), c.estimate(7));
+        assertEquals(a.total(), c.total());
+
+        CountMinSketch d = new CountMinSketch(100, 3).addAll(new int[] {5, 5, 9});
+        assertEquals(2, d.estimate(5l));
+        assertEquals(d.estimate(9), new CountMinSketch(100, 3).addAll(new long[] {9}).estimate(9));
+    }
+
+    public void testHeavyHitters() throws Exception {
+        List<String> data = new ArrayList<String>();
+        for (int i = 0; i < 10000; i++) {
+            data.add("noise" + i);
+            if (i % 2 == 0)
+                data.add("a");
+            if (i % 5 == 0)
+                data.add("b");
+        }
+        ITransducer<String, String> xf = map(new Function<String, String>() {
+            @Override
+            public String apply(String s) {
+                return s;
+            }
+        });
+        HeavyHitters<String> hh = transduce(xf, Fns.<String>heavyHitters(10), data);
+        List<String> top = hh.items();
+        assertEquals("a", top.get(0));
+        assertEquals("b", top.get(1));
+        assertTrue(hh.count("a") <= 5000);
+        assertTrue(hh.count("a") >= 5000 - hh.total() / 11);
+
+        HeavyHitters<String> other = new HeavyHitters<String>(10);
+        for (int i = 0; i < 20000; i++) {
+            other.add("c");
+        }
+        hh.merge(other);
+        assertEquals("c", hh.items().get(0));
+
+        HeavyHitters<String> copy = HeavyHitters.fromBytes(hh.toBytes(strings), strings);
+        assertEquals(hh.items(), copy.items());
+        assertEquals(hh.count("b"), copy.count("b"));
+        assertEquals(hh.total(), copy.total());
+    }
+
+    public void testHeavyHittersManyDistinct() throws Exception {
+        HeavyHitters<Integer> hh = new HeavyHitters<Integer>(4);
+        int total = 0;
+        for (int i = 0; i < 100000; i++) {
+            hh.add(i);
+            total++;
+            if (i % 3 == 0) {
+                hh.add(-1);
+                total++;
+            }
+        }
+        assertEquals(total, hh.total());
+        assertEquals(Integer.valueOf(-1), hh.items().get(0));
+        assertTrue(hh.items().size() <= 4);
+        assertTrue(hh.count(-1) <= 33334);
+        assertTrue(hh.count(-1) >= 33334 - total / 5);
+        for (int i = 0; i < 100000; i++) {
+            assertTrue(hh.count(i) <= 1);
+        }
+    }
+
+    public void testQuantiles() throws Exception {
+        List<Integer> data = ints(0, 100000);
+        Collections.shuffle(data, new Random(3));
+        QuantileSketch a = transduce(identity, Fns.<Integer>quantiles(200), data);
+        assertEquals(100000, a.count());
+        assertEquals(0.0, a.quantile(0.0));
+        assertEquals(99999.0, a.quantile(1.0));
+        assertNear(50000, a.quantile(0.5), 2000);
+        assertNear(99000, a.quantile(0.99), 2000);
+        assertNear(0.25, a.rank(25000), 0.02);
+
+        QuantileSketch b = new QuantileSketch(200);
+        double[] more = new double[100000];
+        for (int i = 0; i < more.length; i++) {
+            more[i] = 100000 + i;
+        }
+        b.addAll(more);
+        a.merge(b);
+        assertEquals(new QuantileSketch(200).addAll(new int[] {3, 1, 2}).quantile(0.5),
+                new QuantileSketch(200).addAll(new long[] {3, 1, 2}).quantile(0.5));
+        assertEquals(200000, a.count());
+        assertNear(100000, a.quantile(0.5), 4000);
+
+        QuantileSketch c = QuantileSketch.fromBytes(a.toBytes());
+        assertEquals(a.quantile(0.5), c.quantile(0.5));
+        assertEquals(a.count(), c.count());
+        assertTrue(a.toBytes().length < 200 * 8 * 4);
+    }
+}